@@ -0,0 +1,192 @@
+package org.escidoc.services.oaiprovider.bench;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.escidoc.services.oaiprovider.EscidocOAIDriver;
+import org.escidoc.services.oaiprovider.LatencyStats;
+import org.escidoc.services.oaiprovider.NamedThreadFactory;
+
+import proai.Record;
+import proai.driver.RemoteIterator;
+import proai.error.RepositoryException;
+
+/**
+ * Harvests a {@link StubEscidocServer} end to end, as proai does: every
+ * round lists all records of a format by listRecords and writes each of them
+ * by writeRecordXML from a pool of workers. Reports per round the records
+ * per second, the time of listRecords and the p50 and p99 latencies of
+ * writeRecordXML.
+ * <p>
+ * The arguments are name=value options: those of
+ * {@link StubEscidocServer#create(Properties)}, prefix (escidoc), rounds
+ * (3) and workers (5, proai.maxWorkers), and any driver.escidoc property,
+ * which replaces the configuration of the harness.
+ */
+public class EndToEndHarness {
+
+    private final EscidocOAIDriver driver;
+
+    private final StubEscidocServer server;
+
+    private final int workers;
+
+    public EndToEndHarness(
+        EscidocOAIDriver driver, StubEscidocServer server, int workers) {
+        this.driver = driver;
+        this.server = server;
+        this.workers = workers;
+    }
+
+    /**
+     * Builds the driver configuration for the server: the DC and the escidoc
+     * md-record formats, no validation, which would load the schemas from the
+     * network, and no change gate, so every round harvests again.
+     */
+    public static Properties driverProperties(
+        StubEscidocServer server, Properties options) {
+        Properties props = new Properties();
+        props.setProperty(EscidocOAIDriver.PROP_BASEURL, server.getBaseUrl());
+        props.setProperty(EscidocOAIDriver.PROP_SEARCH_BASEURL, server
+            .getSearchBaseUrl());
+        props.setProperty(EscidocOAIDriver.PROP_NAMESPACE_IDENTIFIER,
+            SyntheticData.NAMESPACE_IDENTIFIER);
+        props.setProperty(EscidocOAIDriver.PROP_FORMATS, "oai_dc escidoc");
+        setFormat(props, "oai_dc", "http://www.openarchives.org/OAI/2.0/oai_dc/",
+            "http://www.openarchives.org/OAI/2.0/oai_dc.xsd", "DC");
+        setFormat(props, "escidoc", SyntheticData.PUBLICATION_NS,
+            "http://www.escidoc.org/schemas/publication.xsd",
+            SyntheticData.MD_RECORD_NAME);
+        props.setProperty(EscidocOAIDriver.PROP_VALIDATION_SAMPLE_RATE, "0");
+        props.setProperty(EscidocOAIDriver.PROP_CHANGE_GATE, "false");
+        props.setProperty(EscidocOAIDriver.PROP_HARVEST_RETRY_INITIAL_MILLIS,
+            "100");
+        Iterator<String> it = options.stringPropertyNames().iterator();
+        while (it.hasNext()) {
+            String key = it.next();
+            if (key.startsWith(EscidocOAIDriver.NS)) {
+                props.setProperty(key, options.getProperty(key));
+            }
+        }
+        return props;
+    }
+
+    private static void setFormat(
+        Properties props, String prefix, String uri, String loc,
+        String dissType) {
+        String start = EscidocOAIDriver.PROP_FORMAT_START + prefix;
+        props.setProperty(start + EscidocOAIDriver.PROP_FORMAT_URI_END, uri);
+        props.setProperty(start + EscidocOAIDriver.PROP_FORMAT_LOC_END, loc);
+        props.setProperty(start + EscidocOAIDriver.PROP_FORMAT_DISSTYPE_END,
+            dissType);
+    }
+
+    /**
+     * Harvests all records of the format once.
+     *
+     * @return the summary of the round
+     */
+    public String harvest(final String prefix) throws Exception {
+        final LatencyStats writeLatency = new LatencyStats("writeRecordXML");
+        final AtomicLong failures = new AtomicLong();
+        final PrintWriter out = new PrintWriter(new DiscardingWriter());
+        long requestsBefore = server.getRequests();
+        ThreadPoolExecutor executor =
+            new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(workers * 4),
+                new NamedThreadFactory("harness-worker-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        long start = System.nanoTime();
+        RemoteIterator<? extends Record> records =
+            driver.listRecords(new Date(SyntheticData.BASE_MILLIS), new Date(
+                SyntheticData.modificationMillis(server.getRecords())), prefix);
+        long listed = System.nanoTime();
+        int count = 0;
+        try {
+            while (records.hasNext()) {
+                final Record record = records.next();
+                count++;
+                executor.execute(new Runnable() {
+                    public void run() {
+                        long t = System.nanoTime();
+                        try {
+                            driver.writeRecordXML(record.getItemID(), prefix,
+                                record.getSourceInfo(), out);
+                            writeLatency.add(System.nanoTime() - t);
+                        }
+                        catch (RepositoryException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                });
+            }
+        }
+        finally {
+            records.close();
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.HOURS);
+        }
+        long end = System.nanoTime();
+        double seconds = (end - start) / 1e9;
+        return count + " records in " + Math.round(seconds * 1000)
+            + " ms, " + Math.round(count / seconds) + " records/s, listRecords "
+            + TimeUnit.NANOSECONDS.toMillis(listed - start)
+            + " ms, writeRecordXML p50=" + writeLatency.getPercentileMicros(50)
+            + "us p99=" + writeLatency.getPercentileMicros(99) + "us max="
+            + writeLatency.getMaxMicros() + "us, failed=" + failures.get()
+            + ", requests=" + (server.getRequests() - requestsBefore);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties options = StubEscidocServer.options(args, 0);
+        String prefix = options.getProperty("prefix", "escidoc");
+        int rounds = Integer.parseInt(options.getProperty("rounds", "3"));
+        int workers = Integer.parseInt(options.getProperty("workers", "5"));
+        StubEscidocServer server = StubEscidocServer.create(options);
+        server.start(0);
+        try {
+            EscidocOAIDriver driver = new EscidocOAIDriver();
+            driver.init(driverProperties(server, options));
+            try {
+                EndToEndHarness harness =
+                    new EndToEndHarness(driver, server, workers);
+                for (int i = 1; i <= rounds; i++) {
+                    System.out.println("Round " + i + ": "
+                        + harness.harvest(prefix));
+                }
+                System.out.println("Injected failures: "
+                    + server.getFailures());
+            }
+            finally {
+                driver.close();
+            }
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Drops the records, so only the driver is measured.
+     */
+    private static final class DiscardingWriter extends Writer {
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.escidoc.services.oaiprovider.bench;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.escidoc.services.oaiprovider.EscidocMetadataFormat;
+import org.escidoc.services.oaiprovider.EscidocRecord;
+import org.escidoc.services.oaiprovider.EscidocResourceIterator;
+import org.escidoc.services.oaiprovider.RecordList;
+import org.escidoc.services.oaiprovider.RecordListWriter;
+import org.escidoc.services.oaiprovider.RecordsReader;
+import org.escidoc.services.oaiprovider.stax.SearchRecord;
+import org.escidoc.services.oaiprovider.stax.SearchResultReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Writes and reads the record lists built by listRecords: writing the
+ * search records into a list, reading the list back through
+ * {@link EscidocResourceIterator} as proai does, and constructing single
+ * {@link EscidocRecord}s. Throughput is reported per whole list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RecordListBenchmark {
+
+    private static final EscidocMetadataFormat FORMAT =
+        new EscidocMetadataFormat("escidoc", SyntheticData.PUBLICATION_NS,
+            "http://www.escidoc.org/schemas/publication.xsd",
+            SyntheticData.MD_RECORD_NAME);
+
+    private static final String[] SET_SPECS =
+        { "context_escidoc_ctx1", "ou_escidoc_ou1", "ou_escidoc_ou8" };
+
+    @Param( { "1000", "100000" })
+    public int records;
+
+    @Param( { "true", "false" })
+    public boolean compress;
+
+    /**
+     * Whether the payloads of the search records are written to the list.
+     */
+    @Param( { "false", "true" })
+    public boolean payload;
+
+    private List<SearchRecord> searchRecords;
+
+    private RecordList list;
+
+    @Setup
+    public void createRecords() throws Exception {
+        searchRecords = new ArrayList<SearchRecord>(records);
+        int pageSize = 100;
+        for (int start = 1; start <= records; start += pageSize) {
+            byte[] page =
+                SyntheticData.searchPage(start, pageSize, records, 20)
+                    .getBytes("UTF-8");
+            SearchResultReader reader =
+                new SearchResultReader(new ByteArrayInputStream(page),
+                    payload ? SyntheticData.MD_RECORD_NAME : null);
+            while (reader.nextRecord()) {
+                searchRecords.add(reader.getRecord().copy());
+            }
+            reader.close();
+        }
+        list = writeList();
+    }
+
+    @TearDown
+    public void closeList() {
+        list.close();
+    }
+
+    private RecordList writeList() {
+        RecordListWriter writer =
+            new RecordListWriter(SyntheticData.NAMESPACE_IDENTIFIER, null,
+                null, null, Long.MAX_VALUE, compress);
+        for (int i = 0; i < searchRecords.size(); i++) {
+            writer.write(searchRecords.get(i));
+        }
+        return writer.close();
+    }
+
+    @Benchmark
+    public long write() {
+        RecordList written = writeList();
+        long size = written.size();
+        written.close();
+        return size;
+    }
+
+    @Benchmark
+    public void read(Blackhole blackhole) {
+        RecordsReader reader =
+            new RecordsReader(list.cursor(0, list.size()));
+        EscidocResourceIterator records =
+            new EscidocResourceIterator(FORMAT, reader);
+        while (records.hasNext()) {
+            EscidocRecord record = records.next();
+            blackhole.consume(record.getSourceInfo());
+        }
+        records.close();
+    }
+
+    @Benchmark
+    public EscidocRecord createRecord() {
+        return new EscidocRecord("oai:escidoc.org:escidoc:100001",
+            "escidoc:100001", "escidoc", SyntheticData.MD_RECORD_NAME,
+            "2010-01-01T00:01:00.000Z", false, SET_SPECS,
+            "2010-01-01T00:01:00.000Z", "item");
+    }
+}
@@ -0,0 +1,69 @@
+package org.escidoc.services.oaiprovider.bench;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.escidoc.services.oaiprovider.stax.SearchRecord;
+import org.escidoc.services.oaiprovider.stax.SearchResultReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parses pages of the escidocoaipmh_all search, the hot path of listRecords
+ * and of the set query resolution. With payload "none" only the record
+ * fields are read, as for the set queries and formats retrieved
+ * separately; with payload "escidoc" the md-record is serialized as well,
+ * as for formats embedded in the search result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SearchResultBenchmark {
+
+    @Param( { "100" })
+    public int recordsPerPage;
+
+    @Param( { "none", SyntheticData.MD_RECORD_NAME })
+    public String payload;
+
+    private byte[] page;
+
+    @Setup
+    public void createPage() throws Exception {
+        page =
+            SyntheticData.searchPage(1, recordsPerPage, recordsPerPage * 10,
+                20).getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public int readPage(Blackhole blackhole) {
+        SearchResultReader reader =
+            new SearchResultReader(new ByteArrayInputStream(page), "none"
+                .equals(payload) ? null : payload);
+        try {
+            while (reader.nextRecord()) {
+                SearchRecord record = reader.getRecord();
+                blackhole.consume(record.getId());
+                blackhole.consume(record.getLastModificationDate());
+                blackhole.consume(record.getPayload());
+            }
+            return reader.getNextRecordPosition();
+        }
+        finally {
+            reader.close();
+        }
+    }
+}
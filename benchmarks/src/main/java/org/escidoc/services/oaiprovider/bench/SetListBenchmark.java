@@ -0,0 +1,71 @@
+package org.escidoc.services.oaiprovider.bench;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.escidoc.services.oaiprovider.SetFragmentCache;
+import org.escidoc.services.oaiprovider.saxhandler.OuOrContextListHandler;
+import org.escidoc.services.oaiprovider.saxhandler.SaxParserPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parses pages of the organizational unit and context lists with the
+ * {@link OuOrContextListHandler}, as listSetInfo does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SetListBenchmark {
+
+    @Param( { "20", "1000" })
+    public int pageSize;
+
+    private byte[] ouPage;
+
+    private byte[] contextPage;
+
+    private SaxParserPool parserPool;
+
+    private SetFragmentCache fragments;
+
+    @Setup
+    public void createPages() throws Exception {
+        ouPage =
+            SyntheticData.ouListPage(0, pageSize, pageSize * 5).getBytes(
+                "UTF-8");
+        contextPage =
+            SyntheticData.contextListPage(0, pageSize, pageSize * 5).getBytes(
+                "UTF-8");
+        parserPool = new SaxParserPool(1);
+        fragments = new SetFragmentCache();
+    }
+
+    @Benchmark
+    public OuOrContextListHandler parseOuPage() {
+        OuOrContextListHandler handler = new OuOrContextListHandler(fragments);
+        parserPool.parse("bench.ous", new ByteArrayInputStream(ouPage),
+            handler);
+        return handler;
+    }
+
+    @Benchmark
+    public OuOrContextListHandler parseContextPage() {
+        OuOrContextListHandler handler = new OuOrContextListHandler(fragments);
+        parserPool.parse("bench.contexts", new ByteArrayInputStream(
+            contextPage), handler);
+        return handler;
+    }
+}
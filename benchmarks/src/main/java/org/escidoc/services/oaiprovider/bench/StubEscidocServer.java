@@ -0,0 +1,516 @@
+package org.escidoc.services.oaiprovider.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.escidoc.services.oaiprovider.NamedThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Stands in for an eSciDoc instance and its search service, serving the
+ * {@link SyntheticData} of a fixed number of records: the escidocoaipmh_all
+ * search, md-record, resource and DC contents, resource lists by id, the
+ * organizational unit, context and set definition lists and the repository
+ * info. Search queries are evaluated as far as the driver needs it: the
+ * date conditions, the public status, a context filter and the descending
+ * sort of the latest date query.
+ * <p>
+ * Every response can be delayed by a fixed latency plus a random jitter,
+ * sent at a limited bandwidth, or replaced by an HTTP 500 error at a given
+ * rate. The random decisions use a fixed seed, so runs with the same
+ * requests fail the same way.
+ */
+public class StubEscidocServer {
+
+    public static final String CORE_PATH = "/escidoc/";
+
+    public static final String SEARCH_PATH = "/srw/search/";
+
+    private static final Pattern DATE_CONDITION =
+        Pattern.compile("escidoc\\.(?:latest-release\\.date"
+            + "|last-modification-date)(<=|>)\"([^\"]*)\"");
+
+    private static final Pattern PUBLIC_STATUS =
+        Pattern.compile("escidoc\\.public-status=(\\w+)");
+
+    private static final Pattern CONTEXT =
+        Pattern.compile("escidoc\\.context\\.objid=\"?([^\"\\s)]+)");
+
+    private static final Pattern RESOURCE_ID =
+        Pattern.compile("\"/id\"=\"([^\"]+)\"");
+
+    private static final String HOST = "127.0.0.1";
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private final int records;
+
+    private int withdrawnEvery = 20;
+
+    private int organizationalUnits = 200;
+
+    private int contexts = 20;
+
+    private int setDefinitions = 20;
+
+    private volatile long latencyMillis = 0;
+
+    private volatile long latencyJitterMillis = 0;
+
+    private volatile long bytesPerSecond = 0;
+
+    private volatile double errorRate = 0;
+
+    private final Random random = new Random(42);
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    /**
+     * @param records
+     *            number of records, at positions 1 to records
+     */
+    public StubEscidocServer(int records) {
+        this.records = records;
+    }
+
+    /**
+     * Creates a server configured by the options records (10000),
+     * withdrawnEvery (20), latencyMillis (0), latencyJitterMillis (0),
+     * bytesPerSecond (0 for unlimited) and errorRate (0).
+     */
+    public static StubEscidocServer create(Properties options) {
+        StubEscidocServer server =
+            new StubEscidocServer(Integer.parseInt(options.getProperty(
+                "records", "10000")));
+        server.setWithdrawnEvery(Integer.parseInt(options.getProperty(
+            "withdrawnEvery", "20")));
+        server.setLatency(Long.parseLong(options.getProperty("latencyMillis",
+            "0")), Long.parseLong(options.getProperty("latencyJitterMillis",
+            "0")));
+        server.setBytesPerSecond(Long.parseLong(options.getProperty(
+            "bytesPerSecond", "0")));
+        server.setErrorRate(Double.parseDouble(options.getProperty(
+            "errorRate", "0")));
+        return server;
+    }
+
+    public int getRecords() {
+        return records;
+    }
+
+    /**
+     * @param withdrawnEvery
+     *            every n-th record is withdrawn, 0 for none
+     */
+    public void setWithdrawnEvery(int withdrawnEvery) {
+        this.withdrawnEvery = withdrawnEvery;
+    }
+
+    /**
+     * Every response is delayed by the latency plus a uniformly distributed
+     * jitter.
+     */
+    public void setLatency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = jitterMillis;
+    }
+
+    /**
+     * @param bytesPerSecond
+     *            bandwidth of every response, 0 for unlimited
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * @param errorRate
+     *            share of the requests failing with HTTP 500, between 0 and 1
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Starts the server on the loopback interface.
+     *
+     * @param port
+     *            port to listen on, 0 for any free port
+     */
+    public void start(int port) throws IOException {
+        server =
+            HttpServer.create(new InetSocketAddress(HOST, port), 256);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                StubEscidocServer.this.handle(exchange);
+            }
+        });
+        executor =
+            Executors.newCachedThreadPool(new NamedThreadFactory(
+                "stub-escidoc-"));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return the url to configure as driver.escidoc.baseURL
+     */
+    public String getBaseUrl() {
+        return "http://" + HOST + ":" + getPort() + CORE_PATH;
+    }
+
+    /**
+     * @return the url to configure as driver.escidoc.search.baseURL
+     */
+    public String getSearchBaseUrl() {
+        return "http://" + HOST + ":" + getPort() + SEARCH_PATH;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of injected errors
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            pause();
+            if (errorRate > 0 && nextDouble() < errorRate) {
+                failures.incrementAndGet();
+                send(exchange, 500, "<exception>Injected failure</exception>");
+                return;
+            }
+            String body =
+                respond(exchange.getRequestURI().getPath(),
+                    parameters(exchange.getRequestURI().getRawQuery()));
+            if (body == null) {
+                send(exchange, 404, "<exception>Not found: "
+                    + exchange.getRequestURI() + "</exception>");
+            }
+            else {
+                send(exchange, 200, body);
+            }
+        }
+        catch (RuntimeException e) {
+            send(exchange, 500, "<exception>" + e + "</exception>");
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return the response body, or null if the path is unknown
+     */
+    private String respond(String path, Map<String, String> params) {
+        if (path.equals(SEARCH_PATH + "escidocoaipmh_all")) {
+            int[] positions =
+                select(params.get("query"), params.get("sortKeys"));
+            return SyntheticData.searchPage(positions, intParam(params,
+                "startRecord", 1), intParam(params, "maximumRecords", 100),
+                withdrawnEvery);
+        }
+        if (!path.startsWith(CORE_PATH)) {
+            return null;
+        }
+        String resource = path.substring(CORE_PATH.length());
+        int offset = intParam(params, "startRecord", 1) - 1;
+        int pageSize = intParam(params, "maximumRecords", 20);
+        if (resource.equals("adm/admin/get-repository-info")) {
+            return SyntheticData.repositoryInfo(getBaseUrl());
+        }
+        if (resource.equals("oum/organizational-units")) {
+            return SyntheticData.ouListPage(offset, pageSize,
+                organizationalUnits);
+        }
+        if (resource.equals("ir/contexts")) {
+            return SyntheticData.contextListPage(offset, pageSize, contexts);
+        }
+        if (resource.equals("oai/set-definitions")) {
+            return SyntheticData.setDefinitionsPage(offset, pageSize,
+                setDefinitions);
+        }
+        if (resource.equals("ir/items") || resource.equals("ir/containers")) {
+            return SyntheticData.resourceListPage(listed(params.get("query")));
+        }
+        // ir/TYPE/ID/md-records/md-record/NAME/content,
+        // ir/TYPE/ID/resources/dc/content or ir/TYPE/ID/resources/NAME
+        String[] parts = resource.split("/");
+        if (parts.length < 5 || !parts[0].equals("ir")) {
+            return null;
+        }
+        int position = SyntheticData.position(parts[2]);
+        if (position < 1 || position > records) {
+            return null;
+        }
+        if (parts.length == 7 && parts[3].equals("md-records")) {
+            return SyntheticData.mdRecord(position);
+        }
+        if (parts.length == 6 && parts[3].equals("resources")
+            && parts[4].equals("dc")) {
+            return SyntheticData.dcRecord(position);
+        }
+        if (parts.length == 5 && parts[3].equals("resources")) {
+            return SyntheticData.mdRecord(position);
+        }
+        return null;
+    }
+
+    /**
+     * @return the positions of the records matching the search query, in
+     *         the order of the sort keys
+     */
+    private int[] select(String query, String sortKeys) {
+        if (query == null) {
+            query = "";
+        }
+        long after = Long.MIN_VALUE;
+        long until = Long.MAX_VALUE;
+        Matcher date = DATE_CONDITION.matcher(query);
+        while (date.find()) {
+            long millis = parseDate(date.group(2));
+            if (date.group(1).equals("<=")) {
+                until = Math.min(until, millis);
+            }
+            else {
+                after = Math.max(after, millis);
+            }
+        }
+        Matcher status = PUBLIC_STATUS.matcher(query);
+        String publicStatus = status.find() ? status.group(1) : null;
+        Matcher context = CONTEXT.matcher(query);
+        String contextId = context.find() ? context.group(1) : null;
+
+        // record p was modified at BASE_MILLIS + p * STEP_MILLIS
+        long first =
+            after == Long.MIN_VALUE ? 1 : floorDiv(after
+                - SyntheticData.BASE_MILLIS, SyntheticData.STEP_MILLIS) + 1;
+        long last =
+            until == Long.MAX_VALUE ? records : floorDiv(until
+                - SyntheticData.BASE_MILLIS, SyntheticData.STEP_MILLIS);
+        first = Math.max(first, 1);
+        last = Math.min(last, records);
+        int[] positions = new int[(int) Math.max(0, last - first + 1)];
+        int count = 0;
+        for (int p = (int) first; p <= last; p++) {
+            boolean withdrawn = SyntheticData.isWithdrawn(p, withdrawnEvery);
+            if (publicStatus != null
+                && publicStatus.equals("withdrawn") != withdrawn) {
+                continue;
+            }
+            if (contextId != null
+                && !contextId.equals(SyntheticData.contextId(p))) {
+                continue;
+            }
+            positions[count++] = p;
+        }
+        int[] selected = new int[count];
+        boolean descending = sortKeys != null && sortKeys.endsWith(",,0");
+        for (int i = 0; i < count; i++) {
+            selected[i] = positions[descending ? count - 1 - i : i];
+        }
+        return selected;
+    }
+
+    /**
+     * @return the positions of the known records of an id query
+     */
+    private int[] listed(String query) {
+        int[] positions = new int[records];
+        int count = 0;
+        Matcher id = RESOURCE_ID.matcher(query == null ? "" : query);
+        while (id.find() && count < positions.length) {
+            int position = SyntheticData.position(id.group(1));
+            if (position >= 1 && position <= records) {
+                positions[count++] = position;
+            }
+        }
+        int[] listed = new int[count];
+        System.arraycopy(positions, 0, listed, 0, count);
+        return listed;
+    }
+
+    private void send(HttpExchange exchange, int status, String body)
+        throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type",
+            "text/xml; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        long rate = bytesPerSecond;
+        if (rate <= 0) {
+            out.write(bytes);
+        }
+        else {
+            long start = System.nanoTime();
+            for (int off = 0; off < bytes.length; off += CHUNK_SIZE) {
+                int len = Math.min(CHUNK_SIZE, bytes.length - off);
+                long due = (off + len) * 1000000000L / rate;
+                sleepNanos(due - (System.nanoTime() - start));
+                out.write(bytes, off, len);
+                out.flush();
+            }
+        }
+        out.close();
+    }
+
+    private void pause() throws IOException {
+        long jitter = latencyJitterMillis;
+        long millis = latencyMillis;
+        if (jitter > 0) {
+            millis += (long) (nextDouble() * jitter);
+        }
+        sleepNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private double nextDouble() {
+        synchronized (random) {
+            return random.nextDouble();
+        }
+    }
+
+    private static void sleepNanos(long nanos) throws IOException {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+    }
+
+    private static long floorDiv(long a, long b) {
+        long quotient = a / b;
+        if (a % b != 0 && (a < 0) != (b < 0)) {
+            quotient--;
+        }
+        return quotient;
+    }
+
+    /**
+     * Parses a date of a search query. Dates before the common era, which
+     * the driver uses for open windows, are mapped to the smallest date.
+     */
+    private static long parseDate(String value) {
+        if (value.startsWith("-")) {
+            return Long.MIN_VALUE;
+        }
+        SimpleDateFormat format =
+            new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return format.parse(value).getTime();
+        }
+        catch (ParseException e) {
+            throw new IllegalArgumentException("Invalid date " + value, e);
+        }
+    }
+
+    private static int intParam(
+        Map<String, String> params, String name, int defaultValue) {
+        String value = params.get(name);
+        if (value == null || value.length() == 0) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value);
+    }
+
+    private static Map<String, String> parameters(String rawQuery)
+        throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<String, String>();
+        if (rawQuery == null) {
+            return params;
+        }
+        String[] pairs = rawQuery.split("&");
+        for (int i = 0; i < pairs.length; i++) {
+            int eq = pairs[i].indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pairs[i].substring(0, eq),
+                    "UTF-8"), URLDecoder.decode(pairs[i].substring(eq + 1),
+                    "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Reads name=value arguments.
+     *
+     * @param first
+     *            index of the first option
+     */
+    static Properties options(String[] args, int first) {
+        Properties options = new Properties();
+        for (int i = first; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq < 1) {
+                throw new IllegalArgumentException("Expected name=value: "
+                    + args[i]);
+            }
+            options.setProperty(args[i].substring(0, eq), args[i]
+                .substring(eq + 1));
+        }
+        return options;
+    }
+
+    /**
+     * Runs a server until the process is stopped, for harvests by a proai
+     * installation. The arguments are the port and the options of
+     * {@link #create(Properties)} as name=value pairs.
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        StubEscidocServer server = create(options(args, 1));
+        server.start(port);
+        System.out.println("driver.escidoc.baseURL = " + server.getBaseUrl());
+        System.out.println("driver.escidoc.search.baseURL = "
+            + server.getSearchBaseUrl());
+        Thread.sleep(Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,481 @@
+package org.escidoc.services.oaiprovider.bench;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Generates synthetic but realistic eSciDoc responses: pages of the
+ * escidocoaipmh_all search and of the organizational unit, context and set
+ * definition lists, md-record and DC contents and the repository info. The
+ * content is derived from the record positions only, so every run and every
+ * page request produces the same documents.
+ */
+public final class SyntheticData {
+
+    public static final String NAMESPACE_IDENTIFIER = "escidoc.org";
+
+    public static final String MD_RECORD_NAME = "escidoc";
+
+    public static final String PUBLICATION_NS =
+        "http://purl.org/escidoc/metadata/profiles/0.1/publication";
+
+    private static final String[] TITLES =
+        { "On the thermodynamics of small systems",
+            "Ribosome assembly in vitro",
+            "Quantum transport through molecular junctions",
+            "Late antique manuscripts of the Aegean",
+            "Neural correlates of working memory" };
+
+    private static final String[] CREATORS =
+        { "Müller, Anna", "Schmidt, Jonas", "Nguyen, Thi", "Rossi, Marco",
+            "Kowalski, Ewa", "García, Lucía" };
+
+    /**
+     * Modification date of the record at position 0, 2010-01-01.
+     */
+    public static final long BASE_MILLIS = 1262304000000L;
+
+    /**
+     * Time between the modification dates of consecutive records.
+     */
+    public static final long STEP_MILLIS = 60000L;
+
+    private SyntheticData() {
+    }
+
+    /**
+     * @return the resource id of the record at a position of the search
+     */
+    public static String resourceId(int position) {
+        return "escidoc:" + (100000 + position);
+    }
+
+    /**
+     * @return "container" for every tenth record, "item" otherwise
+     */
+    public static String resourceType(int position) {
+        return position % 10 == 0 ? "container" : "item";
+    }
+
+    public static String contextId(int position) {
+        return "escidoc:ctx" + (position % 20);
+    }
+
+    public static String ouId(int position) {
+        return "escidoc:ou" + (position % 200);
+    }
+
+    /**
+     * @return the position of a resource id, or -1 for foreign ids
+     */
+    public static int position(String resourceId) {
+        if (!resourceId.startsWith("escidoc:")) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(resourceId.substring(8)) - 100000;
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the modification date of the record at a position, one minute
+     *         per position
+     */
+    public static String lastModificationDate(int position) {
+        return isoDate(modificationMillis(position));
+    }
+
+    public static long modificationMillis(int position) {
+        return BASE_MILLIS + position * STEP_MILLIS;
+    }
+
+    static String isoDate(long millis) {
+        SimpleDateFormat format =
+            new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(millis));
+    }
+
+    /**
+     * Builds a page of an escidocoaipmh_all search response.
+     *
+     * @param startRecord
+     *            position of the first record of the page, starting with 1
+     * @param pageSize
+     *            maximum number of records of the page
+     * @param numberOfRecords
+     *            number of records of the whole result
+     * @param withdrawnEvery
+     *            every n-th record is withdrawn, 0 for none
+     */
+    public static String searchPage(
+        int startRecord, int pageSize, int numberOfRecords, int withdrawnEvery) {
+        StringBuilder sb = new StringBuilder(pageSize * 4096);
+        appendSearchPageStart(sb, numberOfRecords);
+        int end = Math.min(numberOfRecords, startRecord + pageSize - 1);
+        for (int position = startRecord; position <= end; position++) {
+            appendSearchRecord(sb, position, position, isWithdrawn(position,
+                withdrawnEvery));
+        }
+        appendSearchPageEnd(sb, startRecord, pageSize);
+        return sb.toString();
+    }
+
+    /**
+     * Builds a page of an escidocoaipmh_all search response holding selected
+     * records.
+     *
+     * @param positions
+     *            record positions of the whole result, in result order
+     * @param startRecord
+     *            result position of the first record of the page, starting
+     *            with 1
+     */
+    public static String searchPage(
+        int[] positions, int startRecord, int pageSize, int withdrawnEvery) {
+        int end = Math.min(positions.length, startRecord + pageSize - 1);
+        StringBuilder sb =
+            new StringBuilder(Math.max(1, end - startRecord + 1) * 4096);
+        appendSearchPageStart(sb, positions.length);
+        for (int i = startRecord; i <= end; i++) {
+            int position = positions[i - 1];
+            appendSearchRecord(sb, position, i, isWithdrawn(position,
+                withdrawnEvery));
+        }
+        appendSearchPageEnd(sb, startRecord, pageSize);
+        return sb.toString();
+    }
+
+    public static boolean isWithdrawn(int position, int withdrawnEvery) {
+        return withdrawnEvery > 0 && position % withdrawnEvery == 0;
+    }
+
+    private static void appendSearchPageStart(
+        StringBuilder sb, int numberOfRecords) {
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<zs:searchRetrieveResponse"
+            + " xmlns:zs=\"http://www.loc.gov/zing/srw/\">\n");
+        sb.append("<zs:version>1.1</zs:version>\n");
+        sb.append("<zs:numberOfRecords>").append(numberOfRecords).append(
+            "</zs:numberOfRecords>\n");
+        sb.append("<zs:records>\n");
+    }
+
+    private static void appendSearchPageEnd(
+        StringBuilder sb, int startRecord, int pageSize) {
+        sb.append("</zs:records>\n");
+        sb.append("<zs:echoedSearchRetrieveRequest><zs:version>1.1"
+            + "</zs:version><zs:query>escidoc.objecttype=item</zs:query>"
+            + "<zs:startRecord>").append(startRecord).append(
+            "</zs:startRecord><zs:maximumRecords>").append(pageSize).append(
+            "</zs:maximumRecords></zs:echoedSearchRetrieveRequest>\n");
+        sb.append("</zs:searchRetrieveResponse>\n");
+    }
+
+    private static void appendSearchRecord(
+        StringBuilder sb, int position, int resultPosition, boolean withdrawn) {
+        String id = resourceId(position);
+        sb.append("<zs:record>\n<zs:recordSchema>default</zs:recordSchema>\n"
+            + "<zs:recordPacking>xml</zs:recordPacking>\n<zs:recordData>\n");
+        sb.append("<search-result:search-result-record xmlns:search-result="
+            + "\"http://www.escidoc.de/schemas/searchresult/0.8\">\n");
+        sb.append("<search-result:score>1.0</search-result:score>\n");
+        sb.append("<escidocoaipmh:resource xmlns:escidocoaipmh="
+            + "\"http://www.escidoc.de/schemas/oaipmh/0.1\">\n");
+        element(sb, "escidocoaipmh:id", id);
+        element(sb, "escidocoaipmh:last-modification-date",
+            lastModificationDate(position));
+        element(sb, "escidocoaipmh:latest-release-date",
+            lastModificationDate(position));
+        element(sb, "escidocoaipmh:deleted", String.valueOf(withdrawn));
+        element(sb, "escidocoaipmh:resource-type", resourceType(position));
+        element(sb, "escidocoaipmh:context-id", contextId(position));
+        element(sb, "escidocoaipmh:organizational-unit-id", ouId(position));
+        element(sb, "escidocoaipmh:organizational-unit-id",
+            ouId(position + 7));
+        sb.append("<escidocMetadataRecords:md-records"
+            + " xmlns:escidocMetadataRecords="
+            + "\"http://www.escidoc.de/schemas/metadatarecords/0.5\">\n");
+        sb.append("<escidocMetadataRecords:md-record name=\"").append(
+            MD_RECORD_NAME).append("\">\n");
+        sb.append(mdRecord(position));
+        sb.append("</escidocMetadataRecords:md-record>\n");
+        sb.append("</escidocMetadataRecords:md-records>\n");
+        sb.append("</escidocoaipmh:resource>\n");
+        sb.append("</search-result:search-result-record>\n");
+        sb.append("</zs:recordData>\n<zs:recordPosition>").append(
+            resultPosition).append("</zs:recordPosition>\n</zs:record>\n");
+    }
+
+    /**
+     * @return the content of the escidoc md-record of the record at a
+     *         position, a publication of about 2 KB
+     */
+    public static String mdRecord(int position) {
+        StringBuilder sb = new StringBuilder(2048);
+        sb.append("<publication:publication xmlns:publication=\"").append(
+            PUBLICATION_NS).append("\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\""
+            + " xmlns:dcterms=\"http://purl.org/dc/terms/\""
+            + " xmlns:eterms=\"http://purl.org/escidoc/metadata/terms/0.1/\""
+            + " type=\"http://purl.org/eprint/type/JournalArticle\">\n");
+        for (int i = 0; i < 3; i++) {
+            sb.append("<eterms:creator role=\"author\"><person:person"
+                + " xmlns:person=\"http://purl.org/escidoc/metadata/profiles/0.1/person\">"
+                + "<eterms:complete-name>");
+            escape(sb, CREATORS[(position + i) % CREATORS.length]);
+            sb.append("</eterms:complete-name><organization:organization"
+                + " xmlns:organization=\"http://purl.org/escidoc/metadata/profiles/0.1/organization\">"
+                + "<dc:title>Max Planck Institute</dc:title><dc:identifier>");
+            sb.append(ouId(position + i));
+            sb.append("</dc:identifier></organization:organization>"
+                + "</person:person></eterms:creator>\n");
+        }
+        sb.append("<dc:title>");
+        escape(sb, TITLES[position % TITLES.length] + " & related problems, part "
+            + position);
+        sb.append("</dc:title>\n<dc:language>eng</dc:language>\n");
+        sb.append("<dc:identifier>doi:10.1000/").append(position).append(
+            "</dc:identifier>\n");
+        sb.append("<dcterms:issued>").append(
+            lastModificationDate(position).substring(0, 10)).append(
+            "</dcterms:issued>\n");
+        sb.append("<dcterms:abstract>");
+        for (int i = 0; i < 6; i++) {
+            sb.append("We report measurements at ").append(position % 300)
+                .append(" K and discuss &lt;implications&gt; for models. ");
+        }
+        sb.setLength(sb.length() - 1);
+        sb.append("</dcterms:abstract>\n");
+        sb.append("<dc:subject>physics</dc:subject>\n");
+        sb.append("</publication:publication>\n");
+        return sb.toString();
+    }
+
+    /**
+     * Builds a page of the organizational unit list.
+     *
+     * @param offset
+     *            zero based index of the first ou of the page
+     */
+    public static String ouListPage(int offset, int pageSize, int total) {
+        StringBuilder sb = new StringBuilder(pageSize * 1024);
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<zs:searchRetrieveResponse"
+            + " xmlns:zs=\"http://www.loc.gov/zing/srw/\">\n");
+        sb.append("<zs:numberOfRecords>").append(total).append(
+            "</zs:numberOfRecords>\n<zs:records>\n");
+        int end = Math.min(total, offset + pageSize);
+        for (int i = offset; i < end; i++) {
+            sb.append("<zs:record><zs:recordData>");
+            sb.append("<organizational-unit:organizational-unit"
+                + " xmlns:organizational-unit="
+                + "\"http://www.escidoc.de/schemas/organizationalunit/0.8\""
+                + " xmlns:xlink=\"http://www.w3.org/1999/xlink\""
+                + " xmlns:prop=\"http://escidoc.de/core/01/properties/\""
+                + " xlink:title=\"Institute ").append(i).append(
+                "\" xlink:href=\"/oum/organizational-unit/escidoc:ou").append(
+                i).append("\">\n");
+            sb.append("<organizational-unit:properties>"
+                + "<prop:name>Institute ").append(i).append("</prop:name>"
+                + "<prop:description>Department ").append(i).append(
+                " of the society</prop:description>"
+                + "<prop:public-status>opened</prop:public-status>"
+                + "</organizational-unit:properties>\n");
+            if (i > 0) {
+                sb.append("<organizational-unit:parents><srel:parent"
+                    + " xmlns:srel=\"http://escidoc.de/core/01/structural-relations/\""
+                    + " xlink:href=\"/oum/organizational-unit/escidoc:ou")
+                    .append((i - 1) / 4).append(
+                        "\"/></organizational-unit:parents>\n");
+            }
+            sb.append("</organizational-unit:organizational-unit>");
+            sb.append("</zs:recordData><zs:recordPosition>").append(i + 1)
+                .append("</zs:recordPosition></zs:record>\n");
+        }
+        sb.append("</zs:records>\n</zs:searchRetrieveResponse>\n");
+        return sb.toString();
+    }
+
+    /**
+     * Builds a page of the context list.
+     *
+     * @param offset
+     *            zero based index of the first context of the page
+     */
+    public static String contextListPage(int offset, int pageSize, int total) {
+        StringBuilder sb = new StringBuilder(pageSize * 1024);
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<zs:searchRetrieveResponse"
+            + " xmlns:zs=\"http://www.loc.gov/zing/srw/\">\n");
+        sb.append("<zs:numberOfRecords>").append(total).append(
+            "</zs:numberOfRecords>\n<zs:records>\n");
+        int end = Math.min(total, offset + pageSize);
+        for (int i = offset; i < end; i++) {
+            sb.append("<zs:record><zs:recordData>");
+            sb.append("<context:context"
+                + " xmlns:context=\"http://www.escidoc.de/schemas/context/0.7\""
+                + " xmlns:xlink=\"http://www.w3.org/1999/xlink\""
+                + " xmlns:prop=\"http://escidoc.de/core/01/properties/\""
+                + " xlink:title=\"Collection ").append(i).append(
+                "\" xlink:href=\"/ir/context/escidoc:ctx").append(i).append(
+                "\">\n");
+            sb.append("<context:properties><prop:name>Collection ").append(i)
+                .append("</prop:name><prop:description>Publications of"
+                    + " collection ").append(i).append(
+                    "</prop:description><prop:type>PubMan</prop:type>"
+                        + "</context:properties>\n");
+            sb.append("</context:context>");
+            sb.append("</zs:recordData><zs:recordPosition>").append(i + 1)
+                .append("</zs:recordPosition></zs:record>\n");
+        }
+        sb.append("</zs:records>\n</zs:searchRetrieveResponse>\n");
+        return sb.toString();
+    }
+
+    /**
+     * Builds a page of the set definition list. Every set holds the records
+     * of one context.
+     *
+     * @param offset
+     *            zero based index of the first set definition of the page
+     */
+    public static String setDefinitionsPage(int offset, int pageSize, int total) {
+        StringBuilder sb = new StringBuilder(pageSize * 512 + 256);
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<zs:searchRetrieveResponse"
+            + " xmlns:zs=\"http://www.loc.gov/zing/srw/\">\n");
+        sb.append("<zs:numberOfRecords>").append(total).append(
+            "</zs:numberOfRecords>\n<zs:records>\n");
+        int end = Math.min(total, offset + pageSize);
+        for (int i = offset; i < end; i++) {
+            sb.append("<zs:record><zs:recordData>");
+            sb.append("<set-definition:set-definition"
+                + " xmlns:set-definition=\"http://www.escidoc.de/schemas/setdefinition/0.1\""
+                + " xmlns:prop=\"http://escidoc.de/core/01/properties/\""
+                + " objid=\"escidoc:set").append(i).append("\">\n");
+            sb.append("<set-definition:properties><prop:name>Selection ")
+                .append(i).append("</prop:name><prop:description>Records of"
+                    + " collection ").append(i).append(
+                    "</prop:description></set-definition:properties>\n");
+            sb.append("<set-definition:specification>selection").append(i)
+                .append("</set-definition:specification>\n");
+            sb.append("<set-definition:query>escidoc.context.objid=");
+            sb.append(contextId(i)).append("</set-definition:query>\n");
+            sb.append("</set-definition:set-definition>");
+            sb.append("</zs:recordData><zs:recordPosition>").append(i + 1)
+                .append("</zs:recordPosition></zs:record>\n");
+        }
+        sb.append("</zs:records>\n</zs:searchRetrieveResponse>\n");
+        return sb.toString();
+    }
+
+    /**
+     * @return the DC content of the record at a position
+     */
+    public static String dcRecord(int position) {
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("<oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\""
+            + " xmlns:dc=\"http://purl.org/dc/elements/1.1/\">\n");
+        element(sb, "dc:title", TITLES[position % TITLES.length]
+            + " & related problems, part " + position);
+        for (int i = 0; i < 3; i++) {
+            element(sb, "dc:creator", CREATORS[(position + i)
+                % CREATORS.length]);
+        }
+        element(sb, "dc:date", lastModificationDate(position).substring(0, 10));
+        element(sb, "dc:identifier", "doi:10.1000/" + position);
+        element(sb, "dc:language", "eng");
+        element(sb, "dc:subject", "physics");
+        element(sb, "dc:type", "Journal Article");
+        sb.append("</oai_dc:dc>\n");
+        return sb.toString();
+    }
+
+    /**
+     * Builds the response of a resource list filtered by ids, as retrieved
+     * for a batch of md-records.
+     *
+     * @param positions
+     *            positions of the listed records
+     */
+    public static String resourceListPage(int[] positions) {
+        StringBuilder sb = new StringBuilder(positions.length * 3072 + 256);
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<zs:searchRetrieveResponse"
+            + " xmlns:zs=\"http://www.loc.gov/zing/srw/\">\n");
+        sb.append("<zs:numberOfRecords>").append(positions.length).append(
+            "</zs:numberOfRecords>\n<zs:records>\n");
+        for (int i = 0; i < positions.length; i++) {
+            String type = resourceType(positions[i]);
+            sb.append("<zs:record><zs:recordData>");
+            sb.append("<escidocItem:").append(type).append(
+                " xmlns:escidocItem=\"http://www.escidoc.de/schemas/item/0.9\""
+                    + " xmlns:xlink=\"http://www.w3.org/1999/xlink\""
+                    + " xlink:href=\"/ir/").append(type).append('/').append(
+                resourceId(positions[i])).append("\">\n");
+            sb.append("<escidocMetadataRecords:md-records"
+                + " xmlns:escidocMetadataRecords="
+                + "\"http://www.escidoc.de/schemas/metadatarecords/0.5\">\n");
+            sb.append("<escidocMetadataRecords:md-record name=\"").append(
+                MD_RECORD_NAME).append("\">\n");
+            sb.append(mdRecord(positions[i]));
+            sb.append("</escidocMetadataRecords:md-record>\n");
+            sb.append("</escidocMetadataRecords:md-records>\n");
+            sb.append("</escidocItem:").append(type).append('>');
+            sb.append("</zs:recordData><zs:recordPosition>").append(i + 1)
+                .append("</zs:recordPosition></zs:record>\n");
+        }
+        sb.append("</zs:records>\n</zs:searchRetrieveResponse>\n");
+        return sb.toString();
+    }
+
+    /**
+     * @return the response of get-repository-info
+     */
+    public static String repositoryInfo(String baseUrl) {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<properties>\n");
+        entry(sb, "escidoc-core.repository-name", "Synthetic eSciDoc");
+        entry(sb, "escidoc-core.baseurl", baseUrl);
+        entry(sb, "escidoc-core.admin-email", "admin@example.org");
+        entry(sb, "escidoc-core.earliest-date", isoDate(BASE_MILLIS));
+        sb.append("</properties>\n");
+        return sb.toString();
+    }
+
+    private static void entry(StringBuilder sb, String key, String value) {
+        sb.append("<entry key=\"").append(key).append("\">");
+        escape(sb, value);
+        sb.append("</entry>\n");
+    }
+
+    private static void element(StringBuilder sb, String name, String value) {
+        sb.append('<').append(name).append('>');
+        escape(sb, value);
+        sb.append("</").append(name).append(">\n");
+    }
+
+    private static void escape(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '&':
+                sb.append("&amp;");
+                break;
+            case '<':
+                sb.append("&lt;");
+                break;
+            case '>':
+                sb.append("&gt;");
+                break;
+            default:
+                sb.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.escidoc.services.oaiprovider;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import proai.error.RepositoryException;
+
+/**
+ * Bounds the number of concurrent calls of one code path, so a slow path
+ * cannot take all threads or connections away from the others. Callers
+ * beyond the limit wait in arrival order; the time they waited is recorded.
+ * A caller which waited longer than the queue timeout fails, so it is
+ * retried later instead of blocking a worker indefinitely.
+ */
+public class Bulkhead {
+
+    private final String name;
+
+    private final int permits;
+
+    private final Semaphore semaphore;
+
+    private final long queueTimeoutMillis;
+
+    private final LatencyStats queueTime;
+
+    private long rejected = 0;
+
+    /**
+     * @param permits
+     *            maximum number of concurrent calls
+     * @param queueTimeoutMillis
+     *            maximum time a call waits for a permit
+     */
+    public Bulkhead(String name, int permits, long queueTimeoutMillis) {
+        this.name = name;
+        this.permits = permits;
+        this.semaphore = new Semaphore(permits, true);
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.queueTime = new LatencyStats(name + " queue");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Waits for a permit, which must be returned by {@link #release()}.
+     *
+     * @throws RepositoryException
+     *             if no permit became available within the queue timeout
+     */
+    public void acquire() throws RepositoryException {
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired =
+                semaphore.tryAcquire(queueTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted waiting for " + name, e);
+        }
+        queueTime.add(System.nanoTime() - start);
+        if (!acquired) {
+            synchronized (this) {
+                rejected++;
+            }
+            throw new RepositoryException("All " + permits + " permits of "
+                + name + " in use for " + queueTimeoutMillis + " ms");
+        }
+    }
+
+    public void release() {
+        semaphore.release();
+    }
+
+    /**
+     * @return the times callers waited for a permit
+     */
+    public LatencyStats getQueueTime() {
+        return queueTime;
+    }
+
+    @Override
+    public String toString() {
+        long rejectedCalls;
+        synchronized (this) {
+            rejectedCalls = rejected;
+        }
+        return "Bulkhead " + name + ": permits=" + permits + " inUse="
+            + (permits - semaphore.availablePermits()) + " rejected="
+            + rejectedCalls + " " + queueTime;
+    }
+}
@@ -0,0 +1,138 @@
+package org.escidoc.services.oaiprovider;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import proai.error.RepositoryException;
+
+/**
+ * Decides whether a listRecords window can contain changes before its
+ * search queries are run. Proai asks for the latest date and then harvests
+ * every format on every poll, even if nothing changed. The gate keeps the
+ * latest modification date of the poll as high-water mark: a window
+ * starting after it is empty. A window starting exactly at it only holds
+ * records which were harvested already if the format was harvested up to
+ * that date before. Without a recent high-water mark a count query for the
+ * changes after the start of the window decides, as records modified at
+ * the start were part of the previous window; formats asking for the same
+ * start share its result. The count query runs outside the monitor of the
+ * gate; concurrent callers wait for the one running instead of issuing
+ * their own.
+ */
+public class ChangeGate {
+    private static final Logger logger =
+        Logger.getLogger(ChangeGate.class.getName());
+
+    private final EscidocQueryFactory queryFactory;
+
+    private final long maxAge;
+
+    private final Object countLock = new Object();
+
+    private Date highWaterMark;
+
+    private long highWaterMarkTime;
+
+    private Date countedFrom;
+
+    private int count;
+
+    private long countTime;
+
+    private final Map<String, Date> harvestedUntil =
+        new HashMap<String, Date>();
+
+    private long skipped = 0;
+
+    /**
+     * @param maxAge
+     *            milliseconds a high-water mark or count is trusted
+     */
+    public ChangeGate(EscidocQueryFactory queryFactory, long maxAge) {
+        this.queryFactory = queryFactory;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Records the latest modification date found by the poll.
+     */
+    public synchronized void latestDate(Date latest) {
+        highWaterMark = latest;
+        highWaterMarkTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @return false if the window of the format cannot contain changes
+     */
+    public boolean hasChanges(Date from, String prefix)
+        throws RepositoryException {
+        if (from == null) {
+            return true;
+        }
+        Boolean changes = null;
+        synchronized (this) {
+            if (highWaterMark != null
+                && highWaterMarkTime + maxAge >= System.currentTimeMillis()) {
+                Date harvested = harvestedUntil.get(prefix);
+                boolean harvestedAlready =
+                    highWaterMark.equals(from) && harvested != null
+                        && !harvested.before(highWaterMark);
+                changes =
+                    Boolean.valueOf(!highWaterMark.before(from)
+                        && !harvestedAlready);
+            }
+        }
+        if (changes == null) {
+            changes = Boolean.valueOf(count(from) > 0);
+        }
+        if (!changes.booleanValue()) {
+            synchronized (this) {
+                skipped++;
+            }
+            logger.debug("No changes since " + from + " for " + prefix);
+        }
+        return changes.booleanValue();
+    }
+
+    /**
+     * @return the number of changes since the date, counted by the last
+     *         count query if it is recent and had the same date
+     */
+    private int count(Date from) throws RepositoryException {
+        synchronized (countLock) {
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                if (from.equals(countedFrom) && countTime + maxAge >= now) {
+                    return count;
+                }
+            }
+            int counted = queryFactory.countChangesSince(from);
+            synchronized (this) {
+                count = counted;
+                countedFrom = from;
+                countTime = now;
+            }
+            return counted;
+        }
+    }
+
+    /**
+     * Records that the window of the format up to the provided date was
+     * harvested, which must only be called once all its records were read.
+     */
+    public synchronized void harvested(String prefix, Date until) {
+        Date harvested = harvestedUntil.get(prefix);
+        if (until != null && (harvested == null || harvested.before(until))) {
+            harvestedUntil.put(prefix, until);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ChangeGate: highWaterMark=" + highWaterMark + " skipped="
+            + skipped;
+    }
+}
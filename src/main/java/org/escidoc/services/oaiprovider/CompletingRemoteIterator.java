@@ -0,0 +1,52 @@
+package org.escidoc.services.oaiprovider;
+
+import proai.driver.RemoteIterator;
+import proai.error.RepositoryException;
+
+/**
+ * Delivers the elements of another iterator and calls {@link #completed()}
+ * once, when it is exhausted. An iterator which fails or is closed before
+ * its end is not completed.
+ *
+ * @param <T>
+ *            type of the elements
+ */
+public abstract class CompletingRemoteIterator<T> implements RemoteIterator<T> {
+
+    private final RemoteIterator<? extends T> iterator;
+
+    private boolean completed = false;
+
+    public CompletingRemoteIterator(RemoteIterator<? extends T> iterator) {
+        this.iterator = iterator;
+    }
+
+    /**
+     * Called when all elements were delivered.
+     */
+    protected abstract void completed();
+
+    public boolean hasNext() throws RepositoryException {
+        if (completed) {
+            return false;
+        }
+        if (iterator.hasNext()) {
+            return true;
+        }
+        completed = true;
+        completed();
+        return false;
+    }
+
+    public T next() throws RepositoryException {
+        return iterator.next();
+    }
+
+    public void close() throws RepositoryException {
+        iterator.close();
+    }
+
+    public void remove() throws UnsupportedOperationException {
+        iterator.remove();
+    }
+}
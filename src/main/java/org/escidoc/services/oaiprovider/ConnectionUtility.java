@@ -1,16 +1,22 @@
 package org.escidoc.services.oaiprovider;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.commons.httpclient.DefaultHttpMethodRetryHandler;
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HostConfiguration;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
+import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.NameValuePair;
 import org.apache.commons.httpclient.methods.GetMethod;
@@ -24,7 +30,20 @@ import proai.error.RepositoryException;
 
 
 /**
- * An utility class for HTTP requests.
+ * An utility class for HTTP requests. The HTTP client is created by the
+ * constructor, so an instance can be shared by any number of threads.
+ * <p>
+ * GET requests are bounded by a {@link Bulkhead} with as many permits as the
+ * pool has connections per host. A request holds its permit until its
+ * connection is released, so callers queue at the bulkhead instead of inside
+ * the connection manager, and the time they waited is recorded.
+ * <p>
+ * With an {@link HttpArchive}, GET responses are recorded to it or replayed
+ * from it. A request is identified by its url and its parameters in name
+ * order. A recorded response is read completely before it is returned, so
+ * recording buffers every body. Replayed requests do not connect, but still
+ * take a permit of the bulkhead, so a timed replay queues like the recorded
+ * harvest did.
  * 
  * @author ROF
  */
@@ -37,37 +56,84 @@ public class ConnectionUtility  {
    
     private static final int HTTP_RESPONSE_OK = 200;
     
-    private HttpClient httpClient = null;
-    
     private static final int HTTP_MAX_CONNECTIONS_PER_HOST = 30;
 
     private static final int HTTP_MAX_TOTAL_CONNECTIONS_FACTOR = 3;
 
     
-    private MultiThreadedHttpConnectionManager cm =
+    private final MultiThreadedHttpConnectionManager cm =
         new MultiThreadedHttpConnectionManager();
     
+    private static final long DEFAULT_QUEUE_TIMEOUT_MILLIS = 60000;
+
+    private final HttpClient httpClient;
+
+    private final Bulkhead bulkhead;
+
+    private final HttpArchive archive;
+
+    public ConnectionUtility() {
+        this("http", HTTP_MAX_CONNECTIONS_PER_HOST,
+            DEFAULT_QUEUE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param name
+     *            name of the pool, used for the statistics
+     * @param maxConnectionsPerHost
+     *            maximum number of connections to a host
+     * @param queueTimeoutMillis
+     *            maximum time a request waits for a connection
+     */
+    public ConnectionUtility(
+        String name, int maxConnectionsPerHost, long queueTimeoutMillis) {
+        this(name, maxConnectionsPerHost, queueTimeoutMillis, null);
+    }
+
+    /**
+     * @param archive
+     *            archive the GET responses are recorded to or replayed from,
+     *            null to only use the network
+     */
+    public ConnectionUtility(
+        String name, int maxConnectionsPerHost, long queueTimeoutMillis,
+        HttpArchive archive) {
+        this.archive = archive;
+        this.cm.getParams().setMaxConnectionsPerHost(
+            HostConfiguration.ANY_HOST_CONFIGURATION, maxConnectionsPerHost);
+        this.cm.getParams().setMaxTotalConnections(
+            maxConnectionsPerHost * HTTP_MAX_TOTAL_CONNECTIONS_FACTOR);
+        this.bulkhead =
+            new Bulkhead(name + " connections", maxConnectionsPerHost,
+                queueTimeoutMillis);
+        this.httpClient = new HttpClient(this.cm);
+        httpClient.getParams().setParameter(HttpMethodParams.RETRY_HANDLER, 
+            new DefaultHttpMethodRetryHandler()); 
+    }
    
     /**
      * Get the HTTP Client (multi threaded).
      * 
      * @return HttpClient
-     * @throws WebserverSystemException
      */
     public HttpClient getHttpClient() {
-        if (this.httpClient == null) {
-            this.cm.getParams().setMaxConnectionsPerHost(
-                HostConfiguration.ANY_HOST_CONFIGURATION,
-                HTTP_MAX_CONNECTIONS_PER_HOST);
-            this.cm.getParams().setMaxTotalConnections(
-                HTTP_MAX_CONNECTIONS_PER_HOST
-                    * HTTP_MAX_TOTAL_CONNECTIONS_FACTOR);
-            this.httpClient = new HttpClient(this.cm);
-            httpClient.getParams().setParameter(HttpMethodParams.RETRY_HANDLER, 
-                new DefaultHttpMethodRetryHandler()); 
-        }
         return this.httpClient;
     }
+
+    /**
+     * @return the bulkhead bounding the GET requests
+     */
+    public Bulkhead getBulkhead() {
+        return this.bulkhead;
+    }
+
+    /**
+     * Closes all connections. The utility must not be used afterwards.
+     */
+    public void shutdown() {
+        this.cm.shutdown();
+    }
+
     /**
      * Call the GetMethod.
      * 
@@ -81,35 +147,27 @@ public class ConnectionUtility  {
 
         GetMethod get = null;
         try {
-            get = new GetMethod(url);
-            int responseCode = getHttpClient().executeMethod(get);
+            get = newGetMethod(url, url);
+            int responseCode = execute(get, url);
             if ((responseCode / 100) != (HTTP_RESPONSE_OK / 100)) {
                 
-                String message = get.getResponseBodyAsString();
-                if (message == null) {
-                    Header header = get.getResponseHeader("eSciDocException");
-                    String value = header.getValue();
-                    if (value != null) {
-                        message =
-                            "GET-Request with url " + url
-                                + " results with Exception:" + value + " .";
-                    }
-                    else {
-                        message =
-                            "Connection to '" + url
-                                + "' failed with response code " + responseCode;
-                    }
+                String message;
+                try {
+                    message = failureMessage(get, "GET", url, responseCode);
+                }
+                finally {
+                    get.releaseConnection();
                 }
-
-                get.releaseConnection();
                 log.info(message);
                 throw new RepositoryException(message);
             }
         }
         catch (HttpException e) {
+            releaseOnFailure(get);
             throw new RepositoryException(e.getMessage(), e);
         }
         catch (IOException e) {
+            releaseOnFailure(get);
             throw new RepositoryException(e.getMessage(), e);
         }
 
@@ -129,7 +187,8 @@ public class ConnectionUtility  {
 
         GetMethod get = null;
         try {
-            get = new GetMethod(url);
+            String archiveKey = requestKey(url, params);
+            get = newGetMethod(url, archiveKey);
             Set<String> paramKeys = params.keySet();
             NameValuePair [] paramsArray = new NameValuePair[paramKeys.size()]; 
             
@@ -147,39 +206,214 @@ public class ConnectionUtility  {
             get.setQueryString(queryString);
             }
            // get.setQueryString(paramsArray);
-            int responseCode = getHttpClient().executeMethod(get);
+            int responseCode = execute(get, archiveKey);
             if ((responseCode / 100) != (HTTP_RESPONSE_OK / 100)) {
                 
-                String message = get.getResponseBodyAsString();
-                if (message == null) {
-                    Header header = get.getResponseHeader("eSciDocException");
-                    String value = header.getValue();
-                    if (value != null) {
-                        message =
-                            "GET-Request with url " + url
-                                + " results with Exception:" + value + " .";
-                    }
-                    else {
-                        message =
-                            "Connection to '" + url
-                                + "' failed with response code " + responseCode;
-                    }
+                String message;
+                try {
+                    message = failureMessage(get, "GET", url, responseCode);
+                }
+                finally {
+                    get.releaseConnection();
                 }
-
-                get.releaseConnection();
                 log.info(message);
                 throw new RepositoryException(message);
             }
         }
         catch (HttpException e) {
+            releaseOnFailure(get);
             throw new RepositoryException(e.getMessage(),e);
         }
         catch (IOException e) {
+            releaseOnFailure(get);
             throw new RepositoryException(e.getMessage(), e);
         }
 
         return get;
     }
+
+    /**
+     * Creates a GET method holding a permit of the bulkhead until its
+     * connection is released, serving the next recorded response of the
+     * request when replaying.
+     */
+    private GetMethod newGetMethod(final String url, final String key)
+        throws RepositoryException {
+        GetMethod get;
+        if (this.archive != null && !this.archive.isRecording()) {
+            get =
+                new ReplayedGetMethod(url, this.bulkhead, this.archive,
+                    this.archive.next(key));
+        }
+        else {
+            get = new BulkheadGetMethod(url, this.bulkhead);
+        }
+        this.bulkhead.acquire();
+        return get;
+    }
+
+    /**
+     * Executes the method, recording its response when recording.
+     * 
+     * @return the response code
+     */
+    private int execute(final GetMethod get, final String key)
+        throws IOException {
+        if (get instanceof ReplayedGetMethod) {
+            return ((ReplayedGetMethod) get).replay();
+        }
+        if (this.archive == null) {
+            return getHttpClient().executeMethod(get);
+        }
+        long start = System.nanoTime();
+        int responseCode = getHttpClient().executeMethod(get);
+        // the body is buffered and read from the buffer by the caller
+        byte[] body = get.getResponseBody();
+        Header contentType = get.getResponseHeader("Content-Type");
+        try {
+            this.archive.record(key, responseCode, contentType == null
+                ? null : contentType.getValue(), System.nanoTime() - start,
+                body);
+        }
+        catch (RepositoryException e) {
+            log.warn("Unable to record the response of " + key, e);
+        }
+        return responseCode;
+    }
+
+    /**
+     * @return the url followed by the parameters in name order
+     */
+    private static String requestKey(
+        final String url, final Map<String, String> params) {
+        StringBuilder key = new StringBuilder(url);
+        char separator = '?';
+        Iterator<Map.Entry<String, String>> it =
+            new TreeMap<String, String>(params).entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, String> param = it.next();
+            key.append(separator).append(param.getKey()).append('=').append(
+                param.getValue());
+            separator = '&';
+        }
+        return key.toString();
+    }
+
+    private static void releaseOnFailure(HttpMethod method) {
+        if (method != null) {
+            method.releaseConnection();
+        }
+    }
+
+    /**
+     * @return the message of a failed request: the response body, or the
+     *         eSciDocException header if there is no body, or the response
+     *         code if there is neither
+     */
+    private static String failureMessage(
+        HttpMethod method, String request, String url, int responseCode)
+        throws IOException {
+        String message = method.getResponseBodyAsString();
+        if (message != null && message.length() > 0) {
+            return message;
+        }
+        Header header = method.getResponseHeader("eSciDocException");
+        if (header != null && header.getValue() != null) {
+            return request + "-Request with url " + url
+                + " results with Exception:" + header.getValue() + " .";
+        }
+        return "Connection to '" + url + "' failed with response code "
+            + responseCode;
+    }
+
+    /**
+     * Returns its bulkhead permit with the first release of its connection.
+     */
+    private static class BulkheadGetMethod extends GetMethod {
+        private final Bulkhead bulkhead;
+
+        private boolean permitReleased = false;
+
+        private BulkheadGetMethod(String url, Bulkhead bulkhead) {
+            super(url);
+            this.bulkhead = bulkhead;
+        }
+
+        @Override
+        public void releaseConnection() {
+            try {
+                super.releaseConnection();
+            }
+            finally {
+                boolean first;
+                synchronized (this) {
+                    first = !permitReleased;
+                    permitReleased = true;
+                }
+                if (first) {
+                    this.bulkhead.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves a recorded response instead of executing the request.
+     */
+    private static final class ReplayedGetMethod extends BulkheadGetMethod {
+        private final HttpArchive archive;
+
+        private final HttpArchive.Exchange exchange;
+
+        private ReplayedGetMethod(
+            String url, Bulkhead bulkhead, HttpArchive archive,
+            HttpArchive.Exchange exchange) {
+            super(url, bulkhead);
+            this.archive = archive;
+            this.exchange = exchange;
+        }
+
+        /**
+         * Waits for the recorded time if the replay is timed.
+         * 
+         * @return the recorded status
+         */
+        private int replay() throws InterruptedIOException {
+            this.archive.await(this.exchange);
+            return this.exchange.getStatus();
+        }
+
+        @Override
+        public int getStatusCode() {
+            return this.exchange.getStatus();
+        }
+
+        @Override
+        public Header getResponseHeader(String headerName) {
+            if (this.exchange.getContentType() != null
+                && "Content-Type".equalsIgnoreCase(headerName)) {
+                return new Header("Content-Type", this.exchange
+                    .getContentType());
+            }
+            return null;
+        }
+
+        @Override
+        public byte[] getResponseBody() {
+            return this.exchange.getBody();
+        }
+
+        @Override
+        public InputStream getResponseBodyAsStream() {
+            return new ByteArrayInputStream(this.exchange.getBody());
+        }
+
+        @Override
+        public String getResponseBodyAsString()
+            throws UnsupportedEncodingException {
+            return new String(this.exchange.getBody(), getResponseCharSet());
+        }
+    }
    
 
   
@@ -215,32 +449,24 @@ public class ConnectionUtility  {
             int responseCode = getHttpClient().executeMethod(post);
             if ((responseCode / 100) != (HTTP_RESPONSE_OK / 100)) {
                 
-                String message = post.getResponseBodyAsString();
-                if (message == null) {
-                    Header header = post.getResponseHeader("eSciDocException");
-                    String value = header.getValue();
-                    if (value != null) {
-                        message =
-                            "POST-Request with url " + url
-                                + " results with Exception:" + value + " .";
-                    }
-                    else {
-                        message =
-                            "Connection to '" + url
-                                + "' failed with response code " + responseCode;
-                    }
+                String message;
+                try {
+                    message = failureMessage(post, "POST", url, responseCode);
+                }
+                finally {
+                    post.releaseConnection();
                 }
-
-                post.releaseConnection();
                 log.info(message);
                 throw new RepositoryException(message);
                 
             }
         }
         catch (HttpException e) {
+            releaseOnFailure(post);
             throw new RepositoryException(e.getMessage(), e);
         }
         catch (IOException e) {
+            releaseOnFailure(post);
             throw new RepositoryException(e.getMessage(), e);
         }
 
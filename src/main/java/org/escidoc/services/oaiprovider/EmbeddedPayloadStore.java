@@ -0,0 +1,231 @@
+package org.escidoc.services.oaiprovider;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.log4j.Logger;
+
+import proai.error.RepositoryException;
+
+/**
+ * Keeps the record payloads embedded in the search results from the time
+ * listRecords hands out their records until writeRecordXML asks for them.
+ * Proai enumerates a whole window before it requests any content, so the
+ * payloads are appended to a temporary file and only their positions are
+ * kept in memory.
+ * <p>
+ * Payloads which are never taken, because proai skipped or failed the
+ * window, are dropped once they are older than the maximum age, and the
+ * oldest payloads are dropped while the stored ones exceed the maximum
+ * size; writeRecordXML then retrieves them from the repository. A payload
+ * stored again replaces the earlier one. The file is truncated as soon as
+ * every stored payload was taken, and rewritten with the stored payloads
+ * only when more than half of it is no longer used.
+ */
+public class EmbeddedPayloadStore {
+    private static final Logger logger =
+        Logger.getLogger(EmbeddedPayloadStore.class.getName());
+
+    /** Files smaller than this are not compacted. */
+    private static final long MIN_COMPACT_BYTES = 1024 * 1024;
+
+    private final File dir;
+
+    private final long maxBytes;
+
+    private final long maxAgeMillis;
+
+    /** The stored payloads, oldest first. */
+    private final LinkedHashMap<String, Entry> index =
+        new LinkedHashMap<String, Entry>();
+
+    private long storedBytes = 0;
+
+    private long dropped = 0;
+
+    private File file;
+
+    private RandomAccessFile raf;
+
+    /**
+     * @param dir
+     *            directory of the file, null for the system temp directory
+     * @param maxBytes
+     *            maximum size of the stored payloads
+     * @param maxAgeMillis
+     *            time after which a payload which was not taken is dropped
+     */
+    public EmbeddedPayloadStore(File dir, long maxBytes, long maxAgeMillis) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public synchronized void put(String key, String payload)
+        throws RepositoryException {
+        try {
+            if (raf == null) {
+                file = File.createTempFile("oaiprovider_payloads", ".tmp", dir);
+                file.deleteOnExit();
+                raf = new RandomAccessFile(file, "rw");
+            }
+            remove(key);
+            dropExpired(System.currentTimeMillis());
+            byte[] bytes = payload.getBytes("UTF-8");
+            while (!index.isEmpty() && storedBytes + bytes.length > maxBytes) {
+                dropOldest();
+            }
+            if (index.isEmpty()) {
+                raf.setLength(0);
+            }
+            else if (raf.length() - storedBytes > storedBytes
+                && raf.length() > MIN_COMPACT_BYTES) {
+                compact();
+            }
+            long position = raf.length();
+            raf.seek(position);
+            raf.write(bytes);
+            index.put(key, new Entry(position, bytes.length, System
+                .currentTimeMillis()));
+            storedBytes += bytes.length;
+        }
+        catch (IOException e) {
+            throw new RepositoryException("Error storing payload of " + key, e);
+        }
+    }
+
+    /**
+     * Removes a stored payload and returns it.
+     *
+     * @return the payload or null, if none is stored for the key
+     */
+    public synchronized String take(String key) throws RepositoryException {
+        Entry entry = remove(key);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            byte[] bytes = new byte[entry.length];
+            raf.seek(entry.position);
+            raf.readFully(bytes);
+            if (index.isEmpty()) {
+                raf.setLength(0);
+            }
+            return new String(bytes, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        catch (IOException e) {
+            throw new RepositoryException("Error reading payload of " + key, e);
+        }
+    }
+
+    private Entry remove(String key) {
+        Entry entry = index.remove(key);
+        if (entry != null) {
+            storedBytes -= entry.length;
+        }
+        return entry;
+    }
+
+    private void dropExpired(long now) {
+        while (!index.isEmpty()) {
+            Entry oldest = index.values().iterator().next();
+            if (now - oldest.storedMillis <= maxAgeMillis) {
+                return;
+            }
+            dropOldest();
+        }
+    }
+
+    private void dropOldest() {
+        Iterator<Entry> it = index.values().iterator();
+        storedBytes -= it.next().length;
+        it.remove();
+        dropped++;
+    }
+
+    /**
+     * Rewrites the stored payloads to a new file, without the space of the
+     * payloads taken or dropped.
+     */
+    private void compact() throws IOException {
+        File compacted =
+            File.createTempFile("oaiprovider_payloads", ".tmp", dir);
+        compacted.deleteOnExit();
+        RandomAccessFile out = new RandomAccessFile(compacted, "rw");
+        long[] positions = new long[index.size()];
+        try {
+            Iterator<Entry> it = index.values().iterator();
+            for (int i = 0; it.hasNext(); i++) {
+                Entry entry = it.next();
+                byte[] bytes = new byte[entry.length];
+                raf.seek(entry.position);
+                raf.readFully(bytes);
+                positions[i] = out.length();
+                out.write(bytes);
+            }
+        }
+        catch (IOException e) {
+            out.close();
+            compacted.delete();
+            throw e;
+        }
+        logger.debug("Compacted payload file from " + raf.length() + " to "
+            + out.length() + " bytes");
+        Iterator<Entry> it = index.values().iterator();
+        for (int i = 0; it.hasNext(); i++) {
+            it.next().position = positions[i];
+        }
+        raf.close();
+        file.delete();
+        file = compacted;
+        raf = out;
+    }
+
+    /**
+     * Deletes the file holding the payloads.
+     */
+    public synchronized void close() {
+        index.clear();
+        storedBytes = 0;
+        if (raf != null) {
+            try {
+                raf.close();
+            }
+            catch (IOException e) {
+                logger.warn("Unable to close payload file", e);
+            }
+            file.delete();
+            raf = null;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "EmbeddedPayloadStore: stored=" + index.size() + " bytes="
+            + storedBytes + " dropped=" + dropped;
+    }
+
+    /**
+     * The location of a stored payload in the file.
+     */
+    private static final class Entry {
+        private long position;
+
+        private final int length;
+
+        private final long storedMillis;
+
+        Entry(long position, int length, long storedMillis) {
+            this.position = position;
+            this.length = length;
+            this.storedMillis = storedMillis;
+        }
+    }
+}
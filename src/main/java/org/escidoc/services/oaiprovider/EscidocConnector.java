@@ -1,5 +1,6 @@
 package org.escidoc.services.oaiprovider;
 
+import java.util.Collection;
 import java.util.HashMap;
 
 import org.apache.commons.httpclient.methods.GetMethod;
@@ -7,22 +8,64 @@ import org.apache.commons.httpclient.methods.GetMethod;
 import proai.error.RepositoryException;
 
 /**
- * An utility class for requests to Escidoc and Escidoc search service.
+ * Requests to Escidoc and Escidoc search service. An instance is immutable
+ * once constructed and may be shared by any number of threads. Requests to
+ * the framework and to the search service use separate connection pools, so
+ * slow requests to one of them cannot take the connections of the other.
  * 
  * @author ROF
  * 
  */
 public class EscidocConnector {
-    private static ConnectionUtility utility = null;
+    private final ConnectionUtility coreUtility;
 
-    private static String escidocUrl = null;
+    private final ConnectionUtility searchUtility;
 
-    private static String searchUrl = null;
+    private final String escidocUrl;
 
-    public static void init(final String baseUrl, final String searchBaseUrl){
-        utility = new ConnectionUtility();
-        escidocUrl = baseUrl;
-        searchUrl = searchBaseUrl;
+    private final String searchUrl;
+
+    public EscidocConnector(final String baseUrl, final String searchBaseUrl) {
+        this(new ConnectionUtility(), new ConnectionUtility(), baseUrl,
+            searchBaseUrl);
+    }
+
+    /**
+     * @param coreUtility
+     *            connections used for the requests to the framework
+     * @param searchUtility
+     *            connections used for the requests to the search service
+     */
+    public EscidocConnector(
+        final ConnectionUtility coreUtility,
+        final ConnectionUtility searchUtility, final String baseUrl,
+        final String searchBaseUrl) {
+        this.coreUtility = coreUtility;
+        this.searchUtility = searchUtility;
+        this.escidocUrl = baseUrl;
+        this.searchUrl = searchBaseUrl;
+    }
+
+    /**
+     * @return the connections used for the requests to the framework
+     */
+    public ConnectionUtility getCoreConnections() {
+        return coreUtility;
+    }
+
+    /**
+     * @return the connections used for the requests to the search service
+     */
+    public ConnectionUtility getSearchConnections() {
+        return searchUtility;
+    }
+
+    /**
+     * Closes all connections. The connector must not be used afterwards.
+     */
+    public void shutdown() {
+        coreUtility.shutdown();
+        searchUtility.shutdown();
     }
 
     /**
@@ -33,11 +76,13 @@ public class EscidocConnector {
      * 
      * TODO move to TriplestoreUtility implementation
      */
-    public static GetMethod requestSearchQueryReleased(
+    public GetMethod requestSearchQueryReleased(
         final String mdRecordName, final String mdRecordUri,
-        final String timeFrom, final String timeUntil, final String startRecord)
+        final String timeFrom, final String timeUntil, final String startRecord,
+        final String recordSchema)
         throws RepositoryException {
         HashMap<String, String> params = new HashMap<String, String>();
+        putRecordSchema(params, recordSchema);
         params.put("maximumRecords", "100");
         params.put("startRecord", startRecord);
         String query =
@@ -58,10 +103,12 @@ public class EscidocConnector {
      * @return
      * @throws RepositoryException
      */
-    public static GetMethod requestSearchQueryDcReleased(
-        final String timeFrom, final String timeUntil, final String startRecord)
+    public GetMethod requestSearchQueryDcReleased(
+        final String timeFrom, final String timeUntil, final String startRecord,
+        final String recordSchema)
         throws RepositoryException {
         HashMap<String, String> params = new HashMap<String, String>();
+        putRecordSchema(params, recordSchema);
         params.put("maximumRecords", "100");
         params.put("startRecord", startRecord);
         String query =
@@ -82,11 +129,13 @@ public class EscidocConnector {
      * 
      * TODO move to TriplestoreUtility implementation
      */
-    public static GetMethod requestSearchQueryWithdrawn(
+    public GetMethod requestSearchQueryWithdrawn(
         final String mdRecordName, final String mdRecordUri,
-        final String timeFrom, final String timeUntil, final String startRecord)
+        final String timeFrom, final String timeUntil, final String startRecord,
+        final String recordSchema)
         throws RepositoryException {
         HashMap<String, String> params = new HashMap<String, String>();
+        putRecordSchema(params, recordSchema);
         
         params.put("maximumRecords", "100");
         params.put("startRecord", startRecord);
@@ -108,10 +157,12 @@ public class EscidocConnector {
      * @return
      * @throws RepositoryException
      */
-    public static GetMethod requestSearchQueryDcWithdrawn(
-       final String timeFrom, final String timeUntil, final String startRecord)
+    public GetMethod requestSearchQueryDcWithdrawn(
+       final String timeFrom, final String timeUntil, final String startRecord,
+       final String recordSchema)
         throws RepositoryException {
         HashMap<String, String> params = new HashMap<String, String>();
+        putRecordSchema(params, recordSchema);
         
         params.put("maximumRecords", "100");
         params.put("startRecord", startRecord);
@@ -124,6 +175,18 @@ public class EscidocConnector {
         return requestSearchQuery(params);
     }
 
+    /**
+     * Requests the search records in the provided record schema, which embeds
+     * the md-record content. Nothing is added for a null record schema.
+     */
+    private static void putRecordSchema(
+        final HashMap<String, String> params, final String recordSchema) {
+        if (recordSchema != null) {
+            params.put("recordSchema", recordSchema);
+            params.put("recordPacking", "xml");
+        }
+    }
+
     /**
      * 
      * @param spoQuery
@@ -132,7 +195,7 @@ public class EscidocConnector {
      * 
      * TODO move to TriplestoreUtility implementation
      */
-    public static GetMethod requestSearchLmdQuery()
+    public GetMethod requestSearchLmdQuery()
         throws RepositoryException {
         HashMap<String, String> params = new HashMap<String, String>();
         String query = "escidoc.objecttype=item or escidoc.objecttype=container";
@@ -142,6 +205,25 @@ public class EscidocConnector {
         return requestSearchQuery(params);
     }
     
+    /**
+     * Returns a GET Method with the http response containing only the number
+     * of items and containers modified after the provided time.
+     * 
+     * @param timeFrom
+     * @return GET Method
+     * @throws RepositoryException
+     */
+    public GetMethod requestSearchCountQuery(final String timeFrom)
+        throws RepositoryException {
+        HashMap<String, String> params = new HashMap<String, String>();
+        String query =
+            "(escidoc.objecttype=item or escidoc.objecttype=container)"
+                + " and escidoc.last-modification-date>\"" + timeFrom + "\"";
+        params.put("query", query);
+        params.put("maximumRecords", "0");
+        return requestSearchQuery(params);
+    }
+
     /**
      * Returns a GET Method with the http response containing the result of the
      * search request with the provided search query.
@@ -151,7 +233,7 @@ public class EscidocConnector {
      * @return GET Method
      * @throws RepositoryException
      */
-    public static GetMethod requestSearchFilterQuery(
+    public GetMethod requestSearchFilterQuery(
         final String searchFilterQuery, final String startRecord)
         throws RepositoryException {
         HashMap<String, String> params = new HashMap<String, String>();
@@ -168,7 +250,7 @@ public class EscidocConnector {
      * @return GET Method
      * @throws RepositoryException
      */
-    public static GetMethod requestIdentify()
+    public GetMethod requestIdentify()
         throws RepositoryException {
         String url = null;
         HashMap<String, String> params = new HashMap<String, String>();
@@ -178,7 +260,7 @@ public class EscidocConnector {
         else {
             url = escidocUrl + "/adm/admin/get-repository-info";
         }
-        return utility.get(url, params);
+        return coreUtility.get(url, params);
     }
     
     /**
@@ -188,7 +270,7 @@ public class EscidocConnector {
      * @return GET Method
      * @throws RepositoryException
      */
-    public static GetMethod requestSearchQuery(final HashMap <String, String> params)
+    public GetMethod requestSearchQuery(final HashMap <String, String> params)
         throws RepositoryException {
         String url = null;
         if (searchUrl.endsWith("/")) {
@@ -198,7 +280,7 @@ public class EscidocConnector {
             url = searchUrl + "/escidocoaipmh_all";
         }
 
-        return utility.get(url, params);
+        return searchUtility.get(url, params);
 
     }
 
@@ -210,9 +292,24 @@ public class EscidocConnector {
      * @return GET Method
      * @throws RepositoryException
      */
-    public static GetMethod requestRetrieveOrganizationalUnits(final String offset)
+    public GetMethod requestRetrieveOrganizationalUnits(final String offset)
     throws RepositoryException {
-        StringBuffer parameters = new StringBuffer("maximumRecords=20");
+        return requestRetrieveOrganizationalUnits(offset, 20);
+    }
+
+    /**
+     * Returns a GET Method with the http response containing a page of the
+     * organizational units with the provided page size.
+     * 
+     * @param offset
+     * @param pageSize
+     * @return GET Method
+     * @throws RepositoryException
+     */
+    public GetMethod requestRetrieveOrganizationalUnits(
+        final String offset, final int pageSize) throws RepositoryException {
+        StringBuffer parameters =
+            new StringBuffer("maximumRecords=").append(pageSize);
         if (offset != null && !offset.equals("") && !offset.equals("0")) {
         	parameters.append("&startRecord=").append(offset);
         }
@@ -224,7 +321,7 @@ public class EscidocConnector {
             url = escidocUrl + "/oum/organizational-units?" + parameters.toString();
         }
 
-        return utility.get(url);
+        return coreUtility.get(url);
 
     }
     /**
@@ -235,7 +332,7 @@ public class EscidocConnector {
      * @return GET Method
      * @throws RepositoryException
      */
-    public static GetMethod requestRetrieveSetDefinitions(final String offset)
+    public GetMethod requestRetrieveSetDefinitions(final String offset)
     throws RepositoryException {
         StringBuffer parameters = new StringBuffer("maximumRecords=100");
         if (offset != null && !offset.equals("") && !offset.equals("0")) {
@@ -249,7 +346,7 @@ public class EscidocConnector {
             url = escidocUrl + "/oai/set-definitions?" + parameters.toString();
         }
 
-        return utility.get(url);
+        return coreUtility.get(url);
 
     }
 
@@ -261,9 +358,24 @@ public class EscidocConnector {
      * @return GET Method
      * @throws RepositoryException
      */
-    public static GetMethod requestRetrieveContexts(final String offset)
+    public GetMethod requestRetrieveContexts(final String offset)
     throws RepositoryException {
-        StringBuffer parameters = new StringBuffer("maximumRecords=20");
+        return requestRetrieveContexts(offset, 20);
+    }
+
+    /**
+     * Returns a GET Method with the http response containing a page of the
+     * contexts with the provided page size.
+     * 
+     * @param offset
+     * @param pageSize
+     * @return GET Method
+     * @throws RepositoryException
+     */
+    public GetMethod requestRetrieveContexts(
+        final String offset, final int pageSize) throws RepositoryException {
+        StringBuffer parameters =
+            new StringBuffer("maximumRecords=").append(pageSize);
         if (offset != null && !offset.equals("") && !offset.equals("0")) {
         	parameters.append("&startRecord=").append(offset);
         }
@@ -275,7 +387,7 @@ public class EscidocConnector {
             url = escidocUrl + "/ir/contexts?" + parameters.toString();
         }
 
-        return utility.get(url);
+        return coreUtility.get(url);
 
     }
     
@@ -293,7 +405,7 @@ public class EscidocConnector {
      * @return Get Method
      * @throws RepositoryException
      */
-    public static GetMethod requestRetrieveMdRecord(final String resourceId, 
+    public GetMethod requestRetrieveMdRecord(final String resourceId, 
         final String resourceType, final String mdRecordName)
     throws RepositoryException {
         String url = null;
@@ -303,7 +415,7 @@ public class EscidocConnector {
         else {
             url = escidocUrl + "/ir/" + resourceType +  "/" + resourceId + "/md-records/md-record/" + mdRecordName + "/content";
         }
-        return utility.get(url);
+        return coreUtility.get(url);
     }
     
     /**
@@ -320,7 +432,7 @@ public class EscidocConnector {
      * @return Get Method
      * @throws RepositoryException
      */
-    public static GetMethod requestRetrieveResource(final String resourceId, 
+    public GetMethod requestRetrieveResource(final String resourceId, 
         final String resourceType, final String suffix)
     throws RepositoryException {
         String resource = suffix.substring("resources".length());
@@ -331,9 +443,44 @@ public class EscidocConnector {
         else {
             url = escidocUrl + "/ir/" + resourceType +  "/" + resourceId + "/resources/" + resource;
         }
-        return utility.get(url);
+        return coreUtility.get(url);
     }
     
+    /**
+     * Returns a GET Method with the http response containing the filtered list
+     * of the escidoc resources of the provided type with the provided ids,
+     * including their md-records.
+     *
+     * @param resourceType
+     *            type of the escidoc resources
+     * @param resourceIds
+     *            ids of the escidoc resources
+     * @return Get Method
+     * @throws RepositoryException
+     */
+    public GetMethod requestRetrieveResourceList(
+        final String resourceType, final Collection<String> resourceIds)
+        throws RepositoryException {
+        StringBuffer query = new StringBuffer();
+        for (String resourceId : resourceIds) {
+            if (query.length() > 0) {
+                query.append(" or ");
+            }
+            query.append("\"/id\"=\"").append(resourceId).append("\"");
+        }
+        HashMap<String, String> params = new HashMap<String, String>();
+        params.put("query", query.toString());
+        params.put("maximumRecords", String.valueOf(resourceIds.size()));
+        String url = null;
+        if (escidocUrl.endsWith("/")) {
+            url = escidocUrl + "ir/" + resourceType + "s";
+        }
+        else {
+            url = escidocUrl + "/ir/" + resourceType + "s";
+        }
+        return coreUtility.get(url, params);
+    }
+
     /**
      * Returns a GET Method with the http response containing the content of a
      * DC data stream of an escidoc resource with the provided id and the provided
@@ -346,7 +493,7 @@ public class EscidocConnector {
      * @return Get Method
      * @throws RepositoryException
      */
-    public static GetMethod requestRetrieveDc(final String resourceId, 
+    public GetMethod requestRetrieveDc(final String resourceId, 
         final String resourceType) throws RepositoryException {
         String url = null;
         if (escidocUrl.endsWith("/")) {
@@ -355,7 +502,7 @@ public class EscidocConnector {
         else {
             url = escidocUrl + "/ir/" + resourceType +  "/" + resourceId + "/resources/dc/content";
         }
-        return utility.get(url);
+        return coreUtility.get(url);
     }
     
 }
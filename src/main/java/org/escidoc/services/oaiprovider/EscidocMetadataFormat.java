@@ -11,15 +11,31 @@ public class EscidocMetadataFormat implements MetadataFormat {
     private final String m_namespaceURI;
     private final String m_schemaLocation;
     private final String m_mdDissemination;
+    private final String m_recordSchema;
 
     public EscidocMetadataFormat(String prefix,
             String namespaceURI,
             String schemaLocation,
             String mdDissemination) {
+        this(prefix, namespaceURI, schemaLocation, mdDissemination, null);
+    }
+
+    /**
+     * @param recordSchema
+     *            SRW record schema which embeds the md-record of this format
+     *            in the search results, null if the md-records have to be
+     *            retrieved separately
+     */
+    public EscidocMetadataFormat(String prefix,
+            String namespaceURI,
+            String schemaLocation,
+            String mdDissemination,
+            String recordSchema) {
         m_prefix = prefix;
         m_namespaceURI = namespaceURI;
         m_schemaLocation = schemaLocation;
         m_mdDissemination = mdDissemination;
+        m_recordSchema = recordSchema;
     }
 
     public String getPrefix() {
@@ -37,4 +53,12 @@ public class EscidocMetadataFormat implements MetadataFormat {
     public String getDissemination() {
         return m_mdDissemination;
     }
+
+    public String getRecordSchema() {
+        return m_recordSchema;
+    }
+
+    public boolean isSearchEmbedded() {
+        return m_recordSchema != null;
+    }
 }
@@ -2,12 +2,13 @@ package org.escidoc.services.oaiprovider;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Pattern;
-import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.log4j.Logger;
 import org.escidoc.services.oaiprovider.cache.MetadataValidator;
-import org.escidoc.services.oaiprovider.cache.ValidationInfo;
-import org.escidoc.services.oaiprovider.cache.ValidationResult;
+import org.escidoc.services.oaiprovider.cache.SampledValidator;
+import org.escidoc.services.oaiprovider.saxhandler.SaxParserPool;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import proai.MetadataFormat;
@@ -42,12 +43,105 @@ public class EscidocOAIDriver implements OAIDriver {
     public static final String PROP_FORMAT_LOC_END = ".loc";
     public static final String PROP_FORMAT_URI_END = ".uri";
     public static final String PROP_FORMAT_DISSTYPE_END = ".dissType";
+    public static final String PROP_FORMAT_RECORD_SCHEMA_END = ".recordSchema";
+    public static final String PROP_FORMAT_MAX_CONCURRENT_END =
+            ".maxConcurrent";
+    public static final String PROP_VALIDATION_SAMPLE_RATE =
+            NS + "validation.sampleRate";
+    public static final String PROP_VALIDATION_QUEUE_SIZE =
+            NS + "validation.queueSize";
+    public static final String PROP_VALIDATION_THREADS =
+            NS + "validation.threads";
+    public static final String PROP_VALIDATION_REPORT_INTERVAL =
+            NS + "validation.reportInterval";
+    public static final String PROP_FETCH_BATCH_SIZE =
+            NS + "fetch.batchSize";
+    public static final String PROP_FETCH_MAX_PENDING =
+            NS + "fetch.maxPending";
+    public static final String PROP_FETCH_READ_AHEAD_THREADS =
+            NS + "fetch.readAheadThreads";
+    public static final String PROP_FETCH_BUFFER_KBYTES =
+            NS + "fetch.bufferKBytes";
+    public static final String PROP_FETCH_BUFFER_SECONDS =
+            NS + "fetch.bufferSeconds";
+    public static final String PROP_FETCH_EMBEDDED_KBYTES =
+            NS + "fetch.embeddedKBytes";
+    public static final String PROP_FETCH_EMBEDDED_SECONDS =
+            NS + "fetch.embeddedSeconds";
+    public static final String PROP_SCHEMA_LOADER_THREADS =
+            NS + "validation.schemaLoaderThreads";
+    public static final String PROP_SCHEMA_RETRY_INITIAL_SECONDS =
+            NS + "validation.schemaRetryInitialSeconds";
+    public static final String PROP_SCHEMA_RETRY_MAX_SECONDS =
+            NS + "validation.schemaRetryMaxSeconds";
+    public static final String PROP_PARSER_POOL_SIZE =
+            NS + "parser.poolSize";
+    public static final String PROP_RECORD_LIST_SPILL_DIR =
+            NS + "recordList.spillDir";
+    public static final String PROP_RECORD_LIST_MEMORY_KBYTES =
+            NS + "recordList.memoryKBytes";
+    public static final String PROP_RECORD_LIST_COMPRESS =
+            NS + "recordList.compress";
+    public static final String PROP_HARVEST_CHECKPOINT_DIR =
+            NS + "harvest.checkpointDir";
+    public static final String PROP_HARVEST_PAGE_RETRIES =
+            NS + "harvest.pageRetries";
+    public static final String PROP_HARVEST_RETRY_INITIAL_MILLIS =
+            NS + "harvest.retryInitialMillis";
+    public static final String PROP_HARVEST_SHARED_SCAN =
+            NS + "harvest.sharedScan";
+    public static final String PROP_HARVEST_SHARED_SCAN_RECORD_SCHEMA =
+            NS + "harvest.sharedScan.recordSchema";
+    public static final String PROP_HARVEST_SHARED_SCAN_SECONDS =
+            NS + "harvest.sharedScan.seconds";
+    public static final String PROP_CHANGE_GATE =
+            NS + "changeGate";
+    public static final String PROP_CHANGE_GATE_SECONDS =
+            NS + "changeGate.seconds";
+    public static final String PROP_IDENTIFY_TTL_SECONDS =
+            NS + "identify.ttlSeconds";
+    public static final String PROP_LATEST_DATE_TTL_SECONDS =
+            NS + "latestDate.ttlSeconds";
+    public static final String PROP_REFRESH_AHEAD_PERCENT =
+            NS + "refreshAheadPercent";
+    public static final String PROP_SET_INFO_PAGE_SIZE =
+            NS + "setInfo.pageSize";
+    public static final String PROP_SET_INFO_THREADS =
+            NS + "setInfo.threads";
+    public static final String PROP_SET_INFO_PREFETCH_PAGES =
+            NS + "setInfo.prefetchPages";
+    public static final String PROP_SET_INFO_OU_ANCESTORS =
+            NS + "setInfo.ouAncestors";
+    public static final String PROP_CONNECTIONS_CORE =
+            NS + "connections.core";
+    public static final String PROP_CONNECTIONS_SEARCH =
+            NS + "connections.search";
+    public static final String PROP_CONNECTIONS_QUEUE_TIMEOUT_MILLIS =
+            NS + "connections.queueTimeoutMillis";
+    public static final String PROP_FORMAT_MAX_CONCURRENT =
+            NS + "md.formatMaxConcurrent";
+    public static final String PROP_FORMAT_QUEUE_TIMEOUT_MILLIS =
+            NS + "md.formatQueueTimeoutMillis";
+    public static final String PROP_HTTP_ARCHIVE = NS + "http.archive";
+    public static final String PROP_HTTP_ARCHIVE_MODE =
+            NS + "http.archiveMode";
     private EscidocQueryFactory m_queryFactory;
+    private EscidocConnector m_connector;
+    private HttpArchive m_httpArchive;
+    private List<Bulkhead> m_formatBulkheads;
     private String m_escidocBaseURL;
     private String m_escidocSearchBaseURL;
     private String m_namespace_identifier;
     private Map<String, EscidocMetadataFormat> m_metadataFormats;
     private MetadataValidator _validator;
+    private SampledValidator _sampledValidator;
+    private RecordContentFetcher m_contentFetcher;
+    private SaxParserPool m_parserPool;
+    private ChangeGate m_changeGate;
+    private ExecutorService m_refresher;
+    private ExecutorService m_setInfoExecutor;
+    private RefreshingValue<String> m_identity;
+    private RefreshingValue<Date> m_latestDate;
 
     public EscidocOAIDriver() {
     }
@@ -69,11 +163,200 @@ public class EscidocOAIDriver implements OAIDriver {
             m_escidocSearchBaseURL += "/";
         }
         m_metadataFormats = getMetadataFormats(props);
+        m_parserPool = new SaxParserPool(
+                getOptionalInt(props, PROP_PARSER_POOL_SIZE, 8));
+        long connectionQueueTimeout = getOptionalInt(props,
+                PROP_CONNECTIONS_QUEUE_TIMEOUT_MILLIS, 60000);
+        m_httpArchive = getHttpArchive(props);
+        m_connector = new EscidocConnector(
+                new ConnectionUtility("core",
+                        getOptionalInt(props, PROP_CONNECTIONS_CORE, 30),
+                        connectionQueueTimeout, m_httpArchive),
+                new ConnectionUtility("search",
+                        getOptionalInt(props, PROP_CONNECTIONS_SEARCH, 30),
+                        connectionQueueTimeout, m_httpArchive),
+                m_escidocBaseURL, m_escidocSearchBaseURL);
         m_queryFactory = new EscidocQueryFactory();
         m_queryFactory.init(m_escidocBaseURL, m_escidocSearchBaseURL,
-                m_namespace_identifier);
-        _validator = new MetadataValidator();
-        _validator.init(listMetadataFormats());
+                m_namespace_identifier, m_parserPool, m_connector);
+        String spillDir = getOptional(props, PROP_RECORD_LIST_SPILL_DIR, null);
+        File spillDirFile = null;
+        if (spillDir != null) {
+            spillDirFile = new File(spillDir);
+            if (!spillDirFile.isDirectory() && !spillDirFile.mkdirs()) {
+                throw new RepositoryException("Unable to create "
+                        + PROP_RECORD_LIST_SPILL_DIR + " " + spillDir);
+            }
+        }
+        m_queryFactory.setRecordListOptions(spillDirFile,
+                getOptionalInt(props, PROP_RECORD_LIST_MEMORY_KBYTES, 8192)
+                * 1024L,
+                Boolean.valueOf(getOptional(props, PROP_RECORD_LIST_COMPRESS,
+                        "true")).booleanValue());
+        String checkpointDir =
+                getOptional(props, PROP_HARVEST_CHECKPOINT_DIR, null);
+        File checkpointDirFile = null;
+        if (checkpointDir != null) {
+            checkpointDirFile = new File(checkpointDir);
+            if (!checkpointDirFile.isDirectory()
+                    && !checkpointDirFile.mkdirs()) {
+                throw new RepositoryException("Unable to create "
+                        + PROP_HARVEST_CHECKPOINT_DIR + " " + checkpointDir);
+            }
+        }
+        m_queryFactory.setHarvestOptions(checkpointDirFile,
+                getOptionalInt(props, PROP_HARVEST_PAGE_RETRIES, 3),
+                getOptionalInt(props, PROP_HARVEST_RETRY_INITIAL_MILLIS, 1000));
+        if (Boolean.valueOf(getOptional(props, PROP_HARVEST_SHARED_SCAN,
+                "false")).booleanValue()) {
+            String sharedRecordSchema = getOptional(props,
+                    PROP_HARVEST_SHARED_SCAN_RECORD_SCHEMA, null);
+            if (sharedRecordSchema == null) {
+                throw new RepositoryException(PROP_HARVEST_SHARED_SCAN
+                        + " requires "
+                        + PROP_HARVEST_SHARED_SCAN_RECORD_SCHEMA
+                        + ", without it the shared scan finds no"
+                        + " md-records of the formats");
+            }
+            List<String> payloadNames = new ArrayList<String>();
+            for (EscidocMetadataFormat format : m_metadataFormats.values()) {
+                if (format.isSearchEmbedded()) {
+                    payloadNames.add(format.getDissemination());
+                }
+            }
+            m_queryFactory.setSharedEnumeration(new SharedEnumeration(
+                    m_metadataFormats.size(),
+                    getOptionalInt(props, PROP_HARVEST_SHARED_SCAN_SECONDS,
+                            3600) * 1000L, spillDirFile),
+                    sharedRecordSchema, payloadNames);
+        }
+        int setInfoThreads = getOptionalInt(props, PROP_SET_INFO_THREADS, 4);
+        if (setInfoThreads > 0) {
+            m_setInfoExecutor = Executors.newFixedThreadPool(setInfoThreads,
+                    new NamedThreadFactory("oaiprovider-sets-"));
+        }
+        m_queryFactory.setSetInfoOptions(
+                getOptionalInt(props, PROP_SET_INFO_PAGE_SIZE, 20),
+                m_setInfoExecutor,
+                getOptionalInt(props, PROP_SET_INFO_PREFETCH_PAGES, 8));
+        m_queryFactory.setOuAncestors(Boolean.valueOf(getOptional(props,
+                PROP_SET_INFO_OU_ANCESTORS, "false")).booleanValue());
+        m_refresher = Executors.newSingleThreadExecutor(
+                new NamedThreadFactory("oaiprovider-refresh-"));
+        int refreshAheadPercent =
+                getOptionalInt(props, PROP_REFRESH_AHEAD_PERCENT, 80);
+        long identifyTtl =
+                getOptionalInt(props, PROP_IDENTIFY_TTL_SECONDS, 3600) * 1000L;
+        m_identity = new RefreshingValue<String>("identify",
+                new RefreshingValue.Loader<String>() {
+                    public String load() throws RepositoryException {
+                        return m_queryFactory.retrieveIndentity();
+                    }
+                }, identifyTtl, identifyTtl * refreshAheadPercent / 100,
+                m_refresher);
+        long latestDateTtl =
+                getOptionalInt(props, PROP_LATEST_DATE_TTL_SECONDS, 300) * 1000L;
+        m_latestDate = new RefreshingValue<Date>("latestDate",
+                new RefreshingValue.Loader<Date>() {
+                    public Date load() throws RepositoryException {
+                        return m_queryFactory.latestRecordDate();
+                    }
+                }, latestDateTtl, latestDateTtl * refreshAheadPercent / 100,
+                m_refresher);
+        if (Boolean.valueOf(getOptional(props, PROP_CHANGE_GATE, "false"))
+                .booleanValue()) {
+            m_changeGate = new ChangeGate(m_queryFactory,
+                    getOptionalInt(props, PROP_CHANGE_GATE_SECONDS, 120)
+                    * 1000L);
+        }
+        RecordContentCache contentCache = new RecordContentCache(
+                getOptionalInt(props, PROP_FETCH_BUFFER_KBYTES, 16384) * 1024L,
+                getOptionalInt(props, PROP_FETCH_BUFFER_SECONDS, 600) * 1000L);
+        EmbeddedPayloadStore payloadStore = new EmbeddedPayloadStore(spillDirFile,
+                getOptionalInt(props, PROP_FETCH_EMBEDDED_KBYTES, 262144)
+                * 1024L,
+                getOptionalInt(props, PROP_FETCH_EMBEDDED_SECONDS, 86400)
+                * 1000L);
+        m_contentFetcher = new RecordContentFetcher(m_connector, contentCache,
+                payloadStore,
+                getOptionalInt(props, PROP_FETCH_BATCH_SIZE, 25),
+                getOptionalInt(props, PROP_FETCH_MAX_PENDING, 100000),
+                getOptionalInt(props, PROP_FETCH_READ_AHEAD_THREADS, 4),
+                m_parserPool);
+        m_contentFetcher.setBulkheads(getFormatBulkheads(props));
+        double sampleRate =
+                getOptionalDouble(props, PROP_VALIDATION_SAMPLE_RATE, 0.05);
+        _validator = new MetadataValidator(
+                getOptionalInt(props, PROP_SCHEMA_LOADER_THREADS, 4),
+                getOptionalInt(props, PROP_SCHEMA_RETRY_INITIAL_SECONDS, 60)
+                * 1000L,
+                getOptionalInt(props, PROP_SCHEMA_RETRY_MAX_SECONDS, 3600)
+                * 1000L, m_parserPool);
+        // schemas are only needed when validating, load them in the
+        // background instead of blocking the servlet startup
+        _validator.init(listMetadataFormats(), sampleRate > 0);
+        _sampledValidator = new SampledValidator(_validator, sampleRate,
+                getOptionalInt(props, PROP_VALIDATION_QUEUE_SIZE, 100),
+                getOptionalInt(props, PROP_VALIDATION_THREADS, 1),
+                getOptionalInt(props, PROP_VALIDATION_REPORT_INTERVAL, 1000));
+    }
+
+    /**
+     * Opens the archive the HTTP responses are recorded to or replayed from,
+     * if http.archive is set. http.archiveMode is record, replay (the
+     * default) or replayTimed.
+     *
+     * @return the archive, or null
+     */
+    private static HttpArchive getHttpArchive(Properties props)
+            throws RepositoryException {
+        String archive = getOptional(props, PROP_HTTP_ARCHIVE, null);
+        if (archive == null) {
+            return null;
+        }
+        String mode = getOptional(props, PROP_HTTP_ARCHIVE_MODE, "replay");
+        if (mode.equals("record")) {
+            return HttpArchive.record(new File(archive));
+        }
+        if (mode.equals("replay")) {
+            return HttpArchive.replay(new File(archive), false);
+        }
+        if (mode.equals("replayTimed")) {
+            return HttpArchive.replay(new File(archive), true);
+        }
+        throw new RepositoryException("Invalid " + PROP_HTTP_ARCHIVE_MODE
+                + " " + mode + ", expected record, replay or replayTimed");
+    }
+
+    /**
+     * Creates a bulkhead per format which bounds the concurrent retrievals
+     * of its records by md.formatMaxConcurrent, or by
+     * md.format.PREFIX.maxConcurrent if set. Formats sharing a dissemination
+     * share the bulkhead of the first of them; 0 leaves a format unbounded.
+     *
+     * @return the bulkheads by dissemination type
+     */
+    private Map<String, Bulkhead> getFormatBulkheads(Properties props)
+            throws RepositoryException {
+        int defaultPermits =
+                getOptionalInt(props, PROP_FORMAT_MAX_CONCURRENT, 3);
+        long queueTimeout = getOptionalInt(props,
+                PROP_FORMAT_QUEUE_TIMEOUT_MILLIS, 10000);
+        Map<String, Bulkhead> bulkheads = new HashMap<String, Bulkhead>();
+        m_formatBulkheads = new ArrayList<Bulkhead>();
+        for (EscidocMetadataFormat format : m_metadataFormats.values()) {
+            int permits = getOptionalInt(props, PROP_FORMAT_START
+                    + format.getPrefix() + PROP_FORMAT_MAX_CONCURRENT_END,
+                    defaultPermits);
+            if (permits > 0
+                    && !bulkheads.containsKey(format.getDissemination())) {
+                Bulkhead bulkhead = new Bulkhead(format.getPrefix(), permits,
+                        queueTimeout);
+                bulkheads.put(format.getDissemination(), bulkhead);
+                m_formatBulkheads.add(bulkhead);
+            }
+        }
+        return bulkheads;
     }
 
     protected static String getRequired(Properties props, String key)
@@ -87,6 +370,44 @@ public class EscidocOAIDriver implements OAIDriver {
         return val.trim();
     }
 
+    protected static String getOptional(Properties props, String key,
+            String defaultValue) {
+        String val = props.getProperty(key);
+        if (val == null || val.trim().length() == 0) {
+            return defaultValue;
+        }
+        logger.debug("Optional property: " + key + " = " + val);
+        return val.trim();
+    }
+
+    protected static int getOptionalInt(Properties props, String key,
+            int defaultValue) throws RepositoryException {
+        String val = getOptional(props, key, null);
+        if (val == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(val);
+        } catch (NumberFormatException e) {
+            throw new RepositoryException("Property " + key
+                    + " is not an integer: " + val, e);
+        }
+    }
+
+    protected static double getOptionalDouble(Properties props, String key,
+            double defaultValue) throws RepositoryException {
+        String val = getOptional(props, key, null);
+        if (val == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(val);
+        } catch (NumberFormatException e) {
+            throw new RepositoryException("Property " + key
+                    + " is not a number: " + val, e);
+        }
+    }
+
     private Map<String, EscidocMetadataFormat> getMetadataFormats(
             Properties props) throws RepositoryException {
         String formats[], prefix, namespaceURI, schemaLocation;
@@ -119,9 +440,12 @@ public class EscidocOAIDriver implements OAIDriver {
                 namespaceURI = DC_NAMESPACEURI;
                 schemaLocation = DC_SCHEMALOCATION;
             }
+            String recordSchema = getOptional(props,
+                    PROP_FORMAT_START + prefix + PROP_FORMAT_RECORD_SCHEMA_END,
+                    null);
             mf =
                     new EscidocMetadataFormat(prefix, namespaceURI, schemaLocation,
-                    getRequired(props, mdDissType));
+                    getRequired(props, mdDissType), recordSchema);
             map.put(prefix, mf);
         }
         if (!map.containsKey("oai_dc")) {
@@ -135,15 +459,26 @@ public class EscidocOAIDriver implements OAIDriver {
         return map;
     }
 
+    /**
+     * @return the namespace identifier of the oai ids of the records
+     */
+    public String getNamespaceIdentifier() {
+        return m_namespace_identifier;
+    }
+
     @Override
     public void write(PrintWriter out) throws RepositoryException {
-        String identity = m_queryFactory.retrieveIndentity();
+        String identity = m_identity.get();
         out.print(identity);
     }
 
     @Override
     public Date getLatestDate() throws RepositoryException {
-        return m_queryFactory.latestRecordDate();
+        Date latest = m_latestDate.get();
+        if (m_changeGate != null) {
+            m_changeGate.latestDate(latest);
+        }
+        return latest;
     }
 
     @Override
@@ -165,7 +500,25 @@ public class EscidocOAIDriver implements OAIDriver {
                     "from date cannot be later than until date.");
         }
 
-        return m_queryFactory.listRecords(from, until, m_metadataFormats.get(mdPrefix), new HashSet<String>());
+        if (m_changeGate != null && !m_changeGate.hasChanges(from, mdPrefix)) {
+            return new RemoteIteratorImpl<EscidocRecord>(
+                    Collections.<EscidocRecord> emptyList().iterator());
+        }
+        RemoteIterator<EscidocRecord> records = m_queryFactory.listRecords(
+                from, until, m_metadataFormats.get(mdPrefix),
+                new HashSet<String>(), m_contentFetcher);
+        if (m_changeGate == null) {
+            return records;
+        }
+        // the window only counts as harvested once proai read all records
+        final String prefix = mdPrefix;
+        final Date harvestedUntil = until;
+        return new CompletingRemoteIterator<EscidocRecord>(records) {
+            @Override
+            protected void completed() {
+                m_changeGate.harvested(prefix, harvestedUntil);
+            }
+        };
     }
 
     @Override
@@ -224,60 +577,40 @@ public class EscidocOAIDriver implements OAIDriver {
     private void writeRecordMetadata(
             String resourceId, String dissURI, String resourceType,
             String mdPrefix, PrintWriter out) throws RepositoryException {
-        ValidationInfo validationInfo = new ValidationInfo();
-        GetMethod getWithMdRecordContent = null;
-        if (dissURI.equals("DC")) {
-            getWithMdRecordContent =
-                    EscidocConnector.requestRetrieveDc(resourceId, resourceType);
-        } else if (dissURI.startsWith("resources")) {
-            getWithMdRecordContent =
-                    EscidocConnector.requestRetrieveResource(resourceId,
-                    resourceType, dissURI);
-        } else {
-            getWithMdRecordContent =
-                    EscidocConnector.requestRetrieveMdRecord(resourceId,
-                    resourceType, dissURI);
-        }
-        InputStream in = null;
-        BufferedReader reader = null;
-        try {
-            in = getWithMdRecordContent.getResponseBodyAsStream();
-            if (in == null) {
-                throw new RepositoryException(
-                        "Body content of a GET-request is null " + resourceId
-                        + " md-prefix: " + mdPrefix);
-            }
-            // FIXME use xml reader for reading xml, charset of HTTP response
-            // might not be charset of XML document (https://www.escidoc.org/jira/browse/INFR-930)
-            String charset = getWithMdRecordContent.getResponseCharSet();
-            reader = new BufferedReader(new InputStreamReader(in, charset));
-            StringBuffer buf = new StringBuffer();
-            String line = reader.readLine();
-            while (line != null) {
-                buf.append(line + "\n");
-                line = reader.readLine();
-            }
-            String xml = buf.toString();
-            validationInfo = _validator.validate(mdPrefix, xml);
-            xml = xml.replaceAll("\\s*<\\?xml.*?\\?>\\s*", "");
-            out.println("  <metadata>");
-            out.print(xml);
-            out.println("  </metadata>");
-        } catch (IOException e) {
-            throw new RepositoryException("IO error reading " + dissURI, e);
-        } finally {
-            if (reader != null) {
-                try {
-                    getWithMdRecordContent.releaseConnection();
-                    reader.close();
-                } catch (IOException e) {
-                }
-            }
-        }
+        String xml =
+                m_contentFetcher.fetch(resourceId, resourceType, dissURI);
+        _sampledValidator.offer(mdPrefix, xml);
+        xml = xml.replaceAll("\\s*<\\?xml.*?\\?>\\s*", "");
+        out.println("  <metadata>");
+        out.print(xml);
+        out.println("  </metadata>");
     }
 
     @Override
     public void close() throws RepositoryException {
-        throw new UnsupportedOperationException("Not supported yet.");
+        _sampledValidator.shutdown();
+        _validator.shutdown();
+        m_contentFetcher.close();
+        m_refresher.shutdownNow();
+        if (m_setInfoExecutor != null) {
+            m_setInfoExecutor.shutdownNow();
+        }
+        logger.info(m_parserPool);
+        logger.info(m_identity);
+        logger.info(m_queryFactory.getSetFragmentCache());
+        logger.info(m_latestDate);
+        if (m_changeGate != null) {
+            logger.info(m_changeGate);
+        }
+        logger.info(m_connector.getCoreConnections().getBulkhead());
+        logger.info(m_connector.getSearchConnections().getBulkhead());
+        for (Bulkhead bulkhead : m_formatBulkheads) {
+            logger.info(bulkhead);
+        }
+        m_connector.shutdown();
+        if (m_httpArchive != null) {
+            logger.info(m_httpArchive);
+            m_httpArchive.close();
+        }
     }
 }
\ No newline at end of file
@@ -1,35 +1,34 @@
 package org.escidoc.services.oaiprovider;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.Vector;
-
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.log4j.Logger;
-import org.escidoc.services.oaiprovider.saxhandler.AllRecordMetadataHandler;
+import org.escidoc.services.oaiprovider.saxhandler.DefaultHandler;
 import org.escidoc.services.oaiprovider.saxhandler.IdentifyHandler;
 import org.escidoc.services.oaiprovider.saxhandler.OuOrContextListHandler;
+import org.escidoc.services.oaiprovider.saxhandler.SaxParserPool;
 import org.escidoc.services.oaiprovider.saxhandler.SetDefinitionsHandler;
-import org.escidoc.services.oaiprovider.saxhandler.SetMembersIdsHandler;
-import org.xml.sax.SAXException;
+import org.escidoc.services.oaiprovider.stax.SearchRecord;
+import org.escidoc.services.oaiprovider.stax.SearchResultReader;
 
 import proai.SetInfo;
 import proai.driver.RemoteIterator;
@@ -51,85 +50,246 @@ public class EscidocQueryFactory implements Constants {
 
     private static final Date ONE_CE = new Date(-62135769600000L);
 
+    private static final long MAX_PAGE_RETRY_DELAY = 60000;
+
+    /**
+     * Key of the checkpoints of shared scans, which is no metadata prefix.
+     */
+    private static final String SHARED_HARVEST = "shared-scan";
+
     private String m_escidocBaseURL;
 
     private String m_escidocSearchBaseURL;
 
     private String m_namespace_identifier;
 
-    private SAXParserFactory saxParserFactory;
+    private SaxParserPool parserPool;
+
+    private File recordListSpillDir = null;
+
+    private long recordListMemoryThreshold = 8L * 1024 * 1024;
+
+    private boolean recordListCompress = true;
+
+    private File harvestCheckpointDir = null;
 
-    private HashMap<String, Vector<String>> searchHitLists =
-        new HashMap<String, Vector<String>>();
+    private int pageRetries = 3;
+
+    private long pageRetryDelay = 1000;
+
+    private SharedEnumeration sharedEnumeration = null;
+
+    private int setPageSize = 20;
+
+    private ExecutorService setExecutor = null;
+
+    private int setPrefetchPages = 8;
+
+    private boolean ouAncestors = false;
+
+    /**
+     * The ancestors of the ous, replaced whenever listSetInfo retrieved the
+     * whole ou list.
+     */
+    private volatile OuAncestryIndex ouAncestry = null;
 
-    private HashMap<String, SetInfo> setDefinitions =
-        new HashMap<String, SetInfo>();
+    private String sharedRecordSchema = null;
+
+    private Collection<String> sharedPayloadNames = null;
+
+    /**
+     * The connector of the configured urls, published by init.
+     */
+    private volatile EscidocConnector connector = null;
+
+    /**
+     * The user defined sets, replaced as a whole whenever they were
+     * retrieved again.
+     */
+    private volatile UserDefinedSets userDefinedSets = UserDefinedSets.EMPTY;
+
+    private final SetFragmentCache setFragments = new SetFragmentCache();
 
     public void init(
         String baseUrl, String searchBaseUrl, String namespaceIdentifier) {
+        init(baseUrl, searchBaseUrl, namespaceIdentifier, new SaxParserPool(4));
+    }
+
+    /**
+     * @param parserPool
+     *            pool providing the parsers of all SAX based queries
+     */
+    public void init(
+        String baseUrl, String searchBaseUrl, String namespaceIdentifier,
+        SaxParserPool parserPool) {
+        init(baseUrl, searchBaseUrl, namespaceIdentifier, parserPool,
+            new EscidocConnector(baseUrl, searchBaseUrl));
+    }
+
+    /**
+     * @param connector
+     *            connector of the provided urls used for all requests
+     */
+    public void init(
+        String baseUrl, String searchBaseUrl, String namespaceIdentifier,
+        SaxParserPool parserPool, EscidocConnector connector) {
         m_namespace_identifier = namespaceIdentifier;
         m_escidocBaseURL = baseUrl;
         m_escidocSearchBaseURL = searchBaseUrl;
-        saxParserFactory = SAXParserFactory.newInstance();
-        saxParserFactory.setValidating(false);
-        saxParserFactory.setNamespaceAware(true);
-        EscidocConnector.init(m_escidocBaseURL, m_escidocSearchBaseURL);
+        this.parserPool = parserPool;
+        this.connector = connector;
     }
 
-    public Date latestRecordDate() throws RepositoryException {
+    /**
+     * @return the connector used for all requests
+     */
+    public EscidocConnector getConnector() {
+        return connector;
+    }
 
-        GetMethod getWithLmd = EscidocConnector.requestSearchLmdQuery();
-        InputStream inputLmd = null;
-        try {
-            inputLmd = getWithLmd.getResponseBodyAsStream();
-        }
-        catch (IOException e1) {
-            logger.error(e1);
-            throw new RepositoryException(e1.getMessage(), e1);
-        }
-        logger.debug("getting latest record date");
-        AllRecordMetadataHandler dh =
-            new AllRecordMetadataHandler(m_namespace_identifier, null, this,
-                null);
-        SAXParser parser = null;
+    /**
+     * Configures the record lists built by listRecords.
+     * 
+     * @param spillDir
+     *            directory of the files big lists spill to, null for the
+     *            default temporary directory
+     * @param memoryThreshold
+     *            number of stored bytes a list may keep in memory
+     * @param compress
+     *            whether to compress the lists
+     */
+    public void setRecordListOptions(
+        File spillDir, long memoryThreshold, boolean compress) {
+        this.recordListSpillDir = spillDir;
+        this.recordListMemoryThreshold = memoryThreshold;
+        this.recordListCompress = compress;
+    }
+
+    /**
+     * Configures the checkpoints and retries of listRecords harvests.
+     * 
+     * @param checkpointDir
+     *            directory of the checkpoints of unfinished harvests, null to
+     *            disable checkpoints
+     * @param pageRetries
+     *            number of retries of a failed search result page
+     * @param pageRetryDelay
+     *            milliseconds to wait before the first retry
+     */
+    public void setHarvestOptions(
+        File checkpointDir, int pageRetries, long pageRetryDelay) {
+        this.harvestCheckpointDir = checkpointDir;
+        this.pageRetries = pageRetries;
+        this.pageRetryDelay = pageRetryDelay;
+    }
+
+    /**
+     * Makes listRecords serve all formats from a single scan per window.
+     * 
+     * @param sharedEnumeration
+     *            keeps the scanned windows, null to scan per format
+     * @param recordSchema
+     *            record schema of the shared scan, which must make the search
+     *            service embed the md-records
+     * @param payloadNames
+     *            names of the md-records of the formats which take their
+     *            content from the search results
+     */
+    public void setSharedEnumeration(
+        SharedEnumeration sharedEnumeration, String recordSchema,
+        Collection<String> payloadNames) {
+        this.sharedEnumeration = sharedEnumeration;
+        this.sharedRecordSchema = recordSchema;
+        this.sharedPayloadNames = payloadNames;
+    }
+
+    /**
+     * Configures the retrieval of the ou and context lists by listSetInfo.
+     * 
+     * @param pageSize
+     *            number of ous or contexts per request
+     * @param executor
+     *            runs the requests in parallel, null to run them one after
+     *            the other when the sets are needed
+     * @param prefetchPages
+     *            maximum number of pages requested ahead of the sets being
+     *            delivered
+     */
+    public void setSetInfoOptions(
+        int pageSize, ExecutorService executor, int prefetchPages) {
+        this.setPageSize = pageSize;
+        this.setExecutor = executor;
+        this.setPrefetchPages = prefetchPages;
+    }
+
+    /**
+     * @return the cache of the serialized sets listed by listSetInfo
+     */
+    public SetFragmentCache getSetFragmentCache() {
+        return setFragments;
+    }
+
+    /**
+     * @param ouAncestors
+     *            whether records are also members of the sets of all ancestors
+     *            of their ous
+     */
+    public void setOuAncestors(boolean ouAncestors) {
+        this.ouAncestors = ouAncestors;
+    }
+
+    /**
+     * @return the ancestors of the ous, or null if no listSetInfo retrieved
+     *         the whole ou list yet
+     */
+    public OuAncestryIndex getOuAncestry() {
+        return ouAncestry;
+    }
 
+    public Date latestRecordDate() throws RepositoryException {
+        logger.debug("getting latest record date");
+        GetMethod getWithLmd = connector.requestSearchLmdQuery();
+        String lmd = null;
+        SearchResultReader reader = openSearchResult(getWithLmd, null);
         try {
-            parser = saxParserFactory.newSAXParser();
-        }
-        catch (ParserConfigurationException e) {
-            logger.error(e);
-            throw new RepositoryException(e.getMessage(), e);
+            while (reader.nextRecord()) {
+                lmd = reader.getRecord().getLastModificationDate();
+            }
         }
-        catch (SAXException e) {
-            logger.error(e);
-            throw new RepositoryException(e.getMessage(), e);
+        finally {
+            closeSearchResult(getWithLmd, reader);
         }
+        return DateUtility.convertStringToDate(lmd);
+
+    }
+
+    /**
+     * Counts the items and containers modified after the provided date.
+     */
+    public int countChangesSince(Date from) throws RepositoryException {
+        GetMethod get =
+            connector.requestSearchCountQuery(convertDateToString(from));
+        SearchResultReader reader = openSearchResult(get, null);
         try {
-            parser.parse(inputLmd, dh);
-            getWithLmd.releaseConnection();
-        }
-        catch (SAXException e) {
-            logger.error(e);
-            throw new RepositoryException(e.getMessage(), e);
+            while (reader.nextRecord()) {
+                // a count query has no records
+            }
+            if (reader.getNumberOfRecords() == -1) {
+                throw new RepositoryException(
+                    "Search response contains no numberOfRecords");
+            }
+            return reader.getNumberOfRecords();
         }
-        catch (IOException e) {
-            logger.error(e);
-            throw new RepositoryException(e.getMessage(), e);
+        finally {
+            closeSearchResult(get, reader);
         }
-        String lmd = dh.getLastModificationDate();
-        return DateUtility.convertStringToDate(lmd);
-
     }
 
     public RemoteIterator<EscidocRecord> listRecords(
-        Date from, Date until, EscidocMetadataFormat format,
-        Set<String> newSetSpecs) throws RepositoryException {
-        String fromString = convertDateToString(new Date(from.getTime() - 1));
-        String untilString = convertDateToString(new Date(until.getTime() + 1));
-        String mdRecordName = format.getDissemination();
-        String mdUri = format.getNamespaceURI();
-
-        Set<String> userDefinedSetKeys = this.setDefinitions.keySet();
+        Date from, Date until, final EscidocMetadataFormat format,
+        Set<String> newSetSpecs, RecordListListener listener)
+        throws RepositoryException {
+        Set<String> userDefinedSetKeys = this.userDefinedSets.getSetSpecs();
         Iterator<String> it = userDefinedSetKeys.iterator();
         Vector<String> oldSetSpecs = new Vector<String>();
         while (it.hasNext()) {
@@ -138,249 +298,365 @@ public class EscidocQueryFactory implements Constants {
                 oldSetSpecs.add(setSpez);
             }
         }
-        File tempFile = null;
-        OutputStream fos = null;
+        final RecordListWriter writer =
+            new RecordListWriter(m_namespace_identifier, oldSetSpecs, this,
+                recordListSpillDir, recordListMemoryThreshold,
+                recordListCompress);
+        if (ouAncestors) {
+            // built by listSetInfo only, the records of windows harvested
+            // before are no members of the sets of the ancestors
+            OuAncestryIndex ancestry = getOuAncestry();
+            if (ancestry == null) {
+                logger.info("No OU ancestry index yet, " + format.getPrefix()
+                    + " records are written without the sets of ancestor ous");
+            }
+            writer.setOuAncestry(ancestry);
+        }
+        RecordsReader reader;
         try {
-            tempFile = File.createTempFile("oaiprovider_record_list", ".tmp");
-            tempFile.deleteOnExit(); // just in case
-            fos = new FileOutputStream(tempFile);
+            if (sharedEnumeration != null) {
+                readSharedWindow(from, until, format, writer);
+            }
+            else {
+                Collection<String> payloadNames = null;
+                if (format.isSearchEmbedded()) {
+                    payloadNames =
+                        Collections.singleton(format.getDissemination());
+                }
+                harvest(format.getPrefix(), from, until, format,
+                    payloadNames, writer);
+            }
+            reader = new RecordsReader(writer.close());
         }
-        catch (IOException e) {
-            throw new RepositoryException(
-                "Error creating temp record list file", e);
+        catch (RuntimeException e) {
+            writer.abort();
+            throw e;
         }
-        PrintWriter out = new PrintWriter(new OutputStreamWriter(fos));
+        return new EscidocResourceIterator(format, reader, listener);
 
-        GetMethod getWithInputReleased = null;
-        if (!format.getDissemination().equals("DC")) {
-            getWithInputReleased =
-                EscidocConnector.requestSearchQueryReleased(mdRecordName,
-                    mdUri, fromString, untilString, "1");
-        }
-        else {
-            getWithInputReleased =
-                EscidocConnector.requestSearchQueryDcReleased(fromString,
-                    untilString, "1");
-        }
-        InputStream inputReleased = null;
+    }
+
+    /**
+     * Writes the records of the format from the shared scan of the window,
+     * scanning the window first if no other format did so yet.
+     */
+    private void readSharedWindow(
+        final Date from, final Date until, EscidocMetadataFormat format,
+        final RecordListWriter writer) throws RepositoryException {
+        SharedEnumeration.Window window =
+            sharedEnumeration.acquire(from, until,
+                new SharedEnumeration.Loader() {
+                    public void load(SearchRecordSink sink)
+                        throws RepositoryException {
+                        harvest(SHARED_HARVEST, from, until, null,
+                            sharedPayloadNames, sink);
+                    }
+                });
         try {
-            inputReleased = getWithInputReleased.getResponseBodyAsStream();
+            final boolean dc = format.getDissemination().equals("DC");
+            final String identifier =
+                format.getDissemination() + "@" + format.getNamespaceURI();
+            final String payloadName =
+                format.isSearchEmbedded() ? format.getDissemination() : null;
+            window.replay(new SearchRecordSink() {
+                public void write(SearchRecord record)
+                    throws RepositoryException {
+                    List<String> identifiers = record.getMdRecordIdentifiers();
+                    if (dc || identifiers.contains(identifier)) {
+                        writer.write(record, payloadName == null ? null
+                            : record.getPayload(payloadName));
+                    }
+                }
+            });
         }
-        catch (IOException e1) {
-            logger.error(e1);
-            throw new RepositoryException(e1.getMessage(), e1);
+        finally {
+            sharedEnumeration.release(window);
         }
+    }
 
-        AllRecordMetadataHandler dh =
-            new AllRecordMetadataHandler(m_namespace_identifier, oldSetSpecs,
-                this, out);
-
-        SAXParser parser = null;
+    /**
+     * Reads all pages of the released and withdrawn search queries of a
+     * window into the sink, continuing an earlier harvest with the same key
+     * if checkpoints are enabled.
+     * 
+     * @param key
+     *            the prefix of the harvested format, which keys its checkpoint
+     * @param format
+     *            the harvested format, or null to scan without format filter
+     * @param payloadNames
+     *            names of the md-records to read as payloads, may be null
+     */
+    private void harvest(
+        String key, Date from, Date until, EscidocMetadataFormat format,
+        Collection<String> payloadNames, SearchRecordSink sink)
+        throws RepositoryException {
+        HarvestCheckpoint checkpoint = null;
+        List<HarvestCheckpoint.Scan> scans;
+        if (harvestCheckpointDir != null) {
+            checkpoint =
+                HarvestCheckpoint.open(harvestCheckpointDir, key, from, until);
+            scans = checkpoint.getScans();
+        }
+        else {
+            scans = HarvestCheckpoint.scans(from, until);
+        }
 
+        // read all pages of the search query result for released resources,
+        // then all pages of the search query result for withdrawn resources
         try {
-            parser = saxParserFactory.newSAXParser();
+            int first = 0;
+            while (first < scans.size() && scans.get(first).isComplete()) {
+                first++;
+            }
+            SearchPage pending = null;
+            if (first < scans.size() && scans.get(first).getNextRecord() > 1) {
+                // the positions of the remaining pages are only valid if
+                // the number of records did not change since the checkpoint
+                HarvestCheckpoint.Scan scan = scans.get(first);
+                pending =
+                    readPage(scanQuery(scan, format), scan.getNextRecord(),
+                        payloadNames);
+                if (pending.numberOfRecords != scan.getNumberOfRecords()) {
+                    checkpoint.restart(scan);
+                    pending = null;
+                }
+            }
+            if (checkpoint != null) {
+                checkpoint.replay(sink);
+            }
+            for (int i = first; i < scans.size(); i++) {
+                HarvestCheckpoint.Scan scan = scans.get(i);
+                SearchQuery query = scanQuery(scan, format);
+                int nextRecord = scan.getNextRecord();
+                while (nextRecord != -1) {
+                    SearchPage page = pending;
+                    pending = null;
+                    if (page == null) {
+                        page = readPage(query, nextRecord, payloadNames);
+                    }
+                    for (int j = 0; j < page.records.size(); j++) {
+                        SearchRecord record = page.records.get(j);
+                        sink.write(record);
+                        if (checkpoint != null) {
+                            checkpoint.record(record);
+                        }
+                    }
+                    nextRecord = page.nextRecord;
+                    if (checkpoint != null) {
+                        checkpoint.pageCompleted(scan, nextRecord,
+                            page.numberOfRecords);
+                    }
+                }
+            }
         }
-        catch (ParserConfigurationException e) {
-            logger.error(e);
-            throw new RepositoryException(e.getMessage(), e);
+        catch (RuntimeException e) {
+            if (checkpoint != null) {
+                checkpoint.close();
+            }
+            throw e;
         }
-        catch (SAXException e) {
-            logger.error(e);
-            throw new RepositoryException(e.getMessage(), e);
+        if (checkpoint != null) {
+            checkpoint.delete();
         }
-        try {
-            // parse all pages of search query result for released resources,
-            // then parse all pages of search query result for withdrawn
-            // resources
-            // put all fetched data into a common Map
-
-            parser.parse(inputReleased, dh);
-            getWithInputReleased.releaseConnection();
-            inputReleased.close();
-            while (!dh.isFinished()) {
-                String nextRecord = dh.nextRecord();
-                if (!format.getDissemination().equals("DC")) {
-                    getWithInputReleased =
-                        EscidocConnector.requestSearchQueryReleased(
-                            mdRecordName, mdUri, fromString, untilString,
-                            nextRecord);
+    }
+
+    /**
+     * Creates the search query of a scan of a listRecords harvest.
+     * 
+     * @param format
+     *            the harvested format, or null for the query of the shared
+     *            scan, which has no md-record filter
+     */
+    private SearchQuery scanQuery(
+        HarvestCheckpoint.Scan scan, EscidocMetadataFormat format) {
+        final boolean withdrawn = scan.isWithdrawn();
+        final String fromString = convertDateToString(scan.getAfter());
+        final String untilString = convertDateToString(scan.getUntil());
+        final String mdRecordName =
+            format == null ? null : format.getDissemination();
+        final String mdUri = format == null ? null : format.getNamespaceURI();
+        final String recordSchema =
+            format == null ? sharedRecordSchema : format.getRecordSchema();
+        final boolean dc =
+            format == null || format.getDissemination().equals("DC");
+        return new SearchQuery() {
+            public GetMethod requestPage(String startRecord)
+                throws RepositoryException {
+                if (dc && withdrawn) {
+                    return connector.requestSearchQueryDcWithdrawn(
+                        fromString, untilString, startRecord, recordSchema);
+                }
+                if (dc) {
+                    return connector.requestSearchQueryDcReleased(
+                        fromString, untilString, startRecord, recordSchema);
                 }
-                else {
-                    getWithInputReleased =
-                        EscidocConnector.requestSearchQueryDcReleased(
-                            fromString, untilString, nextRecord);
+                if (withdrawn) {
+                    return connector.requestSearchQueryWithdrawn(
+                        mdRecordName, mdUri, fromString, untilString,
+                        startRecord, recordSchema);
                 }
-                inputReleased = getWithInputReleased.getResponseBodyAsStream();
-                dh.resetRecordsNumber();
-                parser.parse(inputReleased, dh);
-                getWithInputReleased.releaseConnection();
-                inputReleased.close();
+                return connector.requestSearchQueryReleased(
+                    mdRecordName, mdUri, fromString, untilString, startRecord,
+                    recordSchema);
             }
-            GetMethod getWithInputWithdrawn = null;
-            if (!format.getDissemination().equals("DC")) {
-                getWithInputWithdrawn =
-                    EscidocConnector.requestSearchQueryWithdrawn(mdRecordName,
-                        mdUri, fromString, untilString, "1");
+        };
+    }
+
+    public Vector<String> retrieveIdsForSetQuery(
+        String setSpecification, final String setQuery)
+        throws RepositoryException {
+        final String oaiIdPrefix = "oai:" + m_namespace_identifier + ":";
+        final Vector<String> resourceIds = new Vector<String>();
+        readSearchResult(new SearchQuery() {
+            public GetMethod requestPage(String startRecord)
+                throws RepositoryException {
+                return connector.requestSearchFilterQuery(setQuery,
+                    startRecord);
             }
-            else {
-                getWithInputWithdrawn =
-                    EscidocConnector.requestSearchQueryDcWithdrawn(fromString,
-                        untilString, "1");
+        }, new SearchRecordSink() {
+            public void write(SearchRecord record) {
+                resourceIds.add(oaiIdPrefix + record.getId());
             }
-            InputStream inputWithdrawn = null;
-            try {
-                inputWithdrawn =
-                    getWithInputWithdrawn.getResponseBodyAsStream();
+        });
+        return resourceIds;
+
+    }
+
+    /**
+     * Requests a page of a paged search query.
+     */
+    private interface SearchQuery {
+        GetMethod requestPage(String startRecord) throws RepositoryException;
+    }
+
+    /**
+     * The records of a page of a search query result.
+     */
+    private static final class SearchPage {
+        private final List<SearchRecord> records =
+            new ArrayList<SearchRecord>();
+
+        private int numberOfRecords;
+
+        private int nextRecord;
+    }
+
+    /**
+     * Reads all pages of a search query result and passes each record to the
+     * sink.
+     */
+    private void readSearchResult(SearchQuery query, SearchRecordSink sink)
+        throws RepositoryException {
+        int nextRecord = 1;
+        while (nextRecord != -1) {
+            SearchPage page = readPage(query, nextRecord, null);
+            for (int i = 0; i < page.records.size(); i++) {
+                sink.write(page.records.get(i));
             }
-            catch (IOException e1) {
-                logger.error(e1);
-                throw new RepositoryException(e1.getMessage(), e1);
+            nextRecord = page.nextRecord;
+        }
+    }
+
+    /**
+     * Reads a page of a search query result. A failed request or response is
+     * retried up to pageRetries times, waiting twice as long before each
+     * further attempt.
+     */
+    private SearchPage readPage(
+        SearchQuery query, int startRecord, Collection<String> payloadNames)
+        throws RepositoryException {
+        long delay = pageRetryDelay;
+        for (int attempt = 0;; attempt++) {
+            try {
+                return readPageOnce(query, startRecord, payloadNames);
             }
-            dh.resetRecordsNumber();
-            parser.parse(inputWithdrawn, dh);
-            getWithInputWithdrawn.releaseConnection();
-            inputWithdrawn.close();
-            while (!dh.isFinished()) {
-                String nextRecord = dh.nextRecord();
-                if (!format.getDissemination().equals("DC")) {
-                    getWithInputWithdrawn =
-                        EscidocConnector.requestSearchQueryWithdrawn(
-                            mdRecordName, mdUri, fromString, untilString,
-                            nextRecord);
-                }
-                else {
-                    getWithInputWithdrawn =
-                        EscidocConnector.requestSearchQueryDcWithdrawn(
-                            fromString, untilString, nextRecord);
+            catch (RepositoryException e) {
+                if (attempt >= pageRetries) {
+                    throw e;
                 }
-                inputWithdrawn =
-                    getWithInputWithdrawn.getResponseBodyAsStream();
-                dh.resetRecordsNumber();
-                parser.parse(inputWithdrawn, dh);
-                getWithInputWithdrawn.releaseConnection();
-                inputWithdrawn.close();
+                logger.warn("Reading search result page at " + startRecord
+                    + " failed, retrying in " + delay + " ms", e);
             }
-            out.close();
-        }
-        catch (SAXException e) {
-            logger.error(e);
-            throw new RepositoryException(e.getMessage(), e);
-        }
-        catch (IOException e) {
-            logger.error(e);
-            throw new RepositoryException(e.getMessage(), e);
+            try {
+                Thread.sleep(delay);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RepositoryException(
+                    "Interrupted while waiting to retry search result page", e);
+            }
+            delay = Math.min(delay * 2, MAX_PAGE_RETRY_DELAY);
         }
-        try {
-            RecordsReader reader = new RecordsReader(tempFile, true);
-            return new EscidocResourceIterator(format, reader);
+    }
 
+    private SearchPage readPageOnce(
+        SearchQuery query, int startRecord, Collection<String> payloadNames)
+        throws RepositoryException {
+        GetMethod get = query.requestPage(String.valueOf(startRecord));
+        SearchResultReader reader = openSearchResult(get, payloadNames);
+        try {
+            SearchPage page = new SearchPage();
+            while (reader.nextRecord()) {
+                page.records.add(reader.getRecord().copy());
+            }
+            page.numberOfRecords = reader.getNumberOfRecords();
+            page.nextRecord = reader.getNextRecordPosition();
+            return page;
         }
-        catch (FileNotFoundException e) {
-            throw new RepositoryException(
-                "Programmer error?  Search queries result " + "file not found!");
+        finally {
+            closeSearchResult(get, reader);
         }
-
     }
 
-    public Vector<String> retrieveIdsForSetQuery(
-        String setSpecification, String setQuery) throws RepositoryException {
-        SetMembersIdsHandler dh =
-            new SetMembersIdsHandler(m_namespace_identifier);
-
-        GetMethod getWithInputMemberIds =
-            EscidocConnector.requestSearchFilterQuery(setQuery, "1");
-
-        InputStream inputMemberIds = null;
+    /**
+     * Parses the response of a request with a pooled parser and releases the
+     * connection.
+     * 
+     * @param path
+     *            name of the calling code path, used for the parser pool
+     *            statistics
+     */
+    private void parsePage(String path, GetMethod get, DefaultHandler handler)
+        throws RepositoryException {
         try {
-            inputMemberIds = getWithInputMemberIds.getResponseBodyAsStream();
+            parserPool.parse(path, get.getResponseBodyAsStream(), handler);
         }
         catch (IOException e) {
             logger.error(e);
             throw new RepositoryException(e.getMessage(), e);
-
         }
+        finally {
+            get.releaseConnection();
+        }
+    }
 
-        SAXParser parser = null;
+    private SearchResultReader openSearchResult(
+        GetMethod get, Collection<String> payloadNames)
+        throws RepositoryException {
         try {
-            parser = saxParserFactory.newSAXParser();
-            parser.parse(inputMemberIds, dh);
-            getWithInputMemberIds.releaseConnection();
-            inputMemberIds.close();
-            while (!dh.isFinished()) {
-                String nextRecord = dh.nextRecord();
-                getWithInputMemberIds =
-                    EscidocConnector.requestSearchFilterQuery(setQuery,
-                        nextRecord);
-                inputMemberIds =
-                    getWithInputMemberIds.getResponseBodyAsStream();
-                parser.parse(inputMemberIds, dh);
-                dh.resetRecordsNumber();
-                getWithInputMemberIds.releaseConnection();
-                inputMemberIds.close();
-            }
-
-        }
-        catch (SAXException e) {
-            logger.error(e);
-            throw new RepositoryException(e.getMessage(), e);
+            return new SearchResultReader(get.getResponseBodyAsStream(),
+                payloadNames);
         }
         catch (IOException e) {
+            get.releaseConnection();
             logger.error(e);
             throw new RepositoryException(e.getMessage(), e);
         }
-        catch (ParserConfigurationException e) {
-            logger.error(e);
-            throw new RepositoryException(e.getMessage(), e);
-        }
-        Vector<String> resourceIds = dh.getIds();
-
-        return resourceIds;
+    }
 
+    private void closeSearchResult(GetMethod get, SearchResultReader reader) {
+        reader.close();
+        get.releaseConnection();
     }
 
     public Vector<String> retrieveIdsForSetQuery(String setSpecification)
         throws RepositoryException {
-        return this.searchHitLists.get(setSpecification);
+        return this.userDefinedSets.getResourceIds(setSpecification);
     }
 
     public String retrieveIndentity() throws RepositoryException {
-        GetMethod getWithIdentify = EscidocConnector.requestIdentify();
-        InputStream inputIdentify = null;
-        try {
-            inputIdentify = getWithIdentify.getResponseBodyAsStream();
-        }
-        catch (IOException e) {
-            logger.error(e);
-            throw new RepositoryException(e.getMessage(), e);
-
-        }
-        
-        SAXParser parser = null;
         IdentifyHandler ih = new IdentifyHandler();
-        try {
-            parser = this.saxParserFactory.newSAXParser();
-        }
-        catch (ParserConfigurationException e1) {
-            logger.error(e1);
-            throw new RepositoryException(e1.getMessage(), e1);
-        }
-        catch (SAXException e1) {
-            logger.error(e1);
-            throw new RepositoryException(e1.getMessage(), e1);
-        }
-        try {
-            parser.parse(inputIdentify, ih);
-            getWithIdentify.releaseConnection();
-            inputIdentify.close();
-        }
-        catch (SAXException e1) {
-            logger.error(e1);
-            throw new RepositoryException(e1.getMessage(), e1);
-        }
-        catch (IOException e1) {
-            logger.error(e1);
-            throw new RepositoryException(e1.getMessage(), e1);
-        }
+        parsePage("retrieveIdentity", connector.requestIdentify(), ih);
         String repositoryName = ih.getName();
         String adminEmail = ih.getEmail();
         String earliestDate = ih.getEarliestDate();
@@ -436,179 +712,120 @@ public class EscidocQueryFactory implements Constants {
 
     public RemoteIterator<SetInfo> listSetInfo() throws RepositoryException {
 
-        GetMethod getWithInputOuList =
-            EscidocConnector.requestRetrieveOrganizationalUnits("0");
-        OuOrContextListHandler listHandler = new OuOrContextListHandler();
-        InputStream inputOuList;
-        try {
-            inputOuList = getWithInputOuList.getResponseBodyAsStream();
-        }
-        catch (IOException e1) {
-            logger.error(e1);
-            throw new RepositoryException(e1.getMessage(), e1);
-        }
-
-        SAXParser parser = null;
+        // the sets of the ou list, then those of the context list and then
+        // the user defined sets are delivered while further pages are
+        // retrieved in the background
+        return setFragments.retainListed(new StreamingSetInfoIterator(
+            new StreamingSetInfoIterator.PageSource() {
+                private final OuAncestryIndex.Builder ancestry =
+                    new OuAncestryIndex.Builder();
+
+                public void pageRetrieved(
+                    boolean contexts, OuOrContextListHandler page) {
+                    if (!contexts) {
+                        ancestry.add(page.getOuParents());
+                    }
+                }
 
-        Vector<SetInfo> setInfos = null;
+                public void listRetrieved(boolean contexts) {
+                    if (!contexts) {
+                        ouAncestry = ancestry.build();
+                        logger.debug("OU ancestry index of "
+                            + ouAncestry.size() + " ous built");
+                    }
+                }
 
-        try {
-            parser = this.saxParserFactory.newSAXParser();
-        }
-        catch (ParserConfigurationException e1) {
-            logger.error(e1);
-            throw new RepositoryException(e1.getMessage(), e1);
-        }
-        catch (SAXException e1) {
-            logger.error(e1);
-            throw new RepositoryException(e1.getMessage(), e1);
-        }
-        try {
-            // parse all pages of ou list query result
-            // then parse all pages of context list query result
-            // put all fetched data into a common Map
-
-            parser.parse(inputOuList, listHandler);
-            getWithInputOuList.releaseConnection();
-            inputOuList.close();
-            while (!listHandler.isOuListFinished()) {
-                String offset = listHandler.nextOuNumber();
-                getWithInputOuList =
-                    EscidocConnector.requestRetrieveOrganizationalUnits(offset);
-                inputOuList = getWithInputOuList.getResponseBodyAsStream();
-                parser.parse(inputOuList, listHandler);
-                getWithInputOuList.releaseConnection();
-                inputOuList.close();
+                public Future<OuOrContextListHandler> submitPage(
+                    boolean contexts, int page) {
+                    return submitSetPage(contexts, page);
+                }
 
-            }
-            GetMethod getWithInputContextList =
-                EscidocConnector.requestRetrieveContexts("0");
-            InputStream inputContextList;
-            try {
-                inputContextList =
-                    getWithInputContextList.getResponseBodyAsStream();
-            }
-            catch (IOException e1) {
-                logger.error(e1);
-                throw new RepositoryException(e1.getMessage(), e1);
-            }
-            parser.parse(inputContextList, listHandler);
-
-            getWithInputContextList.releaseConnection();
-            inputContextList.close();
-            while (!listHandler.isContextListFinished()) {
-                String offset = listHandler.nextContextNumber();
-                getWithInputContextList =
-                    EscidocConnector.requestRetrieveContexts(offset);
-                inputContextList =
-                    getWithInputContextList.getResponseBodyAsStream();
-                parser.parse(inputContextList, listHandler);
-                getWithInputContextList.releaseConnection();
-                inputContextList.close();
-            }
-            setInfos = listHandler.getData();
+                public int getPageSize() {
+                    return setPageSize;
+                }
 
-        }
-        catch (SAXException e1) {
-            logger.error(e1);
-            throw new RepositoryException(e1.getMessage(), e1);
-        }
-        catch (IOException e1) {
-            logger.error(e1);
-            throw new RepositoryException(e1.getMessage(), e1);
-        }
-        HashMap<String, SetInfo> expliciteSetInfosMap =
-            retrieveUserDefinedSetList(false);
-        Collection<SetInfo> expliciteSetInfos = expliciteSetInfosMap.values();
-        setInfos.addAll(expliciteSetInfos);
-        return new EscidocSetInfoIterator(setInfos);
+                public Collection<SetInfo> getUserDefinedSets()
+                    throws RepositoryException {
+                    return retrieveUserDefinedSetList(false).values();
+                }
+            }, setExecutor == null ? 0 : setPrefetchPages));
 
     }
 
-    public HashMap<String, SetInfo> retrieveUserDefinedSetList(
-        boolean updateStart) throws RepositoryException {
-        if (updateStart) {
-            GetMethod getWithInputSetDefinitions = null;
-            getWithInputSetDefinitions =
-                EscidocConnector.requestRetrieveSetDefinitions("0");
-
-            InputStream inputSetDefinitions = null;
-            try {
-                inputSetDefinitions =
-                    getWithInputSetDefinitions.getResponseBodyAsStream();
-            }
-            catch (IOException e1) {
-                logger.error(e1);
-                throw new RepositoryException(e1.getMessage(), e1);
-            }
-
-            SetDefinitionsHandler sdh = new SetDefinitionsHandler();
-
-            SAXParser parser = null;
-            try {
-                parser = saxParserFactory.newSAXParser();
-
-            }
-            catch (ParserConfigurationException e) {
-                logger.error(e);
-                throw new RepositoryException(e.getMessage(), e);
-            }
-            catch (SAXException e) {
-                logger.error(e);
-                throw new RepositoryException(e.getMessage(), e);
-            }
-
-            try {
-                parser.parse(inputSetDefinitions, sdh);
-                getWithInputSetDefinitions.releaseConnection();
-                inputSetDefinitions.close();
-                int offset = 0;
-                while (sdh.getRecordNumber() == 100) {
-                    sdh.resetRecordsNumber();
-                    offset = offset + 100;
-                    getWithInputSetDefinitions =
-                        EscidocConnector.requestRetrieveSetDefinitions(String
-                            .valueOf(offset));
-                    inputSetDefinitions =
-                        getWithInputSetDefinitions.getResponseBodyAsStream();
-                    parser.parse(inputSetDefinitions, sdh);
-                    getWithInputSetDefinitions.releaseConnection();
-                    inputSetDefinitions.close();
-
+    /**
+     * Retrieves a page of the ou or context list with the set executor, or
+     * directly if there is none.
+     */
+    private Future<OuOrContextListHandler> submitSetPage(
+        final boolean contexts, int page) {
+        final String offset =
+            page == 0 ? "0" : String.valueOf(page * setPageSize + 1);
+        Callable<OuOrContextListHandler> task =
+            new Callable<OuOrContextListHandler>() {
+                public OuOrContextListHandler call()
+                    throws RepositoryException {
+                    OuOrContextListHandler handler =
+                        new OuOrContextListHandler(setFragments);
+                    if (contexts) {
+                        parsePage("listSetInfo.contexts", connector
+                            .requestRetrieveContexts(offset, setPageSize),
+                            handler);
+                    }
+                    else {
+                        parsePage("listSetInfo.organizationalUnits",
+                            connector.requestRetrieveOrganizationalUnits(
+                                offset, setPageSize), handler);
+                    }
+                    return handler;
                 }
-            }
-            catch (SAXException e) {
-                logger.error(e);
-                throw new RepositoryException(e.getMessage(), e);
-            }
-            catch (IOException e) {
-                logger.error(e);
-                throw new RepositoryException(e.getMessage(), e);
-            }
-
-            HashMap<String, EscidocSetInfo> escidocSetDefinitions =
-                sdh.getData();
-
-            this.searchHitLists = new HashMap<String, Vector<String>>();
-            Set<String> keys = escidocSetDefinitions.keySet();
-            Iterator<String> it = keys.iterator();
-            while (it.hasNext()) {
-                String setSpec = it.next();
-                EscidocSetInfo escidocSet = escidocSetDefinitions.get(setSpec);
-                SetInfo set = escidocSet;
-                this.setDefinitions.put(setSpec, set);
-                String setQuery = escidocSet.getSetQuery();
-                Vector<String> resourceIds =
-                    retrieveIdsForSetQuery(setSpec, setQuery);
-                this.searchHitLists.put(setSpec, resourceIds);
-            }
-        }
-        else {
-            return this.setDefinitions;
-        }
-
-        return this.setDefinitions;
+            };
+        if (setExecutor != null) {
+            return setExecutor.submit(task);
+        }
+        FutureTask<OuOrContextListHandler> direct =
+            new FutureTask<OuOrContextListHandler>(task);
+        direct.run();
+        return direct;
+    }
 
+    /**
+     * @param updateStart
+     *            whether the sets are retrieved again, replacing the current
+     *            snapshot once all of them and their resources were retrieved
+     * @return the user defined sets by set spec, unmodifiable
+     */
+    public Map<String, SetInfo> retrieveUserDefinedSetList(
+        boolean updateStart) throws RepositoryException {
+        if (!updateStart) {
+            return this.userDefinedSets.getDefinitions();
+        }
+        SetDefinitionsHandler sdh = new SetDefinitionsHandler(setFragments);
+        parsePage("retrieveUserDefinedSetList",
+            connector.requestRetrieveSetDefinitions("0"), sdh);
+        int offset = 0;
+        while (sdh.getRecordNumber() == 100) {
+            sdh.resetRecordsNumber();
+            offset = offset + 100;
+            parsePage("retrieveUserDefinedSetList", connector
+                .requestRetrieveSetDefinitions(String.valueOf(offset)), sdh);
+        }
+
+        HashMap<String, EscidocSetInfo> escidocSetDefinitions = sdh.getData();
+
+        Map<String, SetInfo> definitions = new HashMap<String, SetInfo>();
+        Map<String, Vector<String>> resourceIds =
+            new HashMap<String, Vector<String>>();
+        Iterator<String> it = escidocSetDefinitions.keySet().iterator();
+        while (it.hasNext()) {
+            String setSpec = it.next();
+            EscidocSetInfo escidocSet = escidocSetDefinitions.get(setSpec);
+            definitions.put(setSpec, escidocSet);
+            resourceIds.put(setSpec, retrieveIdsForSetQuery(setSpec,
+                escidocSet.getSetQuery()));
+        }
+        UserDefinedSets sets = new UserDefinedSets(definitions, resourceIds);
+        this.userDefinedSets = sets;
+        return sets.getDefinitions();
     }
 
     /**
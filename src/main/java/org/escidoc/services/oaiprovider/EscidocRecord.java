@@ -19,8 +19,17 @@ public class EscidocRecord
     private String m_mdPrefix;
 
     private String m_sourceInfo;
-    
-    
+
+    private String m_resourceId;
+
+    private String m_recordDiss;
+
+    private String m_resourceType;
+
+    private boolean m_deleted;
+
+    private String m_payload;
+
     public EscidocRecord(String itemID,
                         String resourceId,
                         String mdPrefix,
@@ -33,6 +42,10 @@ public class EscidocRecord
 
         m_itemID = itemID;
         m_mdPrefix = mdPrefix;
+        m_resourceId = resourceId;
+        m_recordDiss = recordDiss;
+        m_resourceType = resourceType;
+        m_deleted = deleted;
         StringBuffer buf = new StringBuffer();
         buf.append(resourceId);
         buf.append(" " + recordDiss);
@@ -59,6 +72,34 @@ public class EscidocRecord
         return m_mdPrefix;
     }
 
+    public String getResourceId() {
+        return m_resourceId;
+    }
+
+    public String getDissemination() {
+        return m_recordDiss;
+    }
+
+    public String getResourceType() {
+        return m_resourceType;
+    }
+
+    public boolean isDeleted() {
+        return m_deleted;
+    }
+
+    /**
+     * @return the content of the record embedded in the search result, or
+     *         null if it has to be retrieved
+     */
+    public String getPayload() {
+        return m_payload;
+    }
+
+    public void setPayload(String payload) {
+        m_payload = payload;
+    }
+
     public String getSourceInfo() {
         logger.debug("Returning source info line: " + m_sourceInfo);
         return m_sourceInfo;
@@ -13,29 +13,41 @@ public class EscidocResourceIterator
 
     private RecordsReader m_reader;
 
-    private String m_nextLine;
+    private EscidocRecord m_next;
 
     private final EscidocMetadataFormat format;
 
+    private final RecordListListener listener;
+
     public EscidocResourceIterator(EscidocMetadataFormat format,
         RecordsReader reader) {
+        this(format, reader, null);
+    }
+
+    public EscidocResourceIterator(EscidocMetadataFormat format,
+        RecordsReader reader, RecordListListener listener) {
         this.m_reader = reader;
         this.format = format;
-        m_nextLine = m_reader.readLine();
+        this.listener = listener;
+        m_next = m_reader.readRecord(format.getPrefix(),
+            format.getDissemination());
     }
 
     public boolean hasNext() {
-        return (m_nextLine != null);
+        return (m_next != null);
     }
 
     public EscidocRecord next() throws RepositoryException {
-        try {
-            return getRecord(m_nextLine);
-        }
-        finally {
-            if (m_nextLine != null)
-                m_nextLine = m_reader.readLine();
+        EscidocRecord record = m_next;
+        if (record != null) {
+            m_next =
+                m_reader.readRecord(format.getPrefix(),
+                    format.getDissemination());
+            if (listener != null) {
+                listener.recordListed(record);
+            }
         }
+        return record;
     }
 
     public void close() {
@@ -49,59 +61,6 @@ public class EscidocResourceIterator
         close();
     }
 
-    /**
-     * Construct a record given a line from the reader. 
-     */
-    private EscidocRecord getRecord(String line) throws RepositoryException {
-
-        logger.debug("Constructing record from search queries result line: "
-            + line);
-
-        String oai_id = null;
-        String resourceId = null;
-        String releaseDate = null;
-        String date = null;
-        String resourceType = null;
-        boolean deleted = false;
-        String recordDissemination = format.getDissemination();
-        String setSpecs = null;
-        String[] specs = null;
-
-        String[] parts = line.split(" ");
-        // parse the line into values for constructing an EscidocRecord
-        try {
-            if (parts.length < 6) {
-                throw new Exception(
-                    "Expected at least 6 space-separated values");
-            }
-            oai_id = parts[0];
-            resourceId = parts[1];
-            date = parts[2];
-            releaseDate = parts[3];
-
-            String _deleted = parts[4];
-            if (_deleted.equals("true")) {
-                deleted = true;
-            }
-            resourceType = parts[5];
-
-            if (parts.length == 7) {
-                setSpecs = parts[6];
-            }
-            specs = setSpecs.split(",");
-        }
-        catch (Exception e) {
-            throw new RepositoryException("Error parsing search queries "
-                + "results: " + e.getMessage() + ".  Input "
-                + "line was: " + line, e);
-        }
-
-        // if we got here, all the parameters were parsed correctly
-        return new EscidocRecord(oai_id, resourceId, format.getPrefix(),
-            recordDissemination, date, deleted, specs, releaseDate,
-            resourceType);
-    }
-
     public void remove() throws UnsupportedOperationException {
         throw new UnsupportedOperationException("remove() not supported");
     }
@@ -1,13 +1,15 @@
 package org.escidoc.services.oaiprovider;
 
 import java.io.PrintWriter;
+import java.io.StringWriter;
 
 import proai.SetInfo;
 import proai.error.RepositoryException;
 
 /**
  * SetInfo impl that includes setDescription elements for setDiss dissemination,
- * if provided + available.
+ * if provided + available. The serialized set is taken from a
+ * {@link SetFragmentCache}, so unchanged sets are not serialized again.
  */
 public class EscidocSetInfo
         implements SetInfo {
@@ -20,18 +22,28 @@ public class EscidocSetInfo
     private final String m_setDescription;
     
     private final String m_setQuery;
-    
+
+    private final SetFragmentCache m_fragments;
+
+    private SetFragmentCache.Fragment m_fragment;
 
  
+    /**
+     * @param fragments
+     *            the cache of the serialized sets of the listing the set
+     *            belongs to
+     */
     public EscidocSetInfo(String setSpec,
                          String setName,
                          String setDescription,
-                         String setQuery) {
+                         String setQuery,
+                         SetFragmentCache fragments) {
        
         m_setSpec = setSpec;
         m_setName = setName;
         m_setDescription = setDescription;
         m_setQuery = setQuery;
+        m_fragments = fragments;
     }
 
     public String getSetSpec() {
@@ -42,7 +54,44 @@ public class EscidocSetInfo
         return m_setQuery;
     }
 
+    /**
+     * @return a copy of the set with the prefix in front of its spec, which
+     *         is serialized through the provided cache
+     */
+    public EscidocSetInfo withSetSpecPrefix(String prefix,
+            SetFragmentCache fragments) {
+        return new EscidocSetInfo(prefix + m_setSpec, m_setName,
+                m_setDescription, m_setQuery, fragments);
+    }
+
+    /**
+     * @return the hash of the spec, name and description of the set
+     */
+    public long getContentHash() {
+        return getFragment().getHash();
+    }
+
     public void write(PrintWriter out) throws RepositoryException {
+        out.print(getFragment().getXml());
+    }
+
+    private synchronized SetFragmentCache.Fragment getFragment() {
+        if (m_fragment == null) {
+            m_fragment = m_fragments.get(m_setSpec, m_setName,
+                    m_setDescription, new SetFragmentCache.Serializer() {
+                        public String serialize() {
+                            StringWriter xml = new StringWriter();
+                            PrintWriter out = new PrintWriter(xml);
+                            serializeSet(out);
+                            out.flush();
+                            return xml.toString();
+                        }
+                    });
+        }
+        return m_fragment;
+    }
+
+    private void serializeSet(PrintWriter out) {
         out.println("<set>");
         out.println("  <setSpec>" + m_setSpec + "</setSpec>");
         out
@@ -52,7 +101,7 @@ public class EscidocSetInfo
         out.println("</set>");
     }
 
-    private void writeDescriptions(PrintWriter out) throws RepositoryException {
+    private void writeDescriptions(PrintWriter out) {
         if (this.m_setDescription != null && (this.m_setDescription.length() > 0)) {
             out.println("<setDescription>");
             out.println("<oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\"");
@@ -0,0 +1,488 @@
+package org.escidoc.services.oaiprovider;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import proai.MetadataFormat;
+import proai.Record;
+import proai.SetInfo;
+import proai.driver.OAIDriver;
+import proai.driver.RemoteIterator;
+import proai.driver.impl.RemoteIteratorImpl;
+import proai.error.RepositoryException;
+
+/**
+ * Serves several Escidoc instances through one OAI endpoint. Every backend
+ * is an {@link EscidocOAIDriver} with its own connections, configured by
+ * the driver.escidoc properties, overridden by the properties of the
+ * backend: driver.federated.backend.NAME.baseURL replaces
+ * driver.escidoc.baseURL for backend NAME, and so on.
+ * <p>
+ * listRecords, listSetInfo and getLatestDate query all backends in
+ * parallel; the results are delivered one backend after the other. If a
+ * backend fails, the whole request fails, so proai harvests the window
+ * again instead of missing the records of that backend.
+ * <p>
+ * getLatestDate is the latest date of all backends, which proai harvests up
+ * to and takes as the start of its next window. A backend whose latest date
+ * was earlier may still get records between the two dates, so every backend
+ * is harvested from the end of its own last completed window, the latest
+ * date it had then, if that is before the start proai asks for. These ends
+ * are kept in memory only; after a restart every backend starts where proai
+ * asks for.
+ * <p>
+ * The set specs of every backend, of its sets and of the sets of its
+ * records, are prefixed by the name of the backend and an underscore, so
+ * equal specs of different backends name different sets: set
+ * context_escidoc_1 of backend NAME is NAME_context_escidoc_1.
+ * writeRecordXML is routed by the namespace identifier of the item id,
+ * which therefore must differ between the backends. Identify is answered by
+ * the first backend.
+ */
+public class FederatedOAIDriver implements OAIDriver {
+    private static final Logger logger =
+        Logger.getLogger(FederatedOAIDriver.class.getName());
+
+    public static final String NS = "driver.federated.";
+
+    public static final String PROP_BACKENDS = NS + "backends";
+
+    public static final String PROP_BACKEND_START = NS + "backend.";
+
+    public static final String PROP_THREADS = NS + "threads";
+
+    private final Map<String, EscidocOAIDriver> m_backends =
+        new LinkedHashMap<String, EscidocOAIDriver>();
+
+    /** The latest date of every backend at the last getLatestDate. */
+    private final Map<String, Date> m_latestDates = new HashMap<String, Date>();
+
+    /**
+     * The end of the last completed window of every backend and metadata
+     * prefix, keyed by {@link #windowKey(String, String)}.
+     */
+    private final Map<String, Date> m_harvestedUntil =
+        new HashMap<String, Date>();
+
+    /** The serialized sets of all backends, with their prefixed specs. */
+    private final SetFragmentCache m_setFragments = new SetFragmentCache();
+
+    private ExecutorService m_executor;
+
+    public FederatedOAIDriver() {
+    }
+
+    public void init(Properties props) throws RepositoryException {
+        String[] names =
+            EscidocOAIDriver.getRequired(props, PROP_BACKENDS).split("\\s+");
+        Set<String> namespaces = new HashSet<String>();
+        try {
+            for (int i = 0; i < names.length; i++) {
+                Properties backendProps = backendProperties(props, names[i]);
+                EscidocOAIDriver backend = new EscidocOAIDriver();
+                backend.init(backendProps);
+                m_backends.put(names[i], backend);
+                if (!namespaces.add(backend.getNamespaceIdentifier())) {
+                    throw new RepositoryException("Backend " + names[i]
+                        + " uses the namespace identifier "
+                        + backend.getNamespaceIdentifier()
+                        + " of another backend");
+                }
+                logger.info("Federated backend " + names[i] + ": "
+                    + backendProps.getProperty(EscidocOAIDriver.PROP_BASEURL));
+            }
+        }
+        catch (RepositoryException e) {
+            closeBackends();
+            throw e;
+        }
+        m_executor =
+            Executors.newFixedThreadPool(EscidocOAIDriver.getOptionalInt(props,
+                PROP_THREADS, names.length), new NamedThreadFactory(
+                "oaiprovider-federated-"));
+    }
+
+    /**
+     * Builds the driver.escidoc properties of a backend. A harvest
+     * checkpoint directory which is not set for the backend itself gets a
+     * sub directory per backend, because checkpoints are keyed by the
+     * metadata prefix only. Likewise an HTTP archive gets a file per
+     * backend, named by the backend after a dot.
+     */
+    private static Properties backendProperties(Properties props, String name) {
+        Properties backendProps = new Properties();
+        backendProps.putAll(props);
+        String start = PROP_BACKEND_START + name + ".";
+        Set<String> ownKeys = new HashSet<String>();
+        Iterator<String> it = props.stringPropertyNames().iterator();
+        while (it.hasNext()) {
+            String key = it.next();
+            if (key.startsWith(start)) {
+                String escidocKey =
+                    EscidocOAIDriver.NS + key.substring(start.length());
+                backendProps.setProperty(escidocKey, props.getProperty(key));
+                ownKeys.add(escidocKey);
+            }
+        }
+        String checkpointDir =
+            EscidocOAIDriver.getOptional(props,
+                EscidocOAIDriver.PROP_HARVEST_CHECKPOINT_DIR, null);
+        if (!ownKeys.contains(EscidocOAIDriver.PROP_HARVEST_CHECKPOINT_DIR)
+            && checkpointDir != null) {
+            backendProps.setProperty(
+                EscidocOAIDriver.PROP_HARVEST_CHECKPOINT_DIR, new File(
+                    checkpointDir, name).getPath());
+        }
+        String archive =
+            EscidocOAIDriver.getOptional(props,
+                EscidocOAIDriver.PROP_HTTP_ARCHIVE, null);
+        if (!ownKeys.contains(EscidocOAIDriver.PROP_HTTP_ARCHIVE)
+            && archive != null) {
+            backendProps.setProperty(EscidocOAIDriver.PROP_HTTP_ARCHIVE,
+                archive + "." + name);
+        }
+        return backendProps;
+    }
+
+    public void write(PrintWriter out) throws RepositoryException {
+        m_backends.values().iterator().next().write(out);
+    }
+
+    public Date getLatestDate() throws RepositoryException {
+        List<Date> dates = fanOut(new BackendCall<Date>() {
+            public Date call(String name, EscidocOAIDriver backend)
+                throws RepositoryException {
+                Date date = backend.getLatestDate();
+                synchronized (m_latestDates) {
+                    m_latestDates.put(name, date);
+                }
+                return date;
+            }
+        });
+        Date latest = null;
+        for (int i = 0; i < dates.size(); i++) {
+            Date date = dates.get(i);
+            if (latest == null || (date != null && date.after(latest))) {
+                latest = date;
+            }
+        }
+        return latest;
+    }
+
+    public RemoteIterator<? extends MetadataFormat> listMetadataFormats()
+        throws RepositoryException {
+        Map<String, MetadataFormat> formats =
+            new LinkedHashMap<String, MetadataFormat>();
+        Iterator<EscidocOAIDriver> it = m_backends.values().iterator();
+        while (it.hasNext()) {
+            RemoteIterator<? extends MetadataFormat> backendFormats =
+                it.next().listMetadataFormats();
+            try {
+                while (backendFormats.hasNext()) {
+                    MetadataFormat format = backendFormats.next();
+                    if (!formats.containsKey(format.getPrefix())) {
+                        formats.put(format.getPrefix(), format);
+                    }
+                }
+            }
+            finally {
+                backendFormats.close();
+            }
+        }
+        return new RemoteIteratorImpl<MetadataFormat>(formats.values()
+            .iterator());
+    }
+
+    public RemoteIterator<? extends SetInfo> listSetInfo()
+        throws RepositoryException {
+        List<RemoteIterator<? extends SetInfo>> sets =
+            fanOut(new BackendCall<RemoteIterator<? extends SetInfo>>() {
+                public RemoteIterator<? extends SetInfo> call(
+                    String name, EscidocOAIDriver backend)
+                    throws RepositoryException {
+                    final String prefix = setSpecPrefix(name);
+                    return new MappedRemoteIterator<SetInfo, SetInfo>(backend
+                        .listSetInfo()) {
+                        @Override
+                        protected SetInfo map(SetInfo set) {
+                            // the backends list EscidocSetInfos only
+                            return ((EscidocSetInfo) set).withSetSpecPrefix(
+                                prefix, m_setFragments);
+                        }
+                    };
+                }
+            });
+        return m_setFragments.retainListed(new MergedRemoteIterator<SetInfo>(
+            sets));
+    }
+
+    public RemoteIterator<? extends Record> listRecords(
+        final Date from, final Date until, final String mdPrefix)
+        throws RepositoryException {
+        List<RemoteIterator<? extends Record>> records =
+            fanOut(new BackendCall<RemoteIterator<? extends Record>>() {
+                public RemoteIterator<? extends Record> call(
+                    String name, EscidocOAIDriver backend)
+                    throws RepositoryException {
+                    final String key = windowKey(name, mdPrefix);
+                    Date backendFrom = from;
+                    final Date harvestedUntil;
+                    synchronized (m_harvestedUntil) {
+                        Date previous = m_harvestedUntil.get(key);
+                        if (previous != null
+                            && (from == null || previous.before(from))) {
+                            backendFrom = previous;
+                        }
+                        harvestedUntil = windowEnd(name, until, previous);
+                    }
+                    final String prefix = setSpecPrefix(name);
+                    return new MappedRemoteIterator<Record, Record>(
+                        new CompletingRemoteIterator<Record>(backend
+                            .listRecords(backendFrom, until, mdPrefix)) {
+                            @Override
+                            protected void completed() {
+                                if (harvestedUntil != null) {
+                                    synchronized (m_harvestedUntil) {
+                                        m_harvestedUntil.put(key,
+                                            harvestedUntil);
+                                    }
+                                }
+                            }
+                        }) {
+                        @Override
+                        protected Record map(Record record) {
+                            return new PrefixedRecord(record, prefix);
+                        }
+                    };
+                }
+            });
+        return new MergedRemoteIterator<Record>(records);
+    }
+
+    private static String setSpecPrefix(String name) {
+        return name + "_";
+    }
+
+    private static String windowKey(String name, String mdPrefix) {
+        return name + " " + mdPrefix;
+    }
+
+    /**
+     * @return the end of a window of the backend once it is harvested: the
+     *         latest date the backend had, but at most until. The previous
+     *         end if the backend had no records, or until if its latest date
+     *         is not known.
+     */
+    private Date windowEnd(String name, Date until, Date previous) {
+        synchronized (m_latestDates) {
+            if (!m_latestDates.containsKey(name)) {
+                return until;
+            }
+            Date latest = m_latestDates.get(name);
+            if (latest == null) {
+                return previous;
+            }
+            return until == null || latest.before(until) ? latest : until;
+        }
+    }
+
+    public void writeRecordXML(
+        String itemID, String mdPrefix, String sourceInfo, PrintWriter out)
+        throws RepositoryException {
+        Iterator<EscidocOAIDriver> it = m_backends.values().iterator();
+        while (it.hasNext()) {
+            EscidocOAIDriver backend = it.next();
+            if (itemID.startsWith("oai:" + backend.getNamespaceIdentifier()
+                + ":")) {
+                backend.writeRecordXML(itemID, mdPrefix, sourceInfo, out);
+                return;
+            }
+        }
+        throw new RepositoryException("No backend for item " + itemID);
+    }
+
+    public void close() throws RepositoryException {
+        if (m_executor != null) {
+            m_executor.shutdownNow();
+        }
+        closeBackends();
+        logger.info(m_setFragments);
+    }
+
+    private void closeBackends() {
+        Iterator<Map.Entry<String, EscidocOAIDriver>> it =
+            m_backends.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, EscidocOAIDriver> backend = it.next();
+            try {
+                backend.getValue().close();
+            }
+            catch (RuntimeException e) {
+                logger.warn("Unable to close backend " + backend.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * Delivers the elements of another iterator, each replaced by
+     * {@link #map(Object)}.
+     */
+    private abstract static class MappedRemoteIterator<S, T>
+        implements RemoteIterator<T> {
+        private final RemoteIterator<? extends S> iterator;
+
+        MappedRemoteIterator(RemoteIterator<? extends S> iterator) {
+            this.iterator = iterator;
+        }
+
+        protected abstract T map(S element);
+
+        public boolean hasNext() throws RepositoryException {
+            return iterator.hasNext();
+        }
+
+        public T next() throws RepositoryException {
+            return map(iterator.next());
+        }
+
+        public void close() throws RepositoryException {
+            iterator.close();
+        }
+
+        public void remove() throws UnsupportedOperationException {
+            iterator.remove();
+        }
+    }
+
+    /**
+     * A record of a backend with the set spec prefix of the backend. The set
+     * specs are the fields of the source info after the six fields written
+     * by {@link EscidocRecord}.
+     */
+    private static final class PrefixedRecord implements Record {
+        private static final int SET_SPECS_START = 6;
+
+        private final Record record;
+
+        private final String sourceInfo;
+
+        PrefixedRecord(Record record, String prefix) {
+            this.record = record;
+            String[] parts = record.getSourceInfo().trim().split(" ");
+            StringBuffer buf = new StringBuffer();
+            for (int i = 0; i < parts.length; i++) {
+                if (i > 0) {
+                    buf.append(' ');
+                }
+                if (i >= SET_SPECS_START) {
+                    buf.append(prefix);
+                }
+                buf.append(parts[i]);
+            }
+            this.sourceInfo = buf.toString();
+        }
+
+        public String getItemID() {
+            return record.getItemID();
+        }
+
+        public String getPrefix() {
+            return record.getPrefix();
+        }
+
+        public String getSourceInfo() {
+            return sourceInfo;
+        }
+    }
+
+    /**
+     * A request to a single backend.
+     */
+    private interface BackendCall<V> {
+        V call(String name, EscidocOAIDriver backend)
+            throws RepositoryException;
+    }
+
+    /**
+     * Runs the call for all backends in parallel. If a backend fails, the
+     * other backends are still awaited and the iterators they returned are
+     * closed, so no record list is left behind.
+     *
+     * @return the results in the order of the backends
+     */
+    private <V> List<V> fanOut(final BackendCall<V> call)
+        throws RepositoryException {
+        List<Future<V>> futures = new ArrayList<Future<V>>();
+        Iterator<Map.Entry<String, EscidocOAIDriver>> it =
+            m_backends.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, EscidocOAIDriver> backend = it.next();
+            futures.add(m_executor.submit(new Callable<V>() {
+                public V call() throws RepositoryException {
+                    return call.call(backend.getKey(), backend.getValue());
+                }
+            }));
+        }
+        List<V> results = new ArrayList<V>();
+        RepositoryException failure = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(get(futures.get(i)));
+            }
+            catch (RepositoryException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i) instanceof RemoteIterator<?>) {
+                    try {
+                        ((RemoteIterator<?>) results.get(i)).close();
+                    }
+                    catch (RepositoryException e) {
+                        logger.warn("Unable to close iterator", e);
+                    }
+                }
+            }
+            throw failure;
+        }
+        return results;
+    }
+
+    private static <V> V get(Future<V> future) throws RepositoryException {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException(
+                "Interrupted while waiting for a backend", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RepositoryException) {
+                throw (RepositoryException) e.getCause();
+            }
+            throw new RepositoryException("Backend request failed", e
+                .getCause());
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package org.escidoc.services.oaiprovider;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+import org.escidoc.services.oaiprovider.stax.SearchRecord;
+
+import proai.error.RepositoryException;
+
+/**
+ * Records the progress of a listRecords harvest, so that a harvest which
+ * failed or was interrupted continues with the first page that was not
+ * completed instead of starting the whole window again.
+ * <p>
+ * A harvest is keyed by the metadata prefix and the start of its window,
+ * which proai keeps until a harvest of the window succeeds. It consists of
+ * scans, each reading the pages of one search query over a part of the
+ * window. The records of every completed page are appended to a journal
+ * file; after each page the checkpoint file, which holds the state of all
+ * scans and the journal length, is replaced atomically. On resumption the
+ * journal is cut back to the checkpointed length and replayed into the new
+ * record list. If the window was extended meanwhile, scans for the added
+ * part are appended.
+ */
+public class HarvestCheckpoint {
+    private static final Logger logger =
+        Logger.getLogger(HarvestCheckpoint.class.getName());
+
+    private static final String VERSION = "2";
+
+    private final String prefix;
+
+    private final long from;
+
+    private final File checkpointFile;
+
+    private final File journalFile;
+
+    private final List<Scan> scans;
+
+    private long journalLength;
+
+    private FileOutputStream journalOut;
+
+    private DataOutputStream journal;
+
+    private HarvestCheckpoint(
+        String prefix, long from, File checkpointFile, File journalFile,
+        List<Scan> scans, long journalLength) {
+        this.prefix = prefix;
+        this.from = from;
+        this.checkpointFile = checkpointFile;
+        this.journalFile = journalFile;
+        this.scans = scans;
+        this.journalLength = journalLength;
+    }
+
+    /**
+     * A search query over a part of the harvested window, read page by page.
+     */
+    public static final class Scan {
+        private final boolean withdrawn;
+
+        private final long after;
+
+        private final long until;
+
+        private int nextRecord = 1;
+
+        private int numberOfRecords = -1;
+
+        private long journalStart;
+
+        private Scan(boolean withdrawn, long after, long until) {
+            this.withdrawn = withdrawn;
+            this.after = after;
+            this.until = until;
+        }
+
+        /**
+         * @return true for the query of withdrawn resources, false for the
+         *         query of released resources
+         */
+        public boolean isWithdrawn() {
+            return withdrawn;
+        }
+
+        /**
+         * @return the exclusive lower bound of the modification dates
+         */
+        public Date getAfter() {
+            return new Date(after);
+        }
+
+        /**
+         * @return the inclusive upper bound of the modification dates
+         */
+        public Date getUntil() {
+            return new Date(until);
+        }
+
+        /**
+         * @return the position of the next page to read, -1 if the scan is
+         *         complete
+         */
+        public int getNextRecord() {
+            return nextRecord;
+        }
+
+        /**
+         * @return the number of records reported by the last completed page,
+         *         -1 if no page was completed yet
+         */
+        public int getNumberOfRecords() {
+            return numberOfRecords;
+        }
+
+        public boolean isComplete() {
+            return nextRecord == -1;
+        }
+    }
+
+    /**
+     * Creates the scans of a window which is read without checkpoints.
+     */
+    public static List<Scan> scans(Date from, Date until) {
+        List<Scan> scans = new ArrayList<Scan>();
+        addScans(scans, from.getTime() - 1, until.getTime() + 1);
+        return scans;
+    }
+
+    /**
+     * Opens the checkpoint of a harvest, continuing a previous one if
+     * possible. Checkpoints of other windows of the same prefix are deleted,
+     * because proai never continues them.
+     */
+    public static HarvestCheckpoint open(
+        File dir, String prefix, Date from, Date until)
+        throws RepositoryException {
+        String name =
+            "harvest-" + prefix.replaceAll("[^A-Za-z0-9]", "_") + "-";
+        String key = name + from.getTime();
+        File checkpointFile = new File(dir, key + ".checkpoint");
+        File journalFile = new File(dir, key + ".journal");
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (int i = 0; i < files.length; i++) {
+                String fileName = files[i].getName();
+                if (fileName.startsWith(name)
+                    && !fileName.startsWith(key + ".")) {
+                    logger.info("Deleting obsolete harvest file " + files[i]);
+                    files[i].delete();
+                }
+            }
+        }
+
+        long untilBound = until.getTime() + 1;
+        HarvestCheckpoint checkpoint =
+            load(checkpointFile, journalFile, prefix, from);
+        if (checkpoint == null || checkpoint.lastUntil() > untilBound) {
+            List<Scan> scans = new ArrayList<Scan>();
+            addScans(scans, from.getTime() - 1, untilBound);
+            checkpoint =
+                new HarvestCheckpoint(prefix, from.getTime(), checkpointFile,
+                    journalFile, scans, 0);
+        }
+        else {
+            if (checkpoint.lastUntil() < untilBound) {
+                addScans(checkpoint.scans, checkpoint.lastUntil(), untilBound);
+            }
+            logger.info("Resuming harvest of " + prefix + " from "
+                + checkpoint.journalLength + " journal bytes");
+        }
+        checkpoint.openJournal();
+        return checkpoint;
+    }
+
+    private static void addScans(List<Scan> scans, long after, long until) {
+        scans.add(new Scan(false, after, until));
+        scans.add(new Scan(true, after, until));
+    }
+
+    private static HarvestCheckpoint load(
+        File checkpointFile, File journalFile, String prefix, Date from) {
+        if (!checkpointFile.exists()) {
+            return null;
+        }
+        Properties props = new Properties();
+        try {
+            InputStream in = new FileInputStream(checkpointFile);
+            try {
+                props.load(in);
+            }
+            finally {
+                in.close();
+            }
+            if (!VERSION.equals(props.getProperty("version"))
+                || !prefix.equals(props.getProperty("prefix"))
+                || from.getTime() != Long
+                    .parseLong(props.getProperty("from"))) {
+                return null;
+            }
+            long journalLength =
+                Long.parseLong(props.getProperty("journalLength"));
+            if (journalFile.length() < journalLength) {
+                logger.warn("Journal " + journalFile + " is incomplete");
+                return null;
+            }
+            List<Scan> scans = new ArrayList<Scan>();
+            int count = Integer.parseInt(props.getProperty("scans"));
+            for (int i = 0; i < count; i++) {
+                String p = "scan." + i + ".";
+                Scan scan =
+                    new Scan(Boolean.valueOf(props.getProperty(p + "withdrawn"))
+                        .booleanValue(), Long.parseLong(props.getProperty(p
+                        + "after")), Long.parseLong(props.getProperty(p
+                        + "until")));
+                scan.nextRecord =
+                    Integer.parseInt(props.getProperty(p + "nextRecord"));
+                scan.numberOfRecords =
+                    Integer.parseInt(props.getProperty(p + "numberOfRecords"));
+                scan.journalStart =
+                    Long.parseLong(props.getProperty(p + "journalStart"));
+                scans.add(scan);
+            }
+            if (scans.isEmpty()) {
+                return null;
+            }
+            return new HarvestCheckpoint(prefix, from.getTime(),
+                checkpointFile, journalFile, scans, journalLength);
+        }
+        catch (IOException e) {
+            logger.warn("Unable to read harvest checkpoint " + checkpointFile,
+                e);
+        }
+        catch (RuntimeException e) {
+            logger.warn("Invalid harvest checkpoint " + checkpointFile, e);
+        }
+        return null;
+    }
+
+    /**
+     * @return the scans of the harvest in the order they are read
+     */
+    public List<Scan> getScans() {
+        return Collections.unmodifiableList(scans);
+    }
+
+    /**
+     * Starts a scan again from its first page, discarding the journal entries
+     * of its completed pages. Used if the number of its records changed, so
+     * the positions of the remaining pages are no longer valid.
+     */
+    public void restart(Scan scan) throws RepositoryException {
+        logger.info("Number of records changed, restarting scan from "
+            + scan.getAfter());
+        scan.nextRecord = 1;
+        scan.numberOfRecords = -1;
+        journalLength = scan.journalStart;
+        closeJournal();
+        openJournal();
+        save();
+    }
+
+    /**
+     * Passes the records of all completed pages to the sink.
+     */
+    public void replay(SearchRecordSink sink) throws RepositoryException {
+        if (journalLength == 0) {
+            return;
+        }
+        try {
+            journal.flush();
+        }
+        catch (IOException e) {
+            throw new RepositoryException("Error writing harvest journal "
+                + journalFile, e);
+        }
+        SearchRecordFile.read(journalFile, sink);
+    }
+
+    /**
+     * Appends a record of the current page to the journal.
+     */
+    public void record(SearchRecord record) throws RepositoryException {
+        try {
+            SearchRecordFile.write(record, journal);
+        }
+        catch (IOException e) {
+            throw new RepositoryException("Error writing harvest journal "
+                + journalFile, e);
+        }
+    }
+
+    /**
+     * Marks a page of the scan as completed.
+     *
+     * @param nextRecord
+     *            the position of the next page, -1 if it was the last page
+     */
+    public void pageCompleted(Scan scan, int nextRecord, int numberOfRecords)
+        throws RepositoryException {
+        if (scan.nextRecord == 1) {
+            scan.journalStart = journalLength;
+        }
+        try {
+            journal.flush();
+            journalLength = journalOut.getChannel().position();
+        }
+        catch (IOException e) {
+            throw new RepositoryException("Error writing harvest journal "
+                + journalFile, e);
+        }
+        scan.nextRecord = nextRecord;
+        scan.numberOfRecords = numberOfRecords;
+        save();
+    }
+
+    /**
+     * Closes the journal, keeping the checkpoint for a later resumption.
+     */
+    public void close() {
+        closeJournal();
+    }
+
+    /**
+     * Deletes checkpoint and journal after a successful harvest.
+     */
+    public void delete() {
+        closeJournal();
+        checkpointFile.delete();
+        journalFile.delete();
+    }
+
+    private long lastUntil() {
+        return scans.get(scans.size() - 1).until;
+    }
+
+    private void openJournal() throws RepositoryException {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+            try {
+                // drops the records of a page which was not completed
+                raf.setLength(journalLength);
+            }
+            finally {
+                raf.close();
+            }
+            journalOut = new FileOutputStream(journalFile, true);
+            journal =
+                new DataOutputStream(new BufferedOutputStream(journalOut,
+                    64 * 1024));
+        }
+        catch (IOException e) {
+            throw new RepositoryException("Error opening harvest journal "
+                + journalFile, e);
+        }
+    }
+
+    private void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.close();
+        }
+        catch (IOException e) {
+            logger.warn("Unable to close harvest journal " + journalFile, e);
+        }
+        journal = null;
+        journalOut = null;
+    }
+
+    /**
+     * Replaces the checkpoint file by writing a temporary file and renaming
+     * it, so a crash never leaves a partially written checkpoint.
+     */
+    private void save() throws RepositoryException {
+        String name = checkpointFile.getName();
+        Properties props = new Properties();
+        props.setProperty("version", VERSION);
+        props.setProperty("prefix", prefix);
+        props.setProperty("from", String.valueOf(from));
+        props.setProperty("journalLength", String.valueOf(journalLength));
+        props.setProperty("scans", String.valueOf(scans.size()));
+        for (int i = 0; i < scans.size(); i++) {
+            Scan scan = scans.get(i);
+            String p = "scan." + i + ".";
+            props.setProperty(p + "withdrawn", String.valueOf(scan.withdrawn));
+            props.setProperty(p + "after", String.valueOf(scan.after));
+            props.setProperty(p + "until", String.valueOf(scan.until));
+            props.setProperty(p + "nextRecord",
+                String.valueOf(scan.nextRecord));
+            props.setProperty(p + "numberOfRecords",
+                String.valueOf(scan.numberOfRecords));
+            props.setProperty(p + "journalStart",
+                String.valueOf(scan.journalStart));
+        }
+        File tmp = new File(checkpointFile.getParentFile(), name + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                props.store(out, "listRecords harvest checkpoint");
+                out.getFD().sync();
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (IOException e) {
+            throw new RepositoryException("Error writing harvest checkpoint "
+                + tmp, e);
+        }
+        if (!tmp.renameTo(checkpointFile)) {
+            // renameTo does not replace existing files on every platform
+            checkpointFile.delete();
+            if (!tmp.renameTo(checkpointFile)) {
+                throw new RepositoryException(
+                    "Unable to replace harvest checkpoint " + checkpointFile);
+            }
+        }
+    }
+}
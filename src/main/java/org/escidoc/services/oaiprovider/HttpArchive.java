@@ -0,0 +1,320 @@
+package org.escidoc.services.oaiprovider;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+
+import org.apache.log4j.Logger;
+
+import proai.error.RepositoryException;
+
+/**
+ * A file of recorded HTTP responses, so a harvest can be repeated without
+ * the eSciDoc it was recorded from. While recording, every response is
+ * appended with its request, status, content type, body and the time from
+ * sending the request until the body was read. While replaying, the
+ * responses of a request are served in the order they were recorded, the
+ * last one again once all were served; requests which were never recorded
+ * fail. A timed replay delays every response by its recorded time.
+ * <p>
+ * The file is LZ4 block compressed and holds {@link #MAGIC} (int), followed
+ * by the exchanges, each preceded by a marker byte: request key, status
+ * (int), content type, elapsed nanoseconds (long) and body. Strings and the
+ * body are stored as int length and bytes, the content type with length -1
+ * if missing. Every exchange is flushed, so an archive of a crashed
+ * recording is readable up to its last complete exchange.
+ */
+public class HttpArchive {
+    private static final Logger logger =
+        Logger.getLogger(HttpArchive.class.getName());
+
+    static final int MAGIC = 0x48545041;
+
+    private static final int MARKER = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+
+    private final DataOutputStream out;
+
+    private final Map<String, Recording> recordings;
+
+    private final boolean timed;
+
+    private long exchanges = 0;
+
+    private long missing = 0;
+
+    private HttpArchive(
+        File file, DataOutputStream out, Map<String, Recording> recordings,
+        boolean timed) {
+        this.file = file;
+        this.out = out;
+        this.recordings = recordings;
+        this.timed = timed;
+    }
+
+    /**
+     * Creates an archive recording into the file, replacing an existing one.
+     */
+    public static HttpArchive record(File file) throws RepositoryException {
+        try {
+            DataOutputStream out =
+                new DataOutputStream(new LZ4BlockOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file),
+                        BUFFER_SIZE), BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.flush();
+            logger.info("Recording HTTP responses to " + file);
+            return new HttpArchive(file, out, null, false);
+        }
+        catch (IOException e) {
+            throw new RepositoryException("Unable to create HTTP archive "
+                + file, e);
+        }
+    }
+
+    /**
+     * Reads a recorded archive for replaying.
+     *
+     * @param timed
+     *            whether responses are delayed by their recorded time
+     */
+    public static HttpArchive replay(File file, boolean timed)
+        throws RepositoryException {
+        Map<String, Recording> recordings = new HashMap<String, Recording>();
+        long count = 0;
+        try {
+            DataInputStream in =
+                new DataInputStream(new LZ4BlockInputStream(
+                    new BufferedInputStream(new FileInputStream(file),
+                        BUFFER_SIZE)));
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new RepositoryException("Not an HTTP archive: "
+                        + file);
+                }
+                while (in.read() == MARKER) {
+                    String key = readString(in);
+                    Exchange exchange =
+                        new Exchange(in.readInt(), readString(in), in
+                            .readLong(), readBytes(in));
+                    Recording recording = recordings.get(key);
+                    if (recording == null) {
+                        recording = new Recording();
+                        recordings.put(key, recording);
+                    }
+                    recording.exchanges.add(exchange);
+                    count++;
+                }
+            }
+            catch (EOFException e) {
+                logger.warn("HTTP archive " + file + " is truncated after "
+                    + count + " responses");
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            throw new RepositoryException("Error reading HTTP archive " + file,
+                e);
+        }
+        logger.info("Replaying " + count + " HTTP responses of "
+            + recordings.size() + " requests from " + file
+            + (timed ? " with their recorded timing" : ""));
+        return new HttpArchive(file, null, recordings, timed);
+    }
+
+    public boolean isRecording() {
+        return out != null;
+    }
+
+    /**
+     * Appends a response to a recording archive.
+     *
+     * @param key
+     *            the request, see {@link ConnectionUtility}
+     * @param contentType
+     *            the content type header, may be null
+     * @param elapsedNanos
+     *            time from sending the request until the body was read
+     */
+    public synchronized void record(
+        String key, int status, String contentType, long elapsedNanos,
+        byte[] body) throws RepositoryException {
+        try {
+            out.write(MARKER);
+            writeString(out, key);
+            out.writeInt(status);
+            writeString(out, contentType);
+            out.writeLong(elapsedNanos);
+            out.writeInt(body == null ? 0 : body.length);
+            if (body != null) {
+                out.write(body);
+            }
+            out.flush();
+            exchanges++;
+        }
+        catch (IOException e) {
+            throw new RepositoryException("Error writing HTTP archive " + file,
+                e);
+        }
+    }
+
+    /**
+     * @return the next recorded response of the request
+     * @throws RepositoryException
+     *             if the request was not recorded
+     */
+    public Exchange next(String key) throws RepositoryException {
+        Recording recording = recordings.get(key);
+        if (recording == null) {
+            synchronized (this) {
+                missing++;
+            }
+            throw new RepositoryException("No recorded response in " + file
+                + " for " + key);
+        }
+        synchronized (this) {
+            exchanges++;
+        }
+        return recording.next();
+    }
+
+    /**
+     * Waits for the recorded time of a response if the replay is timed.
+     */
+    void await(Exchange exchange) throws InterruptedIOException {
+        if (!timed || exchange.elapsedNanos <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(exchange.elapsedNanos / 1000000,
+                (int) (exchange.elapsedNanos % 1000000));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted replaying a response");
+        }
+    }
+
+    /**
+     * Closes the file of a recording archive.
+     */
+    public synchronized void close() {
+        if (out != null) {
+            try {
+                out.close();
+            }
+            catch (IOException e) {
+                logger.warn("Unable to close HTTP archive " + file, e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        if (isRecording()) {
+            return "HttpArchive " + file + ": recorded=" + exchanges;
+        }
+        return "HttpArchive " + file + ": replayed=" + exchanges
+            + " missing=" + missing;
+    }
+
+    private static void writeString(DataOutputStream out, String value)
+        throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, "UTF-8");
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * The recorded responses of a request.
+     */
+    private static final class Recording {
+        private final List<Exchange> exchanges = new ArrayList<Exchange>();
+
+        private int served = 0;
+
+        private synchronized Exchange next() {
+            Exchange exchange =
+                exchanges.get(Math.min(served, exchanges.size() - 1));
+            served++;
+            return exchange;
+        }
+    }
+
+    /**
+     * A recorded response.
+     */
+    public static final class Exchange {
+        private final int status;
+
+        private final String contentType;
+
+        private final long elapsedNanos;
+
+        private final byte[] body;
+
+        Exchange(int status, String contentType, long elapsedNanos, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.elapsedNanos = elapsedNanos;
+            this.body = body;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the content type header, or null if there was none
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+    }
+}
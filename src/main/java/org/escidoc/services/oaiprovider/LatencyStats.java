@@ -0,0 +1,93 @@
+package org.escidoc.services.oaiprovider;
+
+/**
+ * Thread-safe summary of measured durations. Besides count, mean and
+ * maximum it keeps a histogram with power-of-two microsecond buckets, so
+ * percentiles are reported with an error of at most a factor of two.
+ */
+public class LatencyStats {
+
+    private static final int BUCKETS = 40;
+
+    private final String name;
+
+    private final long[] histogram = new long[BUCKETS];
+
+    private long count = 0;
+
+    private long totalNanos = 0;
+
+    private long maxNanos = 0;
+
+    public LatencyStats(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized void add(long nanos) {
+        count++;
+        totalNanos += nanos;
+        if (nanos > maxNanos) {
+            maxNanos = nanos;
+        }
+        histogram[bucket(nanos)]++;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return mean duration in microseconds
+     */
+    public synchronized long getMeanMicros() {
+        return count == 0 ? 0 : totalNanos / count / 1000;
+    }
+
+    /**
+     * @return maximum duration in microseconds
+     */
+    public synchronized long getMaxMicros() {
+        return maxNanos / 1000;
+    }
+
+    /**
+     * @param percentile
+     *            between 0 and 100
+     * @return upper bound in microseconds of the bucket holding the
+     *         percentile
+     */
+    public synchronized long getPercentileMicros(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return Math.min(1L << i, getMaxMicros());
+            }
+        }
+        return getMaxMicros();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return name + ": count=" + count + " mean=" + getMeanMicros()
+            + "us p50=" + getPercentileMicros(50) + "us p99="
+            + getPercentileMicros(99) + "us max=" + getMaxMicros() + "us";
+    }
+
+    private static int bucket(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = 0;
+        while (bucket < BUCKETS - 1 && (1L << bucket) < micros) {
+            bucket++;
+        }
+        return bucket;
+    }
+}
@@ -0,0 +1,86 @@
+package org.escidoc.services.oaiprovider;
+
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import proai.driver.RemoteIterator;
+import proai.error.RepositoryException;
+
+/**
+ * Delivers the elements of several iterators one iterator after the other.
+ * Subclasses may skip elements by overriding {@link #accept(Object)}. All
+ * iterators are closed by {@link #close()}, including those not read yet.
+ *
+ * @param <T>
+ *            type of the elements
+ */
+public class MergedRemoteIterator<T> implements RemoteIterator<T> {
+    private static final Logger logger =
+        Logger.getLogger(MergedRemoteIterator.class.getName());
+
+    private final List<RemoteIterator<? extends T>> parts;
+
+    private int part = 0;
+
+    private T next;
+
+    public MergedRemoteIterator(List<RemoteIterator<? extends T>> parts) {
+        this.parts = parts;
+    }
+
+    /**
+     * @return false if the element is skipped
+     */
+    protected boolean accept(T element) {
+        return true;
+    }
+
+    public boolean hasNext() throws RepositoryException {
+        while (next == null && part < parts.size()) {
+            RemoteIterator<? extends T> current = parts.get(part);
+            if (current.hasNext()) {
+                T element = current.next();
+                if (accept(element)) {
+                    next = element;
+                }
+            }
+            else {
+                part++;
+            }
+        }
+        return next != null;
+    }
+
+    public T next() throws RepositoryException {
+        if (!hasNext()) {
+            throw new RepositoryException("No more results available\n");
+        }
+        T element = next;
+        next = null;
+        return element;
+    }
+
+    public void close() throws RepositoryException {
+        RepositoryException failure = null;
+        for (int i = 0; i < parts.size(); i++) {
+            try {
+                parts.get(i).close();
+            }
+            catch (RepositoryException e) {
+                logger.warn("Unable to close iterator", e);
+                failure = e;
+            }
+        }
+        part = parts.size();
+        next = null;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public void remove() throws UnsupportedOperationException {
+        throw new UnsupportedOperationException(
+            "MergedRemoteIterator does not support remove().");
+    }
+}
@@ -0,0 +1,29 @@
+package org.escidoc.services.oaiprovider;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A ThreadFactory creating named daemon threads, so that background work of
+ * the driver never keeps the servlet container from shutting down.
+ */
+public class NamedThreadFactory implements ThreadFactory {
+
+    private final String m_prefix;
+
+    private final AtomicInteger m_count = new AtomicInteger(0);
+
+    /**
+     * @param prefix
+     *            prefix of the thread names, a running number is appended
+     */
+    public NamedThreadFactory(String prefix) {
+        m_prefix = prefix;
+    }
+
+    public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, m_prefix + m_count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,112 @@
+package org.escidoc.services.oaiprovider;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The ancestors of every organizational unit, built from the parent
+ * relations of the ou list. The closure is computed once, so the set specs
+ * of all ancestors of an ou are a single map lookup while records are
+ * listed.
+ */
+public class OuAncestryIndex {
+
+    private static final String[] NONE = new String[0];
+
+    private final Map<String, String[]> ancestorSetSpecs;
+
+    private OuAncestryIndex(Map<String, String[]> ancestorSetSpecs) {
+        this.ancestorSetSpecs = ancestorSetSpecs;
+    }
+
+    /**
+     * @return the set specs of all ancestors of the ou, nearest first; empty
+     *         if the ou has no parents or is unknown
+     */
+    public String[] getAncestorSetSpecs(String ouId) {
+        String[] specs = ancestorSetSpecs.get(ouId);
+        return specs == null ? NONE : specs;
+    }
+
+    /**
+     * @return the number of ous of the index
+     */
+    public int size() {
+        return ancestorSetSpecs.size();
+    }
+
+    /**
+     * The set spec of an organizational unit.
+     */
+    public static String setSpec(String ouId) {
+        return "ou_" + ouId.replace(':', '_');
+    }
+
+    /**
+     * Collects the parent relations of the pages of an ou list.
+     */
+    public static class Builder {
+        private final Map<String, List<String>> parents =
+            new HashMap<String, List<String>>();
+
+        public synchronized void add(Map<String, List<String>> ouParents) {
+            parents.putAll(ouParents);
+        }
+
+        public synchronized OuAncestryIndex build() {
+            Map<String, List<String>> closures =
+                new HashMap<String, List<String>>();
+            for (String ouId : parents.keySet()) {
+                closure(ouId, closures, new HashSet<String>());
+            }
+            Map<String, String[]> specs = new HashMap<String, String[]>();
+            for (Map.Entry<String, List<String>> entry : closures.entrySet()) {
+                List<String> ancestors = entry.getValue();
+                if (ancestors.isEmpty()) {
+                    continue;
+                }
+                String[] ancestorSpecs = new String[ancestors.size()];
+                for (int i = 0; i < ancestorSpecs.length; i++) {
+                    ancestorSpecs[i] = setSpec(ancestors.get(i));
+                }
+                specs.put(entry.getKey(), ancestorSpecs);
+            }
+            return new OuAncestryIndex(specs);
+        }
+
+        /**
+         * Computes the ancestors of an ou from those of its parents. A
+         * cycle in the parent relations ends at the ou seen twice.
+         */
+        private List<String> closure(
+            String ouId, Map<String, List<String>> closures,
+            Set<String> visiting) {
+            List<String> ancestors = closures.get(ouId);
+            if (ancestors != null) {
+                return ancestors;
+            }
+            if (!visiting.add(ouId)) {
+                return new ArrayList<String>();
+            }
+            Set<String> collected = new LinkedHashSet<String>();
+            List<String> ouParents = parents.get(ouId);
+            if (ouParents != null) {
+                collected.addAll(ouParents);
+                for (int i = 0; i < ouParents.size(); i++) {
+                    collected.addAll(closure(ouParents.get(i), closures,
+                        visiting));
+                }
+            }
+            collected.remove(ouId);
+            visiting.remove(ouId);
+            ancestors = new ArrayList<String>(collected);
+            closures.put(ouId, ancestors);
+            return ancestors;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.escidoc.services.oaiprovider;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A short-lived buffer for record payloads which were retrieved ahead of the
+ * writeRecordXML call that needs them. Its size is capped by the memory of
+ * the buffered characters, two bytes each, the oldest entries are evicted
+ * first, and entries expire after a configurable time. Every payload is
+ * handed out only once.
+ */
+public class RecordContentCache {
+
+    /** The size of a Java char. */
+    private static final int BYTES_PER_CHAR = 2;
+
+    private final long maxChars;
+
+    private final long timeToLive;
+
+    private final LinkedHashMap<String, Entry> entries =
+        new LinkedHashMap<String, Entry>();
+
+    private long chars = 0;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    /**
+     * @param maxBytes
+     *            maximum memory of the buffered characters
+     * @param timeToLive
+     *            milliseconds after which a buffered payload expires
+     */
+    public RecordContentCache(long maxBytes, long timeToLive) {
+        this.maxChars = maxBytes / BYTES_PER_CHAR;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Builds the key of the payload of a record.
+     */
+    public static String key(
+        String resourceType, String resourceId, String dissURI) {
+        return resourceType + "/" + resourceId + "/" + dissURI;
+    }
+
+    /**
+     * Buffers a payload. Payloads bigger than the whole buffer are ignored.
+     */
+    public synchronized void put(String key, String content) {
+        if (content.length() > maxChars) {
+            return;
+        }
+        remove(key);
+        long now = System.currentTimeMillis();
+        evictExpired(now);
+        entries.put(key, new Entry(content, now + timeToLive));
+        chars += content.length();
+        Iterator<Entry> it = entries.values().iterator();
+        while (chars > maxChars && it.hasNext()) {
+            chars -= it.next().content.length();
+            it.remove();
+        }
+    }
+
+    /**
+     * Removes a buffered payload and returns it.
+     *
+     * @return the payload or null if it is not buffered or expired
+     */
+    public synchronized String take(String key) {
+        Entry entry = remove(key);
+        if (entry == null || entry.expires < System.currentTimeMillis()) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.content;
+    }
+
+    /**
+     * @return true if the buffer is not filled up to its size limit
+     */
+    public synchronized boolean hasRoom() {
+        return chars < maxChars;
+    }
+
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * @return number of buffered characters
+     */
+    public synchronized long size() {
+        return chars;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RecordContentCache: entries=" + entries.size() + " chars="
+            + chars + " hits=" + hits + " misses=" + misses;
+    }
+
+    private Entry remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            chars -= entry.content.length();
+        }
+        return entry;
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (entry.expires >= now) {
+                // entries are ordered by insertion, so all others are younger
+                break;
+            }
+            chars -= entry.content.length();
+            it.remove();
+        }
+    }
+
+    private static final class Entry {
+        private final String content;
+
+        private final long expires;
+
+        private Entry(String content, long expires) {
+            this.content = content;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package org.escidoc.services.oaiprovider;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.log4j.Logger;
+import org.escidoc.services.oaiprovider.saxhandler.ResourceListMdRecordHandler;
+import org.escidoc.services.oaiprovider.saxhandler.SaxParserPool;
+
+import proai.error.RepositoryException;
+
+/**
+ * Retrieves the payload of records for writeRecordXML.
+ * <p>
+ * The records handed out by listRecords are remembered as pending. When the
+ * payload of an md-record is requested and not buffered yet, the payloads of
+ * the next pending records of the same resource type and md-record are
+ * retrieved together with it by one filtered item or container list request
+ * and buffered for the following writeRecordXML calls. DC and "resources"
+ * disseminations are not part of the resource lists and are always
+ * retrieved one by one.
+ * <p>
+ * With read-ahead enabled, the pending records are retrieved in advance by a
+ * bounded pool of background threads as long as the buffer has room, so
+ * writeRecordXML usually finds the payload ready.
+ * <p>
+ * Payloads which were embedded in the search results are kept in an
+ * {@link EmbeddedPayloadStore} and served without any request.
+ */
+public class RecordContentFetcher implements RecordListListener {
+    private static final Logger logger =
+        Logger.getLogger(RecordContentFetcher.class.getName());
+
+    private static final int SCAN_FACTOR = 20;
+
+    private final EscidocConnector connector;
+
+    private final RecordContentCache cache;
+
+    private final EmbeddedPayloadStore payloads;
+
+    private final int batchSize;
+
+    private final int maxPending;
+
+    private final int readAhead;
+
+    private final ThreadPoolExecutor prefetcher;
+
+    private final SaxParserPool parserPool;
+
+    private final LinkedHashMap<String, PendingRecord> pending =
+        new LinkedHashMap<String, PendingRecord>();
+
+    private final Map<String, CountDownLatch> inFlight =
+        new HashMap<String, CountDownLatch>();
+
+    private int prefetching = 0;
+
+    private volatile Map<String, Bulkhead> bulkheads =
+        Collections.emptyMap();
+
+    /**
+     * @param connector
+     *            connector used for the retrieval
+     * @param cache
+     *            buffer for payloads retrieved ahead
+     * @param payloads
+     *            store of the payloads embedded in the search results
+     * @param batchSize
+     *            maximum number of records retrieved by one request, 1
+     *            switches batch retrieval off
+     * @param maxPending
+     *            maximum number of pending records remembered
+     * @param readAhead
+     *            number of background threads retrieving pending records in
+     *            advance, 0 switches read-ahead off
+     * @param parserPool
+     *            pool providing the parsers of batch responses
+     */
+    public RecordContentFetcher(EscidocConnector connector,
+        RecordContentCache cache, EmbeddedPayloadStore payloads, int batchSize,
+        int maxPending, int readAhead, SaxParserPool parserPool) {
+        this.connector = connector;
+        this.cache = cache;
+        this.payloads = payloads;
+        this.batchSize = batchSize;
+        this.maxPending = maxPending;
+        this.readAhead = readAhead;
+        if (readAhead > 0) {
+            this.prefetcher =
+                new ThreadPoolExecutor(readAhead, readAhead, 0L,
+                    TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+                        readAhead), new NamedThreadFactory(
+                        "oaiprovider-prefetch-"));
+        }
+        else {
+            this.prefetcher = null;
+        }
+        this.parserPool = parserPool;
+    }
+
+    public void recordListed(EscidocRecord record) {
+        if (record.isDeleted()) {
+            return;
+        }
+        String key =
+            RecordContentCache.key(record.getResourceType(),
+                record.getResourceId(), record.getDissemination());
+        if (record.getPayload() != null) {
+            payloads.put(key, record.getPayload());
+            return;
+        }
+        if (readAhead <= 0
+            && (batchSize <= 1 || !isBatchable(record.getDissemination()))) {
+            return;
+        }
+        synchronized (this) {
+            pending.put(key, new PendingRecord(record.getResourceId(), record
+                .getResourceType(), record.getDissemination()));
+            Iterator<String> it = pending.keySet().iterator();
+            while (pending.size() > maxPending && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        readAhead();
+    }
+
+    /**
+     * Returns the payload of a record.
+     *
+     * @param resourceId
+     *            id of the escidoc resource
+     * @param resourceType
+     *            type of the escidoc resource
+     * @param dissURI
+     *            dissemination type of the format
+     * @return the payload
+     * @throws RepositoryException
+     *             if it cannot be retrieved
+     */
+    public String fetch(
+        String resourceId, String resourceType, String dissURI)
+        throws RepositoryException {
+        String key = RecordContentCache.key(resourceType, resourceId, dissURI);
+        String content = payloads.take(key);
+        if (content == null) {
+            content = cache.take(key);
+        }
+        if (content == null) {
+            content = awaitInFlight(key);
+        }
+        if (content == null) {
+            Bulkhead bulkhead = bulkheads.get(dissURI);
+            if (bulkhead != null) {
+                bulkhead.acquire();
+            }
+            try {
+                if (batchSize > 1 && isBatchable(dissURI)) {
+                    content =
+                        fetchBatch(key, resourceId, resourceType, dissURI,
+                            false);
+                }
+                if (content == null) {
+                    synchronized (this) {
+                        pending.remove(key);
+                    }
+                    content = retrieve(resourceId, resourceType, dissURI);
+                }
+            }
+            finally {
+                if (bulkhead != null) {
+                    bulkhead.release();
+                }
+            }
+        }
+        readAhead();
+        return content;
+    }
+
+    /**
+     * Bounds the retrievals of writeRecordXML per dissemination, so a slow
+     * format cannot occupy all callers. Payloads which are buffered or
+     * embedded are served without a permit; the read-ahead is bounded by
+     * its own pool.
+     *
+     * @param bulkheadsByDissemination
+     *            bulkheads by dissemination type, disseminations without
+     *            one are not bounded
+     */
+    public void setBulkheads(Map<String, Bulkhead> bulkheadsByDissemination) {
+        this.bulkheads =
+            Collections.unmodifiableMap(new HashMap<String, Bulkhead>(
+                bulkheadsByDissemination));
+    }
+
+    /**
+     * Waits for a running retrieval of the payload with the provided key.
+     *
+     * @return the payload or null, if it is not being retrieved or the
+     *         retrieval failed
+     */
+    private String awaitInFlight(String key) {
+        CountDownLatch running;
+        synchronized (this) {
+            running = inFlight.get(key);
+        }
+        if (running == null) {
+            return null;
+        }
+        try {
+            running.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return cache.take(key);
+    }
+
+    /**
+     * Hands the next pending records to the background threads while the
+     * buffer has room.
+     */
+    private void readAhead() {
+        if (prefetcher == null) {
+            return;
+        }
+        while (true) {
+            final PendingRecord record;
+            final String key;
+            final CountDownLatch latch = new CountDownLatch(1);
+            synchronized (this) {
+                if (prefetching >= readAhead || pending.isEmpty()
+                    || !cache.hasRoom()) {
+                    return;
+                }
+                Iterator<Map.Entry<String, PendingRecord>> it =
+                    pending.entrySet().iterator();
+                Map.Entry<String, PendingRecord> next = it.next();
+                it.remove();
+                key = next.getKey();
+                record = next.getValue();
+                if (inFlight.containsKey(key) || cache.contains(key)) {
+                    continue;
+                }
+                if (!record.isBatchable()) {
+                    inFlight.put(key, latch);
+                }
+                prefetching++;
+            }
+            try {
+                prefetcher.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            prefetch(key, record, latch);
+                        }
+                        finally {
+                            synchronized (RecordContentFetcher.this) {
+                                prefetching--;
+                            }
+                            readAhead();
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    prefetching--;
+                    inFlight.remove(key);
+                }
+                latch.countDown();
+                return;
+            }
+        }
+    }
+
+    private void prefetch(
+        String key, PendingRecord record, CountDownLatch latch) {
+        try {
+            if (record.isBatchable()) {
+                fetchBatch(key, record.resourceId, record.resourceType,
+                    record.dissURI, true);
+            }
+            else {
+                cache.put(key, retrieve(record.resourceId,
+                    record.resourceType, record.dissURI));
+            }
+        }
+        catch (RepositoryException e) {
+            logger.debug("Prefetching " + key + " failed", e);
+        }
+        finally {
+            if (!record.isBatchable()) {
+                synchronized (this) {
+                    inFlight.remove(key);
+                }
+                latch.countDown();
+            }
+        }
+    }
+
+    /**
+     * Retrieves the payload of a record together with the payloads of the
+     * next pending records, or waits for a batch already retrieving it.
+     *
+     * @param bufferRequested
+     *            whether the payload of the requested record is buffered as
+     *            well, before waiting threads are released
+     * @return the payload or null, if it has to be retrieved by a single
+     *         request
+     */
+    private String fetchBatch(
+        String key, String resourceId, String resourceType, String dissURI,
+        boolean bufferRequested) {
+        CountDownLatch running;
+        List<String> ids = new ArrayList<String>();
+        CountDownLatch batch = new CountDownLatch(1);
+        synchronized (this) {
+            pending.remove(key);
+            running = inFlight.get(key);
+            if (running == null) {
+                ids.add(resourceId);
+                inFlight.put(key, batch);
+                Iterator<PendingRecord> it = pending.values().iterator();
+                int scanned = 0;
+                while (ids.size() < batchSize && it.hasNext()
+                    && scanned++ < batchSize * SCAN_FACTOR) {
+                    PendingRecord record = it.next();
+                    if (record.resourceType.equals(resourceType)
+                        && record.dissURI.equals(dissURI)) {
+                        it.remove();
+                        String recordKey =
+                            RecordContentCache.key(resourceType,
+                                record.resourceId, dissURI);
+                        if (!inFlight.containsKey(recordKey)
+                            && !cache.contains(recordKey)) {
+                            ids.add(record.resourceId);
+                            inFlight.put(recordKey, batch);
+                        }
+                    }
+                }
+            }
+        }
+        if (running != null) {
+            if (bufferRequested) {
+                // the running retrieval serves the record
+                return null;
+            }
+            try {
+                running.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return cache.take(key);
+        }
+        if (ids.size() == 1 && !bufferRequested) {
+            finishBatch(ids, resourceType, dissURI, batch);
+            return null;
+        }
+        try {
+            Map<String, String> contents =
+                retrieveBatch(resourceType, dissURI, ids);
+            for (Map.Entry<String, String> entry : contents.entrySet()) {
+                if (bufferRequested || !entry.getKey().equals(resourceId)) {
+                    cache.put(RecordContentCache.key(resourceType, entry
+                        .getKey(), dissURI), entry.getValue());
+                }
+            }
+            return contents.get(resourceId);
+        }
+        catch (RepositoryException e) {
+            logger.warn("Retrieving " + ids.size() + " " + resourceType
+                + "s at once failed, retrieving them one by one", e);
+            return null;
+        }
+        finally {
+            finishBatch(ids, resourceType, dissURI, batch);
+        }
+    }
+
+    /**
+     * Stops the read-ahead and releases the stored payloads.
+     */
+    public void close() {
+        if (prefetcher != null) {
+            prefetcher.shutdownNow();
+        }
+        logger.info(payloads);
+        payloads.close();
+    }
+
+    private void finishBatch(
+        List<String> ids, String resourceType, String dissURI,
+        CountDownLatch batch) {
+        synchronized (this) {
+            for (String id : ids) {
+                inFlight.remove(RecordContentCache.key(resourceType, id,
+                    dissURI));
+            }
+        }
+        batch.countDown();
+    }
+
+    private static boolean isBatchable(String dissURI) {
+        return !dissURI.equals("DC") && !dissURI.startsWith("resources");
+    }
+
+    /**
+     * Retrieves the md-records with the provided name of the resources with
+     * the provided ids by one filtered list request.
+     *
+     * @return md-record contents by resource id
+     */
+    private Map<String, String> retrieveBatch(
+        String resourceType, String mdRecordName, List<String> resourceIds)
+        throws RepositoryException {
+        GetMethod getWithList =
+            connector.requestRetrieveResourceList(resourceType,
+                resourceIds);
+        ResourceListMdRecordHandler handler =
+            new ResourceListMdRecordHandler(mdRecordName);
+        try {
+            parserPool.parse("fetch.retrieveBatch",
+                getWithList.getResponseBodyAsStream(), handler);
+        }
+        catch (IOException e) {
+            throw new RepositoryException(e.getMessage(), e);
+        }
+        finally {
+            getWithList.releaseConnection();
+        }
+        return handler.getMdRecords();
+    }
+
+    /**
+     * Retrieves the payload of a single record.
+     */
+    private String retrieve(
+        String resourceId, String resourceType, String dissURI)
+        throws RepositoryException {
+        GetMethod getWithMdRecordContent = null;
+        if (dissURI.equals("DC")) {
+            getWithMdRecordContent =
+                connector.requestRetrieveDc(resourceId, resourceType);
+        }
+        else if (dissURI.startsWith("resources")) {
+            getWithMdRecordContent =
+                connector.requestRetrieveResource(resourceId,
+                    resourceType, dissURI);
+        }
+        else {
+            getWithMdRecordContent =
+                connector.requestRetrieveMdRecord(resourceId,
+                    resourceType, dissURI);
+        }
+        InputStream in = null;
+        BufferedReader reader = null;
+        try {
+            in = getWithMdRecordContent.getResponseBodyAsStream();
+            if (in == null) {
+                throw new RepositoryException(
+                    "Body content of a GET-request is null " + resourceId
+                        + " dissemination: " + dissURI);
+            }
+            // FIXME use xml reader for reading xml, charset of HTTP response
+            // might not be charset of XML document (https://www.escidoc.org/jira/browse/INFR-930)
+            String charset = getWithMdRecordContent.getResponseCharSet();
+            reader = new BufferedReader(new InputStreamReader(in, charset));
+            StringBuffer buf = new StringBuffer();
+            String line = reader.readLine();
+            while (line != null) {
+                buf.append(line + "\n");
+                line = reader.readLine();
+            }
+            return buf.toString();
+        }
+        catch (IOException e) {
+            throw new RepositoryException("IO error reading " + dissURI, e);
+        }
+        finally {
+            getWithMdRecordContent.releaseConnection();
+            if (reader != null) {
+                try {
+                    reader.close();
+                }
+                catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    private final class PendingRecord {
+        private final String resourceId;
+
+        private final String resourceType;
+
+        private final String dissURI;
+
+        private PendingRecord(String resourceId, String resourceType,
+            String dissURI) {
+            this.resourceId = resourceId;
+            this.resourceType = resourceType;
+            this.dissURI = dissURI;
+        }
+
+        private boolean isBatchable() {
+            return batchSize > 1
+                && RecordContentFetcher.isBatchable(dissURI);
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package org.escidoc.services.oaiprovider;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import org.apache.log4j.Logger;
+
+import proai.error.RepositoryException;
+
+/**
+ * A record list written by the {@link RecordListWriter}, held in memory or
+ * memory mapped from its spill file. The offset index of the list gives
+ * random access to every record, so the list can be read from any position
+ * and split into ranges which are consumed by independent {@link Cursor}s,
+ * also from several threads.
+ */
+public class RecordList {
+    private static final Logger logger =
+        Logger.getLogger(RecordList.class.getName());
+
+    private static final LZ4FastDecompressor DECOMPRESSOR = LZ4Factory
+        .fastestInstance().fastDecompressor();
+
+    /**
+     * Maximum size of a mapped segment. Segments end at block boundaries.
+     */
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+    private final File file;
+
+    private final boolean deleteOnClose;
+
+    private final long size;
+
+    private final String oaiIdPrefix;
+
+    private final String[] dictionary;
+
+    private final LongBuffer index;
+
+    private final boolean compressed;
+
+    private final int[] rawLengths;
+
+    /**
+     * Blocks of a list held in memory, null for a mapped list.
+     */
+    private final byte[][] memoryBlocks;
+
+    private final long[] blockPositions;
+
+    private final int[] storedLengths;
+
+    private final ByteBuffer[] segments;
+
+    private final long[] segmentStarts;
+
+    private final int[] segmentFirstBlocks;
+
+    private boolean closed = false;
+
+    /**
+     * Creates a list held in memory.
+     */
+    RecordList(String oaiIdPrefix, String[] dictionary, long[] index,
+        byte[][] blocks, int[] rawLengths, boolean compressed) {
+        this.file = null;
+        this.deleteOnClose = false;
+        this.size = index.length;
+        this.oaiIdPrefix = oaiIdPrefix;
+        this.dictionary = dictionary;
+        this.index = LongBuffer.wrap(index);
+        this.memoryBlocks = blocks;
+        this.rawLengths = rawLengths;
+        this.compressed = compressed;
+        this.blockPositions = null;
+        this.storedLengths = null;
+        this.segments = null;
+        this.segmentStarts = null;
+        this.segmentFirstBlocks = null;
+    }
+
+    /**
+     * Maps a list from its file.
+     * 
+     * @param deleteOnClose
+     *            whether to delete the file when the list is closed
+     */
+    public RecordList(File file, boolean deleteOnClose)
+        throws RepositoryException {
+        this.file = file;
+        this.deleteOnClose = deleteOnClose;
+        this.memoryBlocks = null;
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            long fileSize = channel.size();
+            if (fileSize < RecordListFormat.FOOTER_SIZE) {
+                throw new IOException("Record list is incomplete");
+            }
+            ByteBuffer footer =
+                channel.map(FileChannel.MapMode.READ_ONLY, fileSize
+                    - RecordListFormat.FOOTER_SIZE,
+                    RecordListFormat.FOOTER_SIZE);
+            long dictionaryPosition = footer.getLong();
+            long blockTablePosition = footer.getLong();
+            long indexPosition = footer.getLong();
+            int blockCount = footer.getInt();
+            size = footer.getLong();
+            compressed = footer.get() != 0;
+            if (footer.getInt() != RecordListFormat.MAGIC) {
+                throw new IOException("Record list is incomplete");
+            }
+            if (size * 8 > Integer.MAX_VALUE) {
+                throw new IOException("Record list index is too big: " + size);
+            }
+
+            ByteBuffer dict =
+                channel.map(FileChannel.MapMode.READ_ONLY, dictionaryPosition,
+                    blockTablePosition - dictionaryPosition);
+            oaiIdPrefix = getString(dict);
+            dictionary = new String[dict.getInt()];
+            for (int i = 0; i < dictionary.length; i++) {
+                dictionary[i] = getString(dict);
+            }
+            ByteBuffer blockTable =
+                channel.map(FileChannel.MapMode.READ_ONLY, blockTablePosition,
+                    indexPosition - blockTablePosition);
+            blockPositions = new long[blockCount];
+            storedLengths = new int[blockCount];
+            rawLengths = new int[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                blockPositions[i] = blockTable.getLong();
+                storedLengths[i] = blockTable.getInt();
+                rawLengths[i] = blockTable.getInt();
+            }
+            index =
+                channel.map(FileChannel.MapMode.READ_ONLY, indexPosition,
+                    size * 8).asLongBuffer();
+
+            List<int[]> bounds = new ArrayList<int[]>();
+            int block = 0;
+            while (block < blockCount) {
+                int first = block;
+                long start = blockPositions[first];
+                block++;
+                while (block < blockCount
+                    && blockPositions[block] + storedLengths[block] - start <= MAX_SEGMENT_SIZE) {
+                    block++;
+                }
+                bounds.add(new int[] { first, block });
+            }
+            segments = new ByteBuffer[bounds.size()];
+            segmentStarts = new long[bounds.size()];
+            segmentFirstBlocks = new int[bounds.size()];
+            for (int i = 0; i < segments.length; i++) {
+                int[] b = bounds.get(i);
+                long start = blockPositions[b[0]];
+                long end = blockPositions[b[1] - 1] + storedLengths[b[1] - 1];
+                segments[i] =
+                    channel.map(FileChannel.MapMode.READ_ONLY, start, end
+                        - start);
+                segmentStarts[i] = start;
+                segmentFirstBlocks[i] = b[0];
+            }
+        }
+        catch (IOException e) {
+            close();
+            throw new RepositoryException("Error reading record list " + file,
+                e);
+        }
+        finally {
+            if (raf != null) {
+                try {
+                    // mappings stay valid after the channel is closed
+                    raf.close();
+                }
+                catch (IOException e) {
+                    logger.warn("Unable to close record list " + file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of records
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return true if the list is held in memory
+     */
+    public boolean isInMemory() {
+        return memoryBlocks != null;
+    }
+
+    /**
+     * Reads the record at the provided position.
+     */
+    public EscidocRecord get(
+        long position, String mdPrefix, String dissemination) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException(String.valueOf(position));
+        }
+        long entry = index.get((int) position);
+        ByteBuffer in = ByteBuffer.wrap(readBlock((int) (entry >>> 32)));
+        in.position((int) entry);
+        return decode(in, mdPrefix, dissemination);
+    }
+
+    /**
+     * @return a cursor over the records from position from (inclusive) to
+     *         position to (exclusive)
+     */
+    public Cursor cursor(long from, long to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException(from + "-" + to);
+        }
+        return new Cursor(from, to);
+    }
+
+    /**
+     * Splits the list into at most the provided number of ranges of about
+     * equal size.
+     */
+    public List<Cursor> split(int parts) {
+        List<Cursor> cursors = new ArrayList<Cursor>();
+        long step = Math.max(1, (size + parts - 1) / Math.max(1, parts));
+        for (long from = 0; from < size; from += step) {
+            cursors.add(new Cursor(from, Math.min(size, from + step)));
+        }
+        return cursors;
+    }
+
+    /**
+     * Deletes the file if the list was opened with the option to do so.
+     * Cursors must not be used afterwards.
+     */
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (deleteOnClose && file != null) {
+            // the mapped memory is released by the garbage collector
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * @return the uncompressed content of a block
+     */
+    private byte[] readBlock(int block) {
+        byte[] stored;
+        if (memoryBlocks != null) {
+            stored = memoryBlocks[block];
+        }
+        else {
+            int segment = segmentOf(block);
+            ByteBuffer in = segments[segment].duplicate();
+            in.position((int) (blockPositions[block] - segmentStarts[segment]));
+            stored = new byte[storedLengths[block]];
+            in.get(stored);
+        }
+        if (!compressed) {
+            return stored;
+        }
+        byte[] raw = new byte[rawLengths[block]];
+        DECOMPRESSOR.decompress(stored, 0, raw, 0, raw.length);
+        return raw;
+    }
+
+    private int segmentOf(int block) {
+        int low = 0;
+        int high = segmentFirstBlocks.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (segmentFirstBlocks[mid] <= block) {
+                low = mid;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private EscidocRecord decode(
+        ByteBuffer in, String mdPrefix, String dissemination) {
+        in.getInt(); // length
+        byte flags = in.get();
+        String resourceType = dictionary[in.getInt()];
+        long date = in.getLong();
+        long releaseDate = in.getLong();
+        String[] specs = new String[in.getShort()];
+        for (int i = 0; i < specs.length; i++) {
+            specs[i] = dictionary[in.getInt()];
+        }
+        String resourceId = getString(in);
+        String payload = null;
+        if ((flags & RecordListFormat.FLAG_PAYLOAD) != 0) {
+            payload = getString(in);
+        }
+        EscidocRecord record =
+            new EscidocRecord(oaiIdPrefix + resourceId, resourceId, mdPrefix,
+                dissemination, RecordListFormat.formatDate(date),
+                (flags & RecordListFormat.FLAG_DELETED) != 0, specs,
+                RecordListFormat.formatDate(releaseDate), resourceType);
+        record.setPayload(payload);
+        return record;
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return RecordListFormat.utf8(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Reads a range of records sequentially. A cursor is not thread-safe, but
+     * any number of cursors of one list can be used in parallel.
+     */
+    public class Cursor {
+
+        private final long from;
+
+        private final long to;
+
+        private long position;
+
+        private int block = -1;
+
+        private ByteBuffer in;
+
+        private Cursor(long from, long to) {
+            this.from = from;
+            this.to = to;
+            this.position = from;
+        }
+
+        public boolean hasNext() {
+            return position < to;
+        }
+
+        /**
+         * @return the next record, or null at the end of the range
+         */
+        public EscidocRecord next(String mdPrefix, String dissemination) {
+            if (position >= to) {
+                return null;
+            }
+            long entry = index.get((int) position);
+            int recordBlock = (int) (entry >>> 32);
+            if (recordBlock != block) {
+                // the cursor keeps only the current block uncompressed
+                in = ByteBuffer.wrap(readBlock(recordBlock));
+                block = recordBlock;
+            }
+            in.position((int) entry);
+            position++;
+            return decode(in, mdPrefix, dissemination);
+        }
+
+        /**
+         * @return the position of the record returned by the next call of
+         *         next()
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * Moves the cursor to a position within its range.
+         */
+        public void seek(long position) {
+            if (position < from || position > to) {
+                throw new IndexOutOfBoundsException(String.valueOf(position));
+            }
+            this.position = position;
+        }
+
+        public long getFrom() {
+            return from;
+        }
+
+        public long getTo() {
+            return to;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.escidoc.services.oaiprovider;
+
+import java.io.UnsupportedEncodingException;
+
+import org.apache.log4j.Logger;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * Layout of the binary record list written by {@link RecordListWriter} and
+ * read by {@link RecordList}.
+ * <p>
+ * Records are an int length followed by that many bytes: flags (byte),
+ * resource type code (int), last modification date (long), latest release
+ * date (long), number of set specs (short), set spec codes (int each),
+ * resource id and, if flagged, the payload. Strings are stored as int length
+ * and UTF-8 bytes, dates as milliseconds since the epoch. Resource types and
+ * set specs are replaced by codes of a dictionary.
+ * <p>
+ * Records are packed into blocks of up to {@link #BLOCK_SIZE} bytes (a
+ * bigger record gets a block of its own), and every block is LZ4 compressed
+ * on its own, so that any record can be read by decompressing a single
+ * block. A list which spilled to a file contains the blocks, followed by the
+ * dictionary (the oai identifier prefix, the number of entries and the
+ * entries in code order), the block table (position (long), stored length
+ * (int) and raw length (int) of every block) and the index, the block
+ * (upper 32 bits) and offset within the block (lower 32 bits) of every
+ * record. The file ends with the positions of the dictionary, the block
+ * table and the index (long each), the number of blocks (int), the number
+ * of records (long), the compression flag (byte) and {@link #MAGIC} (int).
+ */
+final class RecordListFormat {
+    private static final Logger logger =
+        Logger.getLogger(RecordListFormat.class.getName());
+
+    static final int MAGIC = 0x4f414952;
+
+    static final int FOOTER_SIZE = 8 + 8 + 8 + 4 + 8 + 1 + 4;
+
+    static final byte FLAG_DELETED = 1;
+
+    static final byte FLAG_PAYLOAD = 2;
+
+    /**
+     * Stored for a missing date.
+     */
+    static final long NO_DATE = Long.MIN_VALUE;
+
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final DateTimeFormatter PARSER =
+        ISODateTimeFormat.dateTimeParser().withZoneUTC();
+
+    private static final DateTimeFormatter PRINTER =
+        ISODateTimeFormat.dateTime().withZoneUTC();
+
+    private RecordListFormat() {
+    }
+
+    static long parseDate(String date) {
+        if (date == null) {
+            return NO_DATE;
+        }
+        try {
+            return PARSER.parseMillis(date);
+        }
+        catch (IllegalArgumentException e) {
+            logger.warn("Unparsable date in search result: " + date);
+            return NO_DATE;
+        }
+    }
+
+    /**
+     * @return the date in the form yyyy-MM-ddTHH:mm:ss.SSSZ, or "null" for a
+     *         missing date as the record list always contained
+     */
+    static String formatDate(long date) {
+        return date == NO_DATE ? "null" : PRINTER.print(date);
+    }
+
+    static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String utf8(byte[] bytes, int offset, int length) {
+        try {
+            return new String(bytes, offset, length, "UTF-8");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
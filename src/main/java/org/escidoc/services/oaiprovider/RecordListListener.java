@@ -0,0 +1,11 @@
+package org.escidoc.services.oaiprovider;
+
+/**
+ * Gets notified about every record handed out by an
+ * {@link EscidocResourceIterator}, before its content is requested by
+ * writeRecordXML.
+ */
+public interface RecordListListener {
+
+    void recordListed(EscidocRecord record);
+}
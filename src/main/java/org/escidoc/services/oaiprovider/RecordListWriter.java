@@ -0,0 +1,427 @@
+package org.escidoc.services.oaiprovider;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+
+import org.apache.log4j.Logger;
+import org.escidoc.services.oaiprovider.stax.SearchRecord;
+
+import proai.error.RepositoryException;
+
+/**
+ * Writes the records of search responses to a binary record list, see
+ * {@link RecordListFormat} for the layout. The compressed blocks are kept in
+ * memory until they exceed a threshold; only then the list spills to a file
+ * in the spill directory.
+ */
+public class RecordListWriter implements SearchRecordSink {
+    private static final Logger logger =
+        Logger.getLogger(RecordListWriter.class.getName());
+
+    private static final LZ4Compressor COMPRESSOR = LZ4Factory
+        .fastestInstance().fastCompressor();
+
+    private final String oaiIdPrefix;
+
+    private final Vector<String> oldSets;
+
+    private final EscidocQueryFactory queryFactory;
+
+    private final File spillDir;
+
+    private final long memoryThreshold;
+
+    private final boolean compress;
+
+    private final ByteBuffer block =
+        ByteBuffer.allocate(RecordListFormat.BLOCK_SIZE);
+
+    private byte[] compressed = new byte[0];
+
+    private final Map<String, Integer> codes = new HashMap<String, Integer>();
+
+    private final List<String> dictionary = new ArrayList<String>();
+
+    private final List<Integer> setCodes = new ArrayList<Integer>();
+
+    private OuAncestryIndex ouAncestry;
+
+    private long count = 0;
+
+    private long[] index = new long[1024];
+
+    private int blockCount = 0;
+
+    private long[] blockPositions = new long[64];
+
+    private int[] storedLengths = new int[64];
+
+    private int[] rawLengths = new int[64];
+
+    private List<byte[]> memoryBlocks = new ArrayList<byte[]>();
+
+    private long stored = 0;
+
+    private File file;
+
+    private FileOutputStream fos;
+
+    private FileChannel channel;
+
+    /**
+     * @param oldSetSpecs
+     *            user defined sets whose members are already known to the
+     *            query factory; may be null
+     * @param spillDir
+     *            directory of the file the list spills to, null for the
+     *            default temporary directory
+     * @param memoryThreshold
+     *            number of stored bytes the list may keep in memory
+     * @param compress
+     *            whether to compress the blocks
+     */
+    public RecordListWriter(String namespaceIdentifier,
+        Vector<String> oldSetSpecs, EscidocQueryFactory queryFactory,
+        File spillDir, long memoryThreshold, boolean compress) {
+        this.oaiIdPrefix = "oai:" + namespaceIdentifier + ":";
+        this.oldSets = oldSetSpecs;
+        this.queryFactory = queryFactory;
+        this.spillDir = spillDir;
+        this.memoryThreshold = memoryThreshold;
+        this.compress = compress;
+    }
+
+    /**
+     * Makes the records members of the sets of all ancestors of their ous.
+     */
+    public void setOuAncestry(OuAncestryIndex ouAncestry) {
+        this.ouAncestry = ouAncestry;
+    }
+
+    public void write(SearchRecord record) throws RepositoryException {
+        write(record, record.getPayload());
+    }
+
+    /**
+     * Writes a record with the provided payload instead of its own.
+     *
+     * @param payload
+     *            the payload, may be null
+     */
+    public void write(SearchRecord record, String payload)
+        throws RepositoryException {
+        String id = record.getId();
+        setCodes.clear();
+        List<String> contextIds = record.getContextIds();
+        for (int i = 0; i < contextIds.size(); i++) {
+            setCodes.add(code("context_" + contextIds.get(i).replace(':', '_')));
+        }
+        List<String> ouIds = record.getOrganizationalUnitIds();
+        for (int i = 0; i < ouIds.size(); i++) {
+            setCodes.add(code(OuAncestryIndex.setSpec(ouIds.get(i))));
+        }
+        if (ouAncestry != null) {
+            for (int i = 0; i < ouIds.size(); i++) {
+                String[] ancestors =
+                    ouAncestry.getAncestorSetSpecs(ouIds.get(i));
+                for (int j = 0; j < ancestors.length; j++) {
+                    Integer ancestor = Integer.valueOf(code(ancestors[j]));
+                    if (!setCodes.contains(ancestor)) {
+                        setCodes.add(ancestor);
+                    }
+                }
+            }
+        }
+        if (oldSets != null && !oldSets.isEmpty()) {
+            String resourceId = oaiIdPrefix + id;
+            for (int i = 0; i < oldSets.size(); i++) {
+                String setSpec = oldSets.get(i);
+                Vector<String> resourceIds =
+                    queryFactory.retrieveIdsForSetQuery(setSpec);
+                if (resourceIds != null && resourceIds.contains(resourceId)) {
+                    setCodes.add(code(setSpec));
+                }
+            }
+        }
+
+        byte flags = 0;
+        if (record.isDeleted()) {
+            flags |= RecordListFormat.FLAG_DELETED;
+        }
+        byte[] idBytes = RecordListFormat.utf8(String.valueOf(id));
+        byte[] payloadBytes = null;
+        if (payload != null) {
+            flags |= RecordListFormat.FLAG_PAYLOAD;
+            payloadBytes = RecordListFormat.utf8(payload);
+        }
+        int length =
+            1 + 4 + 8 + 8 + 2 + 4 * setCodes.size() + 4 + idBytes.length;
+        if (payloadBytes != null) {
+            length += 4 + payloadBytes.length;
+        }
+
+        if (block.remaining() < 4 + length && block.position() > 0) {
+            finishBlock(block);
+        }
+        ByteBuffer out = block;
+        if (block.remaining() < 4 + length) {
+            // a record bigger than a block gets a block of its own
+            out = ByteBuffer.allocate(4 + length);
+        }
+        if (count == index.length) {
+            index = grow(index);
+        }
+        index[(int) count] = ((long) blockCount << 32) | out.position();
+        out.putInt(length);
+        out.put(flags);
+        out.putInt(code(String.valueOf(record.getResourceType())));
+        out.putLong(RecordListFormat.parseDate(record
+            .getLastModificationDate()));
+        out.putLong(RecordListFormat.parseDate(record.getLatestReleaseDate()));
+        out.putShort((short) setCodes.size());
+        for (int i = 0; i < setCodes.size(); i++) {
+            out.putInt(setCodes.get(i).intValue());
+        }
+        out.putInt(idBytes.length);
+        out.put(idBytes);
+        if (payloadBytes != null) {
+            out.putInt(payloadBytes.length);
+            out.put(payloadBytes);
+        }
+        if (out != block) {
+            finishBlock(out);
+        }
+        count++;
+    }
+
+    /**
+     * @return number of records written
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Completes the list.
+     *
+     * @return the list, which deletes its file when it is closed
+     */
+    public RecordList close() throws RepositoryException {
+        if (block.position() > 0) {
+            finishBlock(block);
+        }
+        String[] entries = dictionary.toArray(new String[dictionary.size()]);
+        if (channel == null) {
+            byte[][] blocks =
+                memoryBlocks.toArray(new byte[memoryBlocks.size()][]);
+            memoryBlocks = null;
+            return new RecordList(oaiIdPrefix, entries, trim(index, count),
+                blocks, trim(rawLengths, blockCount), compress);
+        }
+        try {
+            ByteBuffer out = ByteBuffer.allocate(RecordListFormat.BUFFER_SIZE);
+            long dictionaryPosition = stored;
+            out = putString(out, oaiIdPrefix);
+            out = reserve(out, 4).putInt(entries.length);
+            for (int i = 0; i < entries.length; i++) {
+                out = putString(out, entries[i]);
+            }
+            long blockTablePosition = stored + out.position();
+            for (int i = 0; i < blockCount; i++) {
+                out = reserve(out, 16);
+                out.putLong(blockPositions[i]);
+                out.putInt(storedLengths[i]);
+                out.putInt(rawLengths[i]);
+            }
+            long indexPosition = stored + out.position();
+            for (int i = 0; i < count; i++) {
+                out = reserve(out, 8).putLong(index[i]);
+            }
+            out = reserve(out, RecordListFormat.FOOTER_SIZE);
+            out.putLong(dictionaryPosition);
+            out.putLong(blockTablePosition);
+            out.putLong(indexPosition);
+            out.putInt(blockCount);
+            out.putLong(count);
+            out.put(compress ? (byte) 1 : (byte) 0);
+            out.putInt(RecordListFormat.MAGIC);
+            out.flip();
+            store(out);
+        }
+        finally {
+            closeFile();
+        }
+        return new RecordList(file, true);
+    }
+
+    /**
+     * Discards the list.
+     */
+    public void abort() {
+        memoryBlocks = null;
+        if (channel != null) {
+            closeFile();
+            file.delete();
+        }
+    }
+
+    private void finishBlock(ByteBuffer raw) throws RepositoryException {
+        int rawLength = raw.position();
+        byte[] data;
+        int length;
+        if (compress) {
+            int max = COMPRESSOR.maxCompressedLength(rawLength);
+            if (compressed.length < max) {
+                compressed = new byte[max];
+            }
+            length =
+                COMPRESSOR.compress(raw.array(), 0, rawLength, compressed, 0,
+                    max);
+            data = compressed;
+        }
+        else {
+            length = rawLength;
+            data = raw.array();
+        }
+        if (blockCount == rawLengths.length) {
+            blockPositions = grow(blockPositions);
+            storedLengths = grow(storedLengths);
+            rawLengths = grow(rawLengths);
+        }
+        blockPositions[blockCount] = stored;
+        storedLengths[blockCount] = length;
+        rawLengths[blockCount] = rawLength;
+        blockCount++;
+
+        if (channel == null && stored + length > memoryThreshold) {
+            spill();
+        }
+        if (channel == null) {
+            byte[] copy = new byte[length];
+            System.arraycopy(data, 0, copy, 0, length);
+            memoryBlocks.add(copy);
+            stored += length;
+        }
+        else {
+            store(ByteBuffer.wrap(data, 0, length));
+        }
+        raw.clear();
+    }
+
+    /**
+     * Moves the blocks kept in memory to a new file in the spill directory.
+     */
+    private void spill() throws RepositoryException {
+        try {
+            file = File.createTempFile("oaiprovider_record_list", ".tmp",
+                spillDir);
+            file.deleteOnExit(); // just in case
+            fos = new FileOutputStream(file);
+            channel = fos.getChannel();
+        }
+        catch (IOException e) {
+            throw new RepositoryException(
+                "Error creating temp record list file", e);
+        }
+        logger.debug("Record list spills to " + file);
+        stored = 0;
+        for (int i = 0; i < memoryBlocks.size(); i++) {
+            store(ByteBuffer.wrap(memoryBlocks.get(i)));
+        }
+        memoryBlocks.clear();
+    }
+
+    private void store(ByteBuffer data) throws RepositoryException {
+        try {
+            while (data.hasRemaining()) {
+                stored += channel.write(data);
+            }
+        }
+        catch (IOException e) {
+            throw new RepositoryException("Error writing record list " + file,
+                e);
+        }
+    }
+
+    private void closeFile() {
+        try {
+            fos.close();
+        }
+        catch (IOException e) {
+            logger.warn("Unable to close record list " + file, e);
+        }
+    }
+
+    private int code(String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = Integer.valueOf(dictionary.size());
+            codes.put(value, code);
+            dictionary.add(value);
+        }
+        return code.intValue();
+    }
+
+    private ByteBuffer putString(ByteBuffer out, String s)
+        throws RepositoryException {
+        byte[] bytes = RecordListFormat.utf8(s);
+        out = reserve(out, 4 + bytes.length);
+        out.putInt(bytes.length);
+        out.put(bytes);
+        return out;
+    }
+
+    /**
+     * Writes the content of the buffer to the file if less than size bytes
+     * are remaining.
+     *
+     * @return a buffer with at least size bytes remaining
+     */
+    private ByteBuffer reserve(ByteBuffer out, int size)
+        throws RepositoryException {
+        if (out.remaining() < size) {
+            out.flip();
+            store(out);
+            out.clear();
+            if (out.remaining() < size) {
+                return ByteBuffer.allocate(size);
+            }
+        }
+        return out;
+    }
+
+    private static long[] grow(long[] array) {
+        long[] grown = new long[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static int[] grow(int[] array) {
+        int[] grown = new int[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static long[] trim(long[] array, long length) {
+        long[] trimmed = new long[(int) length];
+        System.arraycopy(array, 0, trimmed, 0, trimmed.length);
+        return trimmed;
+    }
+
+    private static int[] trim(int[] array, int length) {
+        int[] trimmed = new int[length];
+        System.arraycopy(array, 0, trimmed, 0, length);
+        return trimmed;
+    }
+}
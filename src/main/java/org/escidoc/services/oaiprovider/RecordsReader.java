@@ -1,15 +1,12 @@
 package org.escidoc.services.oaiprovider;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStreamReader;
+
+import proai.error.RepositoryException;
 
 /**
- * Reads lines from a file, containing a result of search queries, into an
- * iterator, which can be used to build EscidocRecords.
+ * Reads the records of a record list, containing a result of search queries,
+ * sequentially into EscidocRecords.
  * 
  * @author ROF
  * 
@@ -17,92 +14,67 @@ import java.io.InputStreamReader;
 
 public class RecordsReader {
 
-    private File m_f;
+    private final RecordList m_list;
 
-    private boolean m_deleteOnClose;
+    private final RecordList.Cursor m_cursor;
 
-    private BufferedReader m_r;
+    private final boolean m_closeList;
 
     /**
-     * Initialize with a BufferedReader containing the input data.
-     * 
-     * @param r
-     *            The result of the search queries. Must be provided.
-     * 
-     */
-    public RecordsReader(BufferedReader r) {
-        m_r = r;
-
-    }
-
-    /**
-     * Initialize with a File containing the input data, optionally deleting
-     * them when the RecordsReader is closed.
+     * Initialize with a File containing the record list, optionally deleting
+     * it when the RecordsReader is closed.
      * 
      * @param f
-     *            The result of the search queries. Must be provided.
+     *            The record list. Must be provided.
      * 
      * @param deleteOnClose
      *            Whether to delete a provided file when this RecordsReader is
      *            closed.
      */
     public RecordsReader(File f, boolean deleteOnClose)
-        throws FileNotFoundException {
-        m_f = f;
-        m_deleteOnClose = deleteOnClose;
-        m_r =
-            new BufferedReader(new InputStreamReader(new FileInputStream(m_f)));
+        throws RepositoryException {
+        m_list = new RecordList(f, deleteOnClose);
+        m_cursor = m_list.cursor(0, m_list.size());
+        m_closeList = true;
+    }
 
+    /**
+     * Initialize with a record list, which is closed with the RecordsReader.
+     */
+    public RecordsReader(RecordList list) {
+        m_list = list;
+        m_cursor = m_list.cursor(0, m_list.size());
+        m_closeList = true;
     }
 
     /**
-     * Get the next line of output, or null if we've reached the end.
+     * Initialize with a range of a record list, which is not closed with the
+     * RecordsReader.
      */
-    public String readLine() {
-        String line = nextLine(m_r);
-        if (line == null) {
-            close();
-            return null;
-        }
-        else {
-            return line;
-        }
+    public RecordsReader(RecordList.Cursor cursor) {
+        m_list = null;
+        m_cursor = cursor;
+        m_closeList = false;
     }
 
     /**
-     * Get the next line, skipping any that are blank.
+     * Get the next record, or null if we've reached the end.
      */
-    private static String nextLine(BufferedReader r) {
-        try {
-            String line = r.readLine();
-            while (line != null && (line.trim().equals(""))) {
-                line = r.readLine();
-            }
-            if (line == null) {
-                return null;
-            }
-            else {
-                return line.trim();
-            }
-        }
-        catch (IOException e) {
-            System.err.println("WARNING: " + e.getMessage());
-            return null;
+    public EscidocRecord readRecord(String mdPrefix, String dissemination) {
+        EscidocRecord record = m_cursor.next(mdPrefix, dissemination);
+        if (record == null) {
+            close();
         }
+        return record;
     }
 
     /**
-     * Close the input readers and delete the associated files if the combiner
+     * Close the record list and delete the associated file if the reader
      * was constructed with the option to do so.
      */
     public void close() {
-        try {
-            m_r.close();
-        }
-        catch (Throwable th) {
-        }
-        if (m_deleteOnClose) {
-            m_f.delete();
+        if (m_closeList) {
+            m_list.close();
         }
     }
 
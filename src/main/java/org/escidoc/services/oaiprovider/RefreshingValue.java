@@ -0,0 +1,169 @@
+package org.escidoc.services.oaiprovider;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.log4j.Logger;
+
+import proai.error.RepositoryException;
+
+/**
+ * Caches a single value which is expensive to load and rarely changes, like
+ * the Identify document or the latest record date. A value is served for
+ * its time to live. Once it is older than the refresh time, the next call
+ * still gets it while a reload runs in the background, so callers only wait
+ * for the network if the value expired or was never loaded. Loads are
+ * single-flight: concurrent callers of an expired value wait for one load.
+ * A failed background reload keeps the old value until it expires.
+ *
+ * @param <V>
+ *            type of the value
+ */
+public class RefreshingValue<V> {
+    private static final Logger logger =
+        Logger.getLogger(RefreshingValue.class.getName());
+
+    /**
+     * Loads the current value.
+     */
+    public interface Loader<V> {
+        V load() throws RepositoryException;
+    }
+
+    private final String name;
+
+    private final Loader<V> loader;
+
+    private final long timeToLive;
+
+    private final long refreshAfter;
+
+    private final Executor executor;
+
+    private final Object loadLock = new Object();
+
+    private volatile Entry<V> entry;
+
+    private boolean refreshing = false;
+
+    private long loads = 0;
+
+    private long hits = 0;
+
+    /**
+     * @param name
+     *            name of the value, used for logging
+     * @param timeToLive
+     *            milliseconds a loaded value is served
+     * @param refreshAfter
+     *            milliseconds after which a value is reloaded in the
+     *            background; not less than timeToLive disables refresh-ahead
+     * @param executor
+     *            runs the background reloads
+     */
+    public RefreshingValue(
+        String name, Loader<V> loader, long timeToLive, long refreshAfter,
+        Executor executor) {
+        this.name = name;
+        this.loader = loader;
+        this.timeToLive = timeToLive;
+        this.refreshAfter = refreshAfter;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the cached value, loading it if it expired
+     */
+    public V get() throws RepositoryException {
+        long now = System.currentTimeMillis();
+        Entry<V> current = entry;
+        if (current != null && now < current.loaded + timeToLive) {
+            if (now >= current.loaded + refreshAfter) {
+                refreshAhead();
+            }
+            synchronized (this) {
+                hits++;
+            }
+            return current.value;
+        }
+        synchronized (loadLock) {
+            // another caller may have loaded it meanwhile
+            current = entry;
+            if (current != null
+                && System.currentTimeMillis() < current.loaded + timeToLive) {
+                return current.value;
+            }
+            return load().value;
+        }
+    }
+
+    /**
+     * Discards the cached value, so the next call loads it again.
+     */
+    public void invalidate() {
+        entry = null;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "RefreshingValue " + name + ": loads=" + loads + " hits="
+            + hits;
+    }
+
+    /**
+     * Must be called holding the load lock.
+     */
+    private Entry<V> load() throws RepositoryException {
+        V value = loader.load();
+        Entry<V> loaded = new Entry<V>(value, System.currentTimeMillis());
+        entry = loaded;
+        synchronized (this) {
+            loads++;
+        }
+        return loaded;
+    }
+
+    private void refreshAhead() {
+        synchronized (this) {
+            if (refreshing) {
+                return;
+            }
+            refreshing = true;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        synchronized (loadLock) {
+                            load();
+                        }
+                    }
+                    catch (RuntimeException e) {
+                        logger.warn("Unable to refresh " + name, e);
+                    }
+                    finally {
+                        refreshDone();
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            refreshDone();
+        }
+    }
+
+    private synchronized void refreshDone() {
+        refreshing = false;
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+
+        private final long loaded;
+
+        private Entry(V value, long loaded) {
+            this.value = value;
+            this.loaded = loaded;
+        }
+    }
+}
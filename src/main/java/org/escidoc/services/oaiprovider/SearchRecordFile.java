@@ -0,0 +1,57 @@
+package org.escidoc.services.oaiprovider;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.escidoc.services.oaiprovider.stax.SearchRecord;
+
+import proai.error.RepositoryException;
+
+/**
+ * Reads and writes the files of search records kept by
+ * {@link HarvestCheckpoint} and {@link SharedEnumeration}. Every record is
+ * preceded by a marker byte, so a file cut at a record boundary stays
+ * readable.
+ */
+final class SearchRecordFile {
+
+    private static final int MARKER = 1;
+
+    private SearchRecordFile() {
+    }
+
+    static void write(SearchRecord record, DataOutput out) throws IOException {
+        out.write(MARKER);
+        record.writeTo(out);
+    }
+
+    /**
+     * Passes all records of the file to the sink.
+     */
+    static void read(File file, SearchRecordSink sink)
+        throws RepositoryException {
+        try {
+            DataInputStream in =
+                new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file), 64 * 1024));
+            try {
+                SearchRecord record = new SearchRecord();
+                while (in.read() == MARKER) {
+                    record.readFrom(in);
+                    sink.write(record);
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            throw new RepositoryException("Error reading search records "
+                + file, e);
+        }
+    }
+}
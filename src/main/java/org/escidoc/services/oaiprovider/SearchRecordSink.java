@@ -0,0 +1,14 @@
+package org.escidoc.services.oaiprovider;
+
+import org.escidoc.services.oaiprovider.stax.SearchRecord;
+
+import proai.error.RepositoryException;
+
+/**
+ * Receives the records of a search query result. Records passed to
+ * {@link #write(SearchRecord)} may be reused by the caller afterwards.
+ */
+public interface SearchRecordSink {
+
+    void write(SearchRecord record) throws RepositoryException;
+}
@@ -0,0 +1,144 @@
+package org.escidoc.services.oaiprovider;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import proai.SetInfo;
+import proai.driver.RemoteIterator;
+import proai.error.RepositoryException;
+
+/**
+ * Keeps the serialized XML of every set together with a hash of its content.
+ * Proai asks for all sets on every poll, but sets rarely change: a set whose
+ * spec, name and description hash to the stored value gets the stored
+ * fragment instead of being escaped and serialized again. The fragments of
+ * sets missing from a complete listing are dropped.
+ */
+public class SetFragmentCache {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Map<String, Fragment> fragments =
+        new HashMap<String, Fragment>();
+
+    private long reused = 0;
+
+    private long built = 0;
+
+    private long evicted = 0;
+
+    /**
+     * Serializes a set.
+     */
+    public interface Serializer {
+        String serialize();
+    }
+
+    /**
+     * An immutable serialized set.
+     */
+    public static final class Fragment {
+        private final String xml;
+
+        private final long hash;
+
+        private Fragment(String xml, long hash) {
+            this.xml = xml;
+            this.hash = hash;
+        }
+
+        public String getXml() {
+            return xml;
+        }
+
+        /**
+         * @return the hash of the content the fragment was serialized from
+         */
+        public long getHash() {
+            return hash;
+        }
+    }
+
+    /**
+     * @return the stored fragment of the set if its content did not change,
+     *         otherwise a new fragment created by the serializer
+     */
+    public synchronized Fragment get(
+        String setSpec, String setName, String setDescription,
+        Serializer serializer) {
+        long hash = hash(setSpec, setName, setDescription);
+        Fragment fragment = fragments.get(setSpec);
+        if (fragment != null && fragment.hash == hash) {
+            reused++;
+            return fragment;
+        }
+        fragment = new Fragment(serializer.serialize(), hash);
+        fragments.put(setSpec, fragment);
+        built++;
+        return fragment;
+    }
+
+    /**
+     * Drops the fragments of all sets except the provided ones.
+     */
+    public synchronized void retain(Collection<String> setSpecs) {
+        int size = fragments.size();
+        fragments.keySet().retainAll(setSpecs);
+        evicted += size - fragments.size();
+    }
+
+    /**
+     * @return an iterator delivering the sets of a listing, which drops the
+     *         fragments of the sets it did not deliver once it was read to
+     *         the end
+     */
+    public RemoteIterator<SetInfo> retainListed(
+        RemoteIterator<? extends SetInfo> sets) {
+        final Set<String> listed = new HashSet<String>();
+        return new CompletingRemoteIterator<SetInfo>(sets) {
+            @Override
+            public SetInfo next() throws RepositoryException {
+                SetInfo set = super.next();
+                listed.add(set.getSetSpec());
+                return set;
+            }
+
+            @Override
+            protected void completed() {
+                retain(listed);
+            }
+        };
+    }
+
+    /**
+     * A 64 bit FNV-1a hash of the values, with null distinguished from the
+     * empty string.
+     */
+    static long hash(String... values) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < values.length; i++) {
+            String value = values[i];
+            if (value == null) {
+                hash = (hash ^ 0xffff) * FNV_PRIME;
+                continue;
+            }
+            for (int j = 0; j < value.length(); j++) {
+                hash = (hash ^ value.charAt(j)) * FNV_PRIME;
+            }
+            // separates the values
+            hash = (hash ^ 0xfffe) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SetFragmentCache: sets=" + fragments.size() + " reused="
+            + reused + " built=" + built + " evicted=" + evicted;
+    }
+}
@@ -0,0 +1,234 @@
+package org.escidoc.services.oaiprovider;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.escidoc.services.oaiprovider.stax.SearchRecord;
+
+import proai.error.RepositoryException;
+
+/**
+ * Shares the search records of a listRecords window between the metadata
+ * formats. Proai calls listRecords once per format with the same window; the
+ * first call scans the window once without a format filter and keeps the
+ * records, including their md-record identifiers, in a temporary file. The
+ * calls for the other formats filter that file instead of scanning again.
+ * A window is discarded once every format read it, or after a time to live
+ * if some format never asks for it.
+ */
+public class SharedEnumeration {
+    private static final Logger logger =
+        Logger.getLogger(SharedEnumeration.class.getName());
+
+    private final int consumers;
+
+    private final long timeToLive;
+
+    private final File dir;
+
+    private final Map<String, Window> windows = new HashMap<String, Window>();
+
+    /**
+     * Scans a window into the provided sink.
+     */
+    public interface Loader {
+        void load(SearchRecordSink sink) throws RepositoryException;
+    }
+
+    /**
+     * @param consumers
+     *            number of formats reading each window
+     * @param timeToLive
+     *            milliseconds after which an unread window is discarded
+     * @param dir
+     *            directory of the window files, null for the default
+     *            temporary directory
+     */
+    public SharedEnumeration(int consumers, long timeToLive, File dir) {
+        this.consumers = consumers;
+        this.timeToLive = timeToLive;
+        this.dir = dir;
+    }
+
+    /**
+     * Returns the records of a window, scanning it with the loader if no
+     * other format did so yet. Concurrent calls for the same window wait for
+     * a single scan. The window must be released after it was read.
+     */
+    public Window acquire(Date from, Date until, Loader loader)
+        throws RepositoryException {
+        String key = from.getTime() + "-" + until.getTime();
+        Window window;
+        synchronized (this) {
+            evictExpired(System.currentTimeMillis());
+            window = windows.get(key);
+            if (window == null) {
+                window = new Window(key);
+                windows.put(key, window);
+            }
+            window.readers++;
+        }
+        try {
+            window.load(loader);
+        }
+        catch (RuntimeException e) {
+            release(window, false);
+            throw e;
+        }
+        return window;
+    }
+
+    /**
+     * Ends the reading of a window by a format.
+     */
+    public void release(Window window) {
+        release(window, true);
+    }
+
+    private synchronized void release(Window window, boolean consumed) {
+        window.readers--;
+        if (consumed) {
+            window.consumed++;
+        }
+        if (window.readers == 0
+            && (window.consumed >= consumers || !window.isLoaded())) {
+            windows.remove(window.key);
+            window.delete();
+        }
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Window> it = windows.values().iterator();
+        while (it.hasNext()) {
+            Window window = it.next();
+            if (window.readers == 0 && window.created + timeToLive < now) {
+                logger.info("Discarding shared records of window "
+                    + window.key + " read by " + window.consumed + " of "
+                    + consumers + " formats");
+                it.remove();
+                window.delete();
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SharedEnumeration: windows=" + windows.size();
+    }
+
+    /**
+     * The search records of a window.
+     */
+    public final class Window {
+        private final String key;
+
+        private final long created = System.currentTimeMillis();
+
+        private int readers = 0;
+
+        private int consumed = 0;
+
+        private File file;
+
+        private long count;
+
+        private Window(String key) {
+            this.key = key;
+        }
+
+        private synchronized boolean isLoaded() {
+            return file != null;
+        }
+
+        private synchronized void load(Loader loader)
+            throws RepositoryException {
+            if (file != null) {
+                return;
+            }
+            File loading;
+            final DataOutputStream out;
+            try {
+                loading =
+                    File.createTempFile("oaiprovider_shared_scan", ".tmp", dir);
+                loading.deleteOnExit(); // just in case
+                out =
+                    new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(loading), 64 * 1024));
+            }
+            catch (IOException e) {
+                throw new RepositoryException(
+                    "Error creating shared scan file", e);
+            }
+            final long[] written = new long[1];
+            boolean complete = false;
+            try {
+                loader.load(new SearchRecordSink() {
+                    public void write(SearchRecord record)
+                        throws RepositoryException {
+                        try {
+                            SearchRecordFile.write(record, out);
+                            written[0]++;
+                        }
+                        catch (IOException e) {
+                            throw new RepositoryException(
+                                "Error writing shared scan file", e);
+                        }
+                    }
+                });
+                out.close();
+                complete = true;
+            }
+            catch (IOException e) {
+                throw new RepositoryException("Error writing shared scan file",
+                    e);
+            }
+            finally {
+                if (!complete) {
+                    try {
+                        out.close();
+                    }
+                    catch (IOException e) {
+                        logger.warn("Unable to close " + loading, e);
+                    }
+                    loading.delete();
+                }
+            }
+            file = loading;
+            count = written[0];
+            logger.debug("Shared scan of window " + key + " found " + count
+                + " records");
+        }
+
+        /**
+         * Passes all records of the window to the sink.
+         */
+        public void replay(SearchRecordSink sink) throws RepositoryException {
+            File loaded;
+            synchronized (this) {
+                loaded = file;
+            }
+            SearchRecordFile.read(loaded, sink);
+        }
+
+        /**
+         * @return number of records of the window
+         */
+        public synchronized long size() {
+            return count;
+        }
+
+        private synchronized void delete() {
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+}
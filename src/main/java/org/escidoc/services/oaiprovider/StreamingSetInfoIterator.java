@@ -0,0 +1,236 @@
+package org.escidoc.services.oaiprovider;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.escidoc.services.oaiprovider.saxhandler.OuOrContextListHandler;
+
+import proai.SetInfo;
+import proai.driver.RemoteIterator;
+import proai.error.RepositoryException;
+
+/**
+ * Delivers the sets of the organizational units, then those of the contexts
+ * and finally the user defined sets, while the pages of the ou and context
+ * lists are still being retrieved. The first pages of both lists are
+ * requested right away; further pages are requested lazily, keeping at most
+ * a fixed number of pages in flight ahead of the page being delivered. Each
+ * page is dropped as soon as its sets were handed out.
+ */
+public class StreamingSetInfoIterator implements RemoteIterator<SetInfo> {
+
+    /**
+     * Retrieves the pages of the ou and context lists.
+     */
+    public interface PageSource {
+
+        /**
+         * Starts the retrieval of a page of the ou or the context list.
+         */
+        Future<OuOrContextListHandler> submitPage(boolean contexts, int page);
+
+        int getPageSize();
+
+        /**
+         * Called with every page of the ou or context list before its sets
+         * are delivered.
+         */
+        void pageRetrieved(boolean contexts, OuOrContextListHandler page);
+
+        /**
+         * Called once all pages of the ou or the context list were
+         * retrieved.
+         */
+        void listRetrieved(boolean contexts);
+
+        /**
+         * @return the user defined sets delivered after the ous and contexts
+         */
+        Collection<SetInfo> getUserDefinedSets() throws RepositoryException;
+    }
+
+    private static final int OUS = 0;
+
+    private static final int CONTEXTS = 1;
+
+    private static final int USER_DEFINED = 2;
+
+    private static final int DONE = 3;
+
+    private final PageSource source;
+
+    private final int prefetch;
+
+    private final List<Future<OuOrContextListHandler>> ouPages =
+        new ArrayList<Future<OuOrContextListHandler>>();
+
+    private final List<Future<OuOrContextListHandler>> contextPages =
+        new ArrayList<Future<OuOrContextListHandler>>();
+
+    private int ouPageCount = -1;
+
+    private int contextPageCount = -1;
+
+    private int inFlight = 0;
+
+    private int list = OUS;
+
+    private int page = 0;
+
+    private Iterator<SetInfo> current;
+
+    /**
+     * @param prefetch
+     *            maximum number of pages requested ahead of the page being
+     *            delivered
+     */
+    public StreamingSetInfoIterator(PageSource source, int prefetch) {
+        this.source = source;
+        this.prefetch = prefetch;
+        submit(OUS, 0);
+        submit(CONTEXTS, 0);
+    }
+
+    public boolean hasNext() throws RepositoryException {
+        while (current == null || !current.hasNext()) {
+            if (!advance()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public SetInfo next() throws RepositoryException {
+        if (hasNext()) {
+            return current.next();
+        }
+        throw new RepositoryException("No more results available\n");
+    }
+
+    public void close() throws RepositoryException {
+        cancel(ouPages);
+        cancel(contextPages);
+        list = DONE;
+        current = null;
+    }
+
+    public void remove() throws UnsupportedOperationException {
+        throw new UnsupportedOperationException(
+            "StreamingSetInfoIterator does not support remove().");
+    }
+
+    /**
+     * Moves on to the next page, list or the user defined sets.
+     *
+     * @return false if all sets were delivered
+     */
+    private boolean advance() throws RepositoryException {
+        if (list == USER_DEFINED) {
+            current = source.getUserDefinedSets().iterator();
+            list = DONE;
+            return true;
+        }
+        if (list == DONE) {
+            return false;
+        }
+        int pageCount = list == OUS ? ouPageCount : contextPageCount;
+        if (pageCount != -1 && page >= pageCount) {
+            source.listRetrieved(list == CONTEXTS);
+            list++;
+            page = 0;
+            return true;
+        }
+        List<Future<OuOrContextListHandler>> pages = pages(list);
+        if (pages.size() <= page || pages.get(page) == null) {
+            submit(list, page);
+        }
+        OuOrContextListHandler handler = get(pages.get(page));
+        pages.set(page, null);
+        inFlight--;
+        if (page == 0) {
+            int size = source.getPageSize();
+            pageCount = (handler.getNumberOfRecords() + size - 1) / size;
+            if (list == OUS) {
+                ouPageCount = pageCount;
+            }
+            else {
+                contextPageCount = pageCount;
+            }
+        }
+        source.pageRetrieved(list == CONTEXTS, handler);
+        current = handler.getData().iterator();
+        page++;
+        fill();
+        return true;
+    }
+
+    /**
+     * Requests the pages following the current one in delivery order, up to
+     * the prefetch limit and as far as the page counts are known.
+     */
+    private void fill() {
+        int l = list;
+        int p = page;
+        while (inFlight < prefetch && l <= CONTEXTS) {
+            int pageCount = l == OUS ? ouPageCount : contextPageCount;
+            if (pageCount == -1 && p > 0) {
+                return;
+            }
+            if (pageCount != -1 && p >= pageCount) {
+                l++;
+                p = 0;
+                continue;
+            }
+            List<Future<OuOrContextListHandler>> pages = pages(l);
+            if (pages.size() <= p || pages.get(p) == null) {
+                submit(l, p);
+            }
+            p++;
+        }
+    }
+
+    private void submit(int l, int p) {
+        List<Future<OuOrContextListHandler>> pages = pages(l);
+        while (pages.size() <= p) {
+            pages.add(null);
+        }
+        pages.set(p, source.submitPage(l == CONTEXTS, p));
+        inFlight++;
+    }
+
+    private List<Future<OuOrContextListHandler>> pages(int l) {
+        return l == OUS ? ouPages : contextPages;
+    }
+
+    private static OuOrContextListHandler get(
+        Future<OuOrContextListHandler> page) throws RepositoryException {
+        try {
+            return page.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException(
+                "Interrupted while retrieving the set list", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RepositoryException) {
+                throw (RepositoryException) e.getCause();
+            }
+            throw new RepositoryException("Error retrieving the set list", e
+                .getCause());
+        }
+    }
+
+    private static void cancel(List<Future<OuOrContextListHandler>> pages) {
+        for (int i = 0; i < pages.size(); i++) {
+            Future<OuOrContextListHandler> page = pages.get(i);
+            if (page != null) {
+                page.cancel(true);
+            }
+        }
+    }
+}
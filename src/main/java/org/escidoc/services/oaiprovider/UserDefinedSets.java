@@ -0,0 +1,70 @@
+package org.escidoc.services.oaiprovider;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import proai.SetInfo;
+
+/**
+ * An immutable snapshot of the user defined sets and the ids of the
+ * resources matching their set queries. A new snapshot is built completely
+ * before it replaces the previous one, so readers always see a consistent
+ * state and never need to lock.
+ */
+public final class UserDefinedSets {
+
+    public static final UserDefinedSets EMPTY =
+        new UserDefinedSets(new LinkedHashMap<String, SetInfo>(),
+            new LinkedHashMap<String, Vector<String>>());
+
+    private final Map<String, SetInfo> definitions;
+
+    private final Map<String, Vector<String>> resourceIds;
+
+    /**
+     * The maps are copied; the id lists must not be modified afterwards.
+     *
+     * @param definitions
+     *            the sets by set spec
+     * @param resourceIds
+     *            the oai ids of the resources of each set by set spec
+     */
+    public UserDefinedSets(
+        Map<String, SetInfo> definitions,
+        Map<String, Vector<String>> resourceIds) {
+        this.definitions =
+            Collections.unmodifiableMap(new LinkedHashMap<String, SetInfo>(
+                definitions));
+        this.resourceIds =
+            Collections
+                .unmodifiableMap(new LinkedHashMap<String, Vector<String>>(
+                    resourceIds));
+    }
+
+    /**
+     * @return the sets by set spec, unmodifiable
+     */
+    public Map<String, SetInfo> getDefinitions() {
+        return definitions;
+    }
+
+    public Set<String> getSetSpecs() {
+        return definitions.keySet();
+    }
+
+    public Collection<SetInfo> getSets() {
+        return definitions.values();
+    }
+
+    /**
+     * @return the oai ids of the resources of the set, or null if the set is
+     *         unknown
+     */
+    public Vector<String> getResourceIds(String setSpec) {
+        return resourceIds.get(setSpec);
+    }
+}
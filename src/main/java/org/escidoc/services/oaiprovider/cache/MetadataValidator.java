@@ -1,5 +1,7 @@
 package org.escidoc.services.oaiprovider.cache;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
@@ -7,21 +9,27 @@ import java.io.StringReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.xml.XMLConstants;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.sax.SAXSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
 
 import org.apache.log4j.Logger;
+import org.escidoc.services.oaiprovider.NamedThreadFactory;
+import org.escidoc.services.oaiprovider.saxhandler.SaxParserPool;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
@@ -29,73 +37,177 @@ import proai.MetadataFormat;
 import proai.driver.RemoteIterator;
 import proai.error.RepositoryException;
 
+/**
+ * Validates records against the schemas of their metadata formats. Schemas
+ * are loaded in parallel in the background or on first use, schemas which
+ * could not be loaded because of connection problems are retried with an
+ * exponential backoff.
+ */
 public class MetadataValidator {
     private static final Logger logger =
         Logger.getLogger(MetadataValidator.class.getName());
 
-    private Map<String, MetadataFormat> m_metadataFormats;
+    private static final int SCHEMA_CONNECT_TIMEOUT = 10000;
+
+    private static final int SCHEMA_READ_TIMEOUT = 30000;
+
+    private static final long SCHEMA_LOAD_WAIT = 60000;
+
+    private final Map<String, MetadataFormat> m_metadataFormats =
+        new ConcurrentHashMap<String, MetadataFormat>();
+
+    private final Map<String, Schema> schemaCache =
+        new ConcurrentHashMap<String, Schema>();
+
+    private final Map<String, Throwable> failedConnectCache =
+        new ConcurrentHashMap<String, Throwable>();
+
+    private final Map<String, Throwable> failedFileNotFoundCache =
+        new ConcurrentHashMap<String, Throwable>();
+
+    private final Map<String, Throwable> failedParseSchemaCache =
+        new ConcurrentHashMap<String, Throwable>();
 
-    private Map<String, Schema> schemaCache = null;
+    private final Map<String, Throwable> wrongTargetNamespaceCache =
+        new ConcurrentHashMap<String, Throwable>();
 
-    private Map<String, Throwable> failedConnectCache = null;
+    private final Map<String, Throwable> malformedSchemaUrl =
+        new ConcurrentHashMap<String, Throwable>();
 
-    private Map<String, Throwable> failedFileNotFoundCache = null;
+    private final Map<String, Future<?>> pendingLoads =
+        new ConcurrentHashMap<String, Future<?>>();
 
-    private Map<String, Throwable> failedParseSchemaCache = null;
+    private final Map<String, Integer> retryAttempts =
+        new ConcurrentHashMap<String, Integer>();
 
-    private Map<String, Throwable> wrongTargetNamespaceCache = null;
+    private final ExecutorService loader;
 
-    private Map<String, Throwable> malformedSchemaUrl = null;
+    private final ScheduledExecutorService retryScheduler;
 
-    private SAXParserFactory saxParserFactory;
+    private final long retryInitialDelay;
+
+    private final long retryMaxDelay;
+
+    private final SaxParserPool parserPool;
 
     public MetadataValidator() {
-        saxParserFactory = SAXParserFactory.newInstance();
-        saxParserFactory.setValidating(false);
-        saxParserFactory.setNamespaceAware(true);
+        this(4, 60000, 3600000, new SaxParserPool(4));
+    }
 
+    /**
+     * @param loaderThreads
+     *            number of threads loading schemas in parallel
+     * @param retryInitialDelay
+     *            milliseconds to wait before the first retry of a schema
+     *            which could not be loaded because of a connection failure
+     * @param retryMaxDelay
+     *            upper bound of the retry delay, which doubles with every
+     *            failed attempt
+     * @param parserPool
+     *            pool providing the parsers reading schema target name spaces
+     */
+    public MetadataValidator(int loaderThreads, long retryInitialDelay,
+        long retryMaxDelay, SaxParserPool parserPool) {
+        this.parserPool = parserPool;
+        this.loader =
+            Executors.newFixedThreadPool(loaderThreads, new NamedThreadFactory(
+                "oaiprovider-schema-loader-"));
+        this.retryScheduler =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(
+                "oaiprovider-schema-retry-"));
+        this.retryInitialDelay = retryInitialDelay;
+        this.retryMaxDelay = retryMaxDelay;
     }
-    
-    public void init(RemoteIterator<? extends MetadataFormat> riter) {
-        m_metadataFormats = new HashMap<String, MetadataFormat> (); 
-    
-        schemaCache = new HashMap<String, Schema>();
-        failedConnectCache = new HashMap<String, Throwable>();
-        failedParseSchemaCache = new HashMap<String, Throwable>();
-        failedFileNotFoundCache = new HashMap<String, Throwable>();
-        wrongTargetNamespaceCache = new HashMap<String, Throwable>();
-        malformedSchemaUrl = new HashMap<String, Throwable>();
-   
-            while (riter.hasNext()) {
-              MetadataFormat format = riter.next();
-              String mdPrefix = format.getPrefix();
-              m_metadataFormats.put(mdPrefix, format);
-              putSchemaInMap(mdPrefix);
-            }           
+
+    /**
+     * Registers the formats to validate. Does not block: if preload is set
+     * the schemas are loaded in parallel in the background, otherwise each
+     * schema is loaded on its first use.
+     */
+    public void init(
+        RemoteIterator<? extends MetadataFormat> riter, boolean preload) {
+        while (riter.hasNext()) {
+            MetadataFormat format = riter.next();
+            m_metadataFormats.put(format.getPrefix(), format);
+        }
+        if (preload) {
+            Iterator<String> iterator = m_metadataFormats.keySet().iterator();
+            while (iterator.hasNext()) {
+                loadSchema(iterator.next());
+            }
+        }
     }
 
     /**
-     * On the beginning of every update cycle tries to instantiate schemas which
-     * are in the failedConnectCache and puts them in a schema map or in an
-     * appropriated Exception map.
+     * Immediately retries to instantiate the schemas which are in the
+     * failedConnectCache instead of waiting for their scheduled retry.
      */
     public void updateStart() {
-        HashMap <String, Throwable> copy = new HashMap <String, Throwable>();
-        copy.putAll(failedConnectCache);
-        failedConnectCache = new HashMap<String, Throwable> ();
-        Iterator<String> iterator = copy.keySet().iterator();
+        Iterator<String> iterator = failedConnectCache.keySet().iterator();
         while (iterator.hasNext()) {
-            String mdPrefix = iterator.next();
-            putSchemaInMap(mdPrefix);   
+            loadSchema(iterator.next());
+        }
+    }
+
+    /**
+     * Stops loading and retrying schemas.
+     */
+    public void shutdown() {
+        retryScheduler.shutdownNow();
+        loader.shutdownNow();
+    }
+
+    /**
+     * Starts loading the schema of the provided md prefix in the background
+     * unless it is already being loaded.
+     *
+     * @return the pending load
+     */
+    private synchronized Future<?> loadSchema(final String mdPrefix) {
+        Future<?> pending = pendingLoads.get(mdPrefix);
+        if (pending != null && !pending.isDone()) {
+            return pending;
+        }
+        FutureTask<Object> task = new FutureTask<Object>(new Runnable() {
+            public void run() {
+                putSchemaInMap(mdPrefix);
+                if (failedConnectCache.containsKey(mdPrefix)) {
+                    scheduleRetry(mdPrefix);
+                }
+                else {
+                    retryAttempts.remove(mdPrefix);
+                }
+            }
+        }, null);
+        pendingLoads.put(mdPrefix, task);
+        loader.execute(task);
+        return task;
+    }
+
+    private void scheduleRetry(final String mdPrefix) {
+        Integer attempts = retryAttempts.get(mdPrefix);
+        int attempt = attempts == null ? 0 : attempts.intValue();
+        retryAttempts.put(mdPrefix, attempt + 1);
+        long delay = retryInitialDelay << Math.min(attempt, 20);
+        if (delay <= 0 || delay > retryMaxDelay) {
+            delay = retryMaxDelay;
         }
-        
+        logger.info("Schema of format " + mdPrefix + " not reachable, retry in "
+            + delay + " ms");
+        retryScheduler.schedule(new Runnable() {
+            public void run() {
+                if (failedConnectCache.containsKey(mdPrefix)) {
+                    loadSchema(mdPrefix);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
     }
 
     /**
      * Put the schema instance for the provided md prefix in the schema map, if
      * the schema can be instantiated. Otherwise put an Exception message in the
      * appropriate Exception map.
-     * 
+     *
      * @param mdPrefix
      *            The mdPrefix fir the schema.
      */
@@ -103,6 +215,7 @@ public class MetadataValidator {
 
         MetadataFormat format = m_metadataFormats.get(mdPrefix);
         String schemaLocation = format.getSchemaLocation();
+        clearFailures(mdPrefix);
         URL schemaUrl = null;
         try {
             schemaUrl = new URL(schemaLocation);
@@ -111,13 +224,9 @@ public class MetadataValidator {
             malformedSchemaUrl.put(mdPrefix, e1);
         }
         if (schemaUrl != null) {
-            InputStream schemaStream1 =  null;
-            InputStream schemaStream2 = null;
+            byte[] schemaBytes = null;
             try {
-                URLConnection conn1 = schemaUrl.openConnection();
-                URLConnection conn2 = schemaUrl.openConnection();
-                schemaStream1 = conn1.getInputStream();
-                schemaStream2 = conn2.getInputStream();
+                schemaBytes = download(schemaUrl);
             }
             catch (IOException e1) {
                 if (e1 instanceof FileNotFoundException) {
@@ -127,7 +236,7 @@ public class MetadataValidator {
                     failedConnectCache.put(mdPrefix, e1);
                 }
             }
-            if (schemaStream1 != null && schemaStream2 != null) {
+            if (schemaBytes != null) {
                 String formatNameSpaceUri = format.getNamespaceURI();
                 String targetNameSpace = null;
                 URL formatNameSpaceUriURL = null;
@@ -141,7 +250,9 @@ public class MetadataValidator {
                 }
                 if (formatNameSpaceUriURL != null) {
                     try {
-                        targetNameSpace = getTargetNameSpace(schemaStream2);
+                        targetNameSpace =
+                            getTargetNameSpace(new ByteArrayInputStream(
+                                schemaBytes));
                     }
                     catch (RepositoryException e) {
                         failedParseSchemaCache.put(mdPrefix, e);
@@ -160,27 +271,51 @@ public class MetadataValidator {
                     }
                 }
                 try {
-                    Schema schema = getSchema(schemaStream1);
+                    Schema schema =
+                        getSchema(new ByteArrayInputStream(schemaBytes),
+                            schemaLocation);
                     schemaCache.put(mdPrefix, schema);
                 }
                 catch (SAXException e) {
                     failedParseSchemaCache.put(mdPrefix, e);
 
                 }
-                finally {
-                    if (schemaStream1 != null)
-                        try {
-                            schemaStream1.close();
-                        }
-                        catch (IOException e) {
-                        }
-                    if (schemaStream2 != null)
-                        try {
-                            schemaStream2.close();
-                        }
-                        catch (IOException e) {
-                        }
-                }
+            }
+        }
+    }
+
+    private void clearFailures(String mdPrefix) {
+        failedConnectCache.remove(mdPrefix);
+        failedFileNotFoundCache.remove(mdPrefix);
+        failedParseSchemaCache.remove(mdPrefix);
+        wrongTargetNamespaceCache.remove(mdPrefix);
+        malformedSchemaUrl.remove(mdPrefix);
+    }
+
+    /**
+     * Reads the schema located at the provided URL, so that it only has to be
+     * fetched once for reading the target name space and for building the
+     * <code>Schema</code>.
+     */
+    private static byte[] download(URL schemaUrl) throws IOException {
+        URLConnection conn = schemaUrl.openConnection();
+        conn.setConnectTimeout(SCHEMA_CONNECT_TIMEOUT);
+        conn.setReadTimeout(SCHEMA_READ_TIMEOUT);
+        InputStream in = conn.getInputStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                out.write(buf, 0, len);
+            }
+            return out.toByteArray();
+        }
+        finally {
+            try {
+                in.close();
+            }
+            catch (IOException e) {
             }
         }
     }
@@ -188,61 +323,67 @@ public class MetadataValidator {
     /**
      * Gets the <code>Schema</code> object for the provided
      * <code>InputStream</code>.
-     * 
+     *
      * @param schemaStream
      *            The Stream containing the schema.
+     * @param systemId
+     *            The location of the schema, used to resolve relative
+     *            includes and imports.
      * @return Returns the <code>Schema</code> object.
      * @throws Exception
      *             If anything fails.
      */
-    private static Schema getSchema(final InputStream schemaStream)
+    private static Schema getSchema(
+        final InputStream schemaStream, final String systemId)
         throws SAXException {
         SchemaFactory sf =
             SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-        Schema theSchema =
-            sf.newSchema(new SAXSource(new InputSource(schemaStream)));
+        InputSource source = new InputSource(schemaStream);
+        source.setSystemId(systemId);
+        Schema theSchema = sf.newSchema(new SAXSource(source));
         return theSchema;
     }
 
     /**
      * Returns a target name space of the provided schema.
-     * 
+     *
      * @param schema
      * @return
      */
     private String getTargetNameSpace(InputStream schema) {
-        SAXParser parser = null;
         SchemaHandler sh = new SchemaHandler();
-        try {
-            parser = saxParserFactory.newSAXParser();
-        }
-        catch (ParserConfigurationException e) {
-            logger.error(e);
-            throw new RepositoryException(e.getMessage(), e);
+        parserPool.parse("validator.schemaTargetNamespace", schema, sh);
+        return sh.getTargetNamespace();
+    }
+
+    /**
+     * Returns the schema of the provided prefix, loading it on first use and
+     * waiting for a load which is in progress.
+     */
+    private Schema getSchema(String mdPrefix) {
+        Schema schema = schemaCache.get(mdPrefix);
+        if (schema != null || !m_metadataFormats.containsKey(mdPrefix)) {
+            return schema;
         }
-        catch (SAXException e) {
-            logger.error(e);
-            throw new RepositoryException(e.getMessage(), e);
+        Future<?> pending = pendingLoads.get(mdPrefix);
+        if (pending == null) {
+            pending = loadSchema(mdPrefix);
         }
-
         try {
-            parser.parse(schema, sh);
-            String targetNamespace = sh.getTargetNamespace();
-            return targetNamespace;
-
+            pending.get(SCHEMA_LOAD_WAIT, TimeUnit.MILLISECONDS);
         }
-        catch (SAXException e) {
-            logger.error(e);
-            throw new RepositoryException(
-                "Exception while reading schema target namespace", e);
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        catch (IOException e) {
-            logger.error(e);
-            throw new RepositoryException(
-                "Exception while reading schema target namespace", e);
+        catch (ExecutionException e) {
+            logger.error("Loading schema of format " + mdPrefix + " failed", e);
         }
-
+        catch (TimeoutException e) {
+            logger.warn("Schema of format " + mdPrefix + " is still loading");
+        }
+        return schemaCache.get(mdPrefix);
     }
+
 /**
  * Validates the provided xml against a schema for a format of the provided
  * prefix.
@@ -254,7 +395,7 @@ public class MetadataValidator {
         ValidationInfo validationInfo = new ValidationInfo();
         StringReader toValidate = new StringReader(xml);
         long retrievalDelay = 0;
-        Schema schema = schemaCache.get(mdPrefix);
+        Schema schema = getSchema(mdPrefix);
         if (schema == null) {
             if (malformedSchemaUrl.containsKey(mdPrefix)) {
                 validationInfo.setFailReason(malformedSchemaUrl.get(mdPrefix));
@@ -0,0 +1,126 @@
+package org.escidoc.services.oaiprovider.cache;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.escidoc.services.oaiprovider.NamedThreadFactory;
+
+/**
+ * Validates a sample of the delivered record payloads in the background.
+ * Records are picked at a configurable rate and queued in a bounded queue;
+ * when the queue is full the sample is dropped instead of delaying the
+ * request. The results are aggregated into a {@link ValidationReport} per
+ * metadata prefix.
+ */
+public class SampledValidator {
+    private static final Logger logger =
+        Logger.getLogger(SampledValidator.class.getName());
+
+    private final MetadataValidator validator;
+
+    private final double sampleRate;
+
+    private final int reportInterval;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Random random = new Random();
+
+    private final ConcurrentMap<String, ValidationReport> reports =
+        new ConcurrentHashMap<String, ValidationReport>();
+
+    /**
+     * @param validator
+     *            the validator to use
+     * @param sampleRate
+     *            fraction of the records to validate, between 0 and 1
+     * @param queueSize
+     *            maximum number of samples waiting for validation
+     * @param threads
+     *            number of validation threads
+     * @param reportInterval
+     *            the report of a format is logged after that many
+     *            validations, 0 to log it on shutdown only
+     */
+    public SampledValidator(MetadataValidator validator, double sampleRate,
+        int queueSize, int threads, int reportInterval) {
+        this.validator = validator;
+        this.sampleRate = sampleRate;
+        this.reportInterval = reportInterval;
+        this.executor =
+            new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                new NamedThreadFactory("oaiprovider-validation-"));
+    }
+
+    /**
+     * Hands the payload of a record to the background validation, if the
+     * record is picked by the sampling. Never blocks.
+     *
+     * @param mdPrefix
+     *            metadata prefix of the record
+     * @param xml
+     *            the payload
+     */
+    public void offer(final String mdPrefix, final String xml) {
+        if (sampleRate <= 0 || random.nextDouble() >= sampleRate) {
+            return;
+        }
+        final ValidationReport report = getReport(mdPrefix);
+        report.sampled();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    long validated =
+                        report.add(validator.validate(mdPrefix, xml));
+                    // every count is returned once, so each multiple of the
+                    // interval logs the report once
+                    if (reportInterval > 0 && validated > 0
+                        && validated % reportInterval == 0) {
+                        logger.info(report);
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            report.dropped();
+        }
+    }
+
+    private ValidationReport getReport(String mdPrefix) {
+        ValidationReport report = reports.get(mdPrefix);
+        if (report == null) {
+            report = new ValidationReport(mdPrefix);
+            ValidationReport existing = reports.putIfAbsent(mdPrefix, report);
+            if (existing != null) {
+                report = existing;
+            }
+        }
+        return report;
+    }
+
+    /**
+     * @return the reports of all formats sampled so far
+     */
+    public Collection<ValidationReport> getReports() {
+        return reports.values();
+    }
+
+    /**
+     * Stops the validation threads, discarding queued samples, and logs the
+     * final reports.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        for (ValidationReport report : reports.values()) {
+            logger.info(report);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.escidoc.services.oaiprovider.cache;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Aggregated results of the sampled validations of one metadata format.
+ */
+public class ValidationReport {
+
+    private final String mdPrefix;
+
+    private final Map<ValidationResult, Long> results =
+        new EnumMap<ValidationResult, Long>(ValidationResult.class);
+
+    private long sampled;
+
+    private long dropped;
+
+    private long unvalidated;
+
+    private long validationDelay;
+
+    private String lastFailReason;
+
+    public ValidationReport(String mdPrefix) {
+        this.mdPrefix = mdPrefix;
+    }
+
+    /**
+     * Counts a record which was sampled for validation.
+     */
+    public synchronized void sampled() {
+        sampled++;
+    }
+
+    /**
+     * Counts a sampled record which was not validated because the validation
+     * queue was full.
+     */
+    public synchronized void dropped() {
+        dropped++;
+    }
+
+    /**
+     * Adds the outcome of a validation to the report. A validation without
+     * result, because no schema of the format was available, is only
+     * counted as unvalidated.
+     *
+     * @param info
+     *            result of the validation
+     * @return the number of validations which have finished including this
+     *         one, or 0 if it had no result
+     */
+    public synchronized long add(ValidationInfo info) {
+        ValidationResult result = info.getResult();
+        if (result == null) {
+            unvalidated++;
+            return 0;
+        }
+        Long count = results.get(result);
+        results.put(result, count == null ? 1L : count + 1);
+        validationDelay += info.getValidationDelay();
+        if (info.getFailReason() != null) {
+            lastFailReason = info.getFailReason().getMessage();
+        }
+        return getValidated();
+    }
+
+    public String getMdPrefix() {
+        return mdPrefix;
+    }
+
+    public synchronized long getCount(ValidationResult result) {
+        Long count = results.get(result);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * @return number of validations which have finished
+     */
+    public synchronized long getValidated() {
+        long validated = 0;
+        for (Long count : results.values()) {
+            validated += count;
+        }
+        return validated;
+    }
+
+    public synchronized long getSampled() {
+        return sampled;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return number of sampled records which were not validated because no
+     *         schema was available
+     */
+    public synchronized long getUnvalidated() {
+        return unvalidated;
+    }
+
+    public synchronized String getLastFailReason() {
+        return lastFailReason;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuffer buf = new StringBuffer();
+        buf.append("validation report for '").append(mdPrefix).append("':");
+        buf.append(" sampled=").append(sampled);
+        buf.append(" dropped=").append(dropped);
+        buf.append(" unvalidated=").append(unvalidated);
+        for (ValidationResult result : ValidationResult.values()) {
+            buf.append(" ").append(result).append("=");
+            buf.append(getCount(result));
+        }
+        long validated = getValidated();
+        if (validated > 0) {
+            buf.append(" avgDelayMs=").append(validationDelay / validated);
+        }
+        if (lastFailReason != null) {
+            buf.append(" lastFailure=").append(lastFailReason);
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,146 @@
+package org.escidoc.services.oaiprovider.saxhandler;
+
+import java.io.PrintWriter;
+
+/**
+ * A reusable accumulator for the character data of an element. Chunks
+ * delivered by characters() are copied into a growing char array, so no
+ * String is created before the value is complete.
+ */
+public class CharacterBuffer {
+
+    private char[] chars;
+
+    private int length = 0;
+
+    public CharacterBuffer() {
+        this(32);
+    }
+
+    public CharacterBuffer(int capacity) {
+        this.chars = new char[capacity];
+    }
+
+    /**
+     * Appends a chunk of character data.
+     */
+    public void append(char[] ch, int start, int len) {
+        ensureCapacity(length + len);
+        System.arraycopy(ch, start, chars, length, len);
+        length += len;
+    }
+
+    /**
+     * Appends a chunk of character data, leaving out carriage returns and
+     * line feeds.
+     */
+    public void appendSkipLineBreaks(char[] ch, int start, int len) {
+        ensureCapacity(length + len);
+        int end = start + len;
+        for (int i = start; i < end; i++) {
+            char c = ch[i];
+            if (c != '\r' && c != '\n') {
+                chars[length++] = c;
+            }
+        }
+    }
+
+    /**
+     * Appends a String.
+     */
+    public void append(String s) {
+        int len = s.length();
+        ensureCapacity(length + len);
+        s.getChars(0, len, chars, length);
+        length += len;
+    }
+
+    /**
+     * Appends a single character.
+     */
+    public void append(char c) {
+        ensureCapacity(length + 1);
+        chars[length++] = c;
+    }
+
+    /**
+     * Appends the content of another buffer, replacing every character from
+     * with the character to.
+     */
+    public void appendReplacing(CharacterBuffer other, char from, char to) {
+        ensureCapacity(length + other.length);
+        for (int i = 0; i < other.length; i++) {
+            char c = other.chars[i];
+            chars[length++] = (c == from) ? to : c;
+        }
+    }
+
+    public void reset() {
+        length = 0;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    /**
+     * Writes the content to the provided writer without creating a String.
+     */
+    public void writeTo(PrintWriter out) {
+        out.write(chars, 0, length);
+    }
+
+    /**
+     * Parses the content, ignoring surrounding white space, as a non-negative
+     * decimal integer.
+     *
+     * @throws NumberFormatException
+     *             if the content is not a number
+     */
+    public int parseInt() {
+        int start = 0;
+        int end = length;
+        while (start < end && Character.isWhitespace(chars[start])) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(chars[end - 1])) {
+            end--;
+        }
+        if (start == end) {
+            throw new NumberFormatException("empty value");
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException(toString());
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * @return the content, or null if nothing was appended
+     */
+    public String toStringOrNull() {
+        return length == 0 ? null : toString();
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > chars.length) {
+            char[] grown = new char[Math.max(capacity, chars.length * 2)];
+            System.arraycopy(chars, 0, grown, 0, length);
+            chars = grown;
+        }
+    }
+}
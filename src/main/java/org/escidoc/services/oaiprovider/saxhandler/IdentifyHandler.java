@@ -4,18 +4,16 @@ import org.xml.sax.Attributes;
 
 public class IdentifyHandler extends DefaultHandler {
    
-    private boolean behindElement = false;
+    /**
+     * The accumulator of the entry whose content is currently read, or null
+     * if the content is not needed.
+     */
+    private CharacterBuffer current;
 
-    private boolean inElement = false;
-    private boolean inEarliestDate = false;
-    private boolean inName = false;
-    private boolean inEmail = false;
-    private boolean inBaseUrl = false;
-    
-    private String earliestDate;
-    private String name;
-    private String email;
-    private String baseUrl;
+    private final CharacterBuffer earliestDate = new CharacterBuffer();
+    private final CharacterBuffer name = new CharacterBuffer();
+    private final CharacterBuffer email = new CharacterBuffer();
+    private final CharacterBuffer baseUrl = new CharacterBuffer();
     
     
     public IdentifyHandler() {
@@ -25,86 +23,45 @@ public class IdentifyHandler extends DefaultHandler {
    
     public void startElement(
         String uri, String localName, String qName, Attributes attributes) {
-        
-    	this.behindElement = false;
+        current = null;
         if (qName.equals("entry")) {
-            inElement = true; 
             String value = attributes.getValue("key");
-            if (value.equals("escidoc-core.earliest-date")) {
-                inEarliestDate = true;
-            } else if (value.equals("escidoc-core.repository-name")) {
-                inName = true;
-            } else if (value.equals("escidoc-core.admin-email")) {
-                inEmail = true;
-            } else if (value.equals("escidoc-core.baseurl")) {
-                inBaseUrl = true;
+            if ("escidoc-core.earliest-date".equals(value)) {
+                current = earliestDate;
+            } else if ("escidoc-core.repository-name".equals(value)) {
+                current = name;
+            } else if ("escidoc-core.admin-email".equals(value)) {
+                current = email;
+            } else if ("escidoc-core.baseurl".equals(value)) {
+                current = baseUrl;
+            }
+            if (current != null) {
+                current.reset();
             }
         }
-        
     }
 
     public void endElement(String uri, String localName, String qName) {
-    	this.behindElement = true;
-        if (inElement) {
-            if (inEarliestDate) {
-                inEarliestDate = false;   
-               } else if (inName) {
-                   inName = false;
-               } else if (inEmail) {
-                   inEmail = false;
-               } else if (inBaseUrl) {
-                   inBaseUrl = false;
-               } 
-            inElement = false;
-        }                 
+        current = null;
     }
 
     public void characters(char[] ch, int start, int length) {
-        
-    	if (behindElement) {
-    		return;
-    	}
-        if (inElement) {
-            if (inEarliestDate) {
-                if (this.earliestDate == null) {
-                    this.earliestDate = new String(ch, start, length);
-                }  else {
-                    this.earliestDate = this.earliestDate + new String(ch, start, length);
-                }
-            } else if (inName) {
-                if (this.name == null) {
-                    this.name = new String(ch, start, length);
-                }  else {
-                    this.name = this.name + new String(ch, start, length);
-                }
-            } else if (inEmail) {
-                if (this.email == null) {
-                    this.email = new String(ch, start, length);
-                }  else {
-                    this.email = this.email + new String(ch, start, length);
-                }
-            } else if (inBaseUrl) {
-                if (this.baseUrl == null) {
-                    this.baseUrl = new String(ch, start, length);
-                }  else {
-                    this.baseUrl = this.baseUrl + new String(ch, start, length);
-                }
-            }
-            
+        if (current != null) {
+            current.append(ch, start, length);
         }
     }
 
     public String getBaseUrl() {
-        return this.baseUrl;
+        return this.baseUrl.toStringOrNull();
     }
 
     public String getName() {
-        return this.name;
+        return this.name.toStringOrNull();
     }
     public String getEmail() {
-        return this.email;
+        return this.email.toStringOrNull();
     }
     public String getEarliestDate(){
-        return this.earliestDate;
+        return this.earliestDate.toStringOrNull();
     }
 }
@@ -1,17 +1,18 @@
 package org.escidoc.services.oaiprovider.saxhandler;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
 import org.escidoc.services.oaiprovider.EscidocSetInfo;
+import org.escidoc.services.oaiprovider.SetFragmentCache;
 import org.xml.sax.Attributes;
 
 import proai.SetInfo;
 
 public class OuOrContextListHandler extends DefaultHandler {
-    private String elementName;
-
-    private boolean behindElement = false;
-
     private boolean inElement = false;
 
     private static String XLINK_NAMESPACE_URI = "http://www.w3.org/1999/xlink";
@@ -22,13 +23,28 @@ public class OuOrContextListHandler extends DefaultHandler {
     
     private Vector<SetInfo> sets;
 
+    private final SetFragmentCache fragments;
+
     private SetInfo setInfo;
 
     private String resourceId;
 
     private String title;
 
-    private String description;
+    private final List<String> parentIds = new ArrayList<String>();
+
+    private final Map<String, List<String>> ouParents =
+        new HashMap<String, List<String>>();
+
+    private final CharacterBuffer description = new CharacterBuffer(256);
+
+    private final CharacterBuffer numberOfRecordsValue = new CharacterBuffer(16);
+
+    /**
+     * The accumulator of the element whose content is currently read, or null
+     * if the content is not needed.
+     */
+    private CharacterBuffer current;
 
     private int numberOfRecords = 0;
 
@@ -40,85 +56,82 @@ public class OuOrContextListHandler extends DefaultHandler {
     
     private int lastOuRecordNumber = 0;
     
-    private boolean inDescription = false;
-    
-    private boolean inNumberOfRecords = false;
-    
-    public OuOrContextListHandler() {
+    public OuOrContextListHandler(final SetFragmentCache fragments) {
        this.sets = new Vector<SetInfo>();
+       this.fragments = fragments;
     }
 
-    public OuOrContextListHandler(final Vector<SetInfo> sets) {
+    public OuOrContextListHandler(final Vector<SetInfo> sets,
+        final SetFragmentCache fragments) {
         this.sets = sets;
+        this.fragments = fragments;
     }
 
     public void startElement(
         String uri, String localName, String qName, Attributes attributes) {
-    	this.behindElement = false;
-        this.elementName = qName;
+        current = null;
         if (localName.equals("numberOfRecords")) {
-            inNumberOfRecords = true;
+            current = numberOfRecordsValue;
+            current.reset();
         }
-        if ((localName.equals("organizational-unit") && uri.startsWith(OU_URI_PREFIX)) 
-            || (localName.equals("context")) && (uri.startsWith(CONTEXT_URI_PREFIX))) {
+        else if (isSetElement(uri, localName)) {
             if (localName.equals("organizational-unit")) {
                 lastOuRecordNumber++;
             }
-            else if (localName.equals("context")) {
+            else {
                 lastContextRecordNumber++;
             }
             
             inElement = true;
+            description.reset();
+            parentIds.clear();
             
             int indexTitle = attributes.getIndex(XLINK_NAMESPACE_URI, "title");
 
             if (indexTitle != -1) {
                 this.title = attributes.getValue(indexTitle);
             }
-            int indexHref = attributes.getIndex(XLINK_NAMESPACE_URI, "href");
-
-            if (indexTitle != -1) {
-                String href = attributes.getValue(indexHref);
-                int index = href.lastIndexOf("/");
-                if (index != -1) {
-                    this.resourceId = href.substring(href.lastIndexOf("/") + 1);
-                }
+            String id = hrefId(attributes);
+            if (id != null) {
+                this.resourceId = id;
             }
 
         }
-        if (inElement) {
-            if (this.elementName.equals("prop:description")) {
-                inDescription = true;   
-               }  
+        else if (inElement && localName.equals("parent")) {
+            String parentId = hrefId(attributes);
+            if (parentId != null) {
+                parentIds.add(parentId);
+            }
+        }
+        else if (inElement && qName.equals("prop:description")) {
+            current = description;
         }
     }
 
     public void endElement(String uri, String localName, String qName) {
-    	this.behindElement = true;
-        if (inElement) {
-            if (this.elementName.equals("prop:description")) {
-                inDescription = false;   
-               }  
-        }
-        if (inNumberOfRecords && localName.equals("numberOfRecords")) {
-        	inNumberOfRecords = false;
+        current = null;
+        if (localName.equals("numberOfRecords")) {
+            if (!numberOfRecordsValue.isEmpty()) {
+                numberOfRecords = numberOfRecordsValue.parseInt();
+            }
         }
-        if ((localName.equals("organizational-unit") && uri.startsWith(OU_URI_PREFIX)) 
-            || (localName.equals("context")) && (uri.startsWith(CONTEXT_URI_PREFIX))) {
+        else if (isSetElement(uri, localName)) {
             
             inElement = false;
             String setSpecPrefix = null;
             if (localName.equals("organizational-unit")) {
                 setSpecPrefix = "ou_";
                 numberOfOuRecords = numberOfRecords;
+                ouParents.put(this.resourceId, new ArrayList<String>(
+                    parentIds));
             }
-            else if (localName.equals("context")) {
+            else {
                 setSpecPrefix = "context_";
                 numberOfContextRecords = numberOfRecords;
             }
             this.setInfo =
-                new EscidocSetInfo(setSpecPrefix + this.resourceId.replaceAll(":", "_"), this.title,
-                    this.description, null);
+                new EscidocSetInfo(setSpecPrefix + this.resourceId.replace(':', '_'), this.title,
+                    description.toStringOrNull(), null, fragments);
             if (sets == null) {
                 sets = new Vector<SetInfo>();
             }
@@ -126,26 +139,52 @@ public class OuOrContextListHandler extends DefaultHandler {
             setInfo = null;
             resourceId = null;
             title = null;
-            description = null;
         }
         
     }
 
     public void characters(char[] ch, int start, int length) {
-    	if (behindElement) {
-    		return;
-    	}
-        if (inElement && inDescription) {
-            if (this.description == null) {
-                this.description = new String(ch, start, length);
-            }  else {
-                this.description = this.description + new String(ch, start, length);
-            }
+        if (current != null) {
+            current.append(ch, start, length);
         }
-        if (inNumberOfRecords) {
-            this.numberOfRecords = Integer.parseInt(
-    				new String(ch, start, length));
+    }
+
+    /**
+     * @return the id at the end of the xlink:href attribute, or null
+     */
+    private static String hrefId(Attributes attributes) {
+        int indexHref = attributes.getIndex(XLINK_NAMESPACE_URI, "href");
+        if (indexHref != -1) {
+            String href = attributes.getValue(indexHref);
+            int index = href.lastIndexOf('/');
+            if (index != -1) {
+                return href.substring(index + 1);
+            }
         }
+        return null;
+    }
+
+    private static boolean isSetElement(String uri, String localName) {
+        return (localName.equals("organizational-unit") && uri
+            .startsWith(OU_URI_PREFIX))
+            || (localName.equals("context") && uri
+                .startsWith(CONTEXT_URI_PREFIX));
+    }
+
+    /**
+     * @return the number of records of the whole list, as reported by the
+     *         last parsed page, 0 if no page reported it
+     */
+    public int getNumberOfRecords() {
+        return this.numberOfRecords;
+    }
+
+    /**
+     * @return the ids of the parents of each organizational unit of the
+     *         parsed pages
+     */
+    public Map<String, List<String>> getOuParents() {
+        return this.ouParents;
     }
 
     public Vector<SetInfo> getData() {
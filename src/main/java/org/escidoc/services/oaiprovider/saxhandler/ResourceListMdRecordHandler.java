@@ -0,0 +1,103 @@
+package org.escidoc.services.oaiprovider.saxhandler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xml.sax.Attributes;
+
+/**
+ * Extracts the content of the md-record with a given name from every item or
+ * container of a filtered item or container list.
+ */
+public class ResourceListMdRecordHandler extends DefaultHandler {
+
+    private static final String XLINK_NAMESPACE_URI =
+        "http://www.w3.org/1999/xlink";
+
+    private final String mdRecordName;
+
+    private final Map<String, String> mdRecords = new HashMap<String, String>();
+
+    private final XmlFragmentWriter writer = new XmlFragmentWriter();
+
+    private int depth = 0;
+
+    private int recordDataDepth = -1;
+
+    private int resourceDepth = -1;
+
+    private int mdRecordDepth = -1;
+
+    private String resourceId;
+
+    /**
+     * @param mdRecordName
+     *            name of the md-record to extract
+     */
+    public ResourceListMdRecordHandler(String mdRecordName) {
+        this.mdRecordName = mdRecordName;
+    }
+
+    public void startPrefixMapping(String prefix, String uri) {
+        writer.startPrefixMapping(prefix, uri);
+    }
+
+    public void startElement(
+        String uri, String localName, String qName, Attributes attributes) {
+        depth++;
+        if (localName.equals("recordData")) {
+            recordDataDepth = depth;
+        }
+        else if (depth == recordDataDepth + 1) {
+            resourceDepth = depth;
+            resourceId = getResourceId(attributes);
+        }
+        else if (resourceDepth != -1 && depth == resourceDepth + 2
+            && localName.equals("md-record")
+            && mdRecordName.equals(attributes.getValue("name"))) {
+            mdRecordDepth = depth;
+        }
+        else if (mdRecordDepth != -1 && depth == mdRecordDepth + 1
+            && !writer.isCapturing()) {
+            writer.startCapture();
+        }
+        writer.startElement(qName, attributes);
+    }
+
+    public void endElement(String uri, String localName, String qName) {
+        String fragment = writer.endElement(qName);
+        if (fragment != null && resourceId != null) {
+            mdRecords.put(resourceId, fragment);
+        }
+        if (depth == mdRecordDepth) {
+            mdRecordDepth = -1;
+        }
+        else if (depth == resourceDepth) {
+            resourceDepth = -1;
+            resourceId = null;
+        }
+        else if (depth == recordDataDepth) {
+            recordDataDepth = -1;
+        }
+        depth--;
+    }
+
+    public void characters(char[] ch, int start, int length) {
+        writer.characters(ch, start, length);
+    }
+
+    private static String getResourceId(Attributes attributes) {
+        String href = attributes.getValue(XLINK_NAMESPACE_URI, "href");
+        if (href != null) {
+            return href.substring(href.lastIndexOf('/') + 1);
+        }
+        return attributes.getValue("objid");
+    }
+
+    /**
+     * @return the md-record contents by id of their resource
+     */
+    public Map<String, String> getMdRecords() {
+        return this.mdRecords;
+    }
+}
@@ -0,0 +1,161 @@
+package org.escidoc.services.oaiprovider.saxhandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.log4j.Logger;
+import org.escidoc.services.oaiprovider.LatencyStats;
+import org.xml.sax.SAXException;
+
+import proai.error.RepositoryException;
+
+/**
+ * A bounded pool of namespace aware, non-validating SAX parsers shared by
+ * all parsing code paths. Parsers are reset when they are returned, and at
+ * most maxSize parsers exist at the same time; further callers wait for a
+ * returned parser. The time needed to acquire a parser is recorded per code
+ * path.
+ */
+public class SaxParserPool {
+    private static final Logger logger =
+        Logger.getLogger(SaxParserPool.class.getName());
+
+    private final SAXParserFactory saxParserFactory;
+
+    private final BlockingQueue<SAXParser> idle;
+
+    private final Semaphore permits;
+
+    private final ConcurrentHashMap<String, LatencyStats> acquisitionStats =
+        new ConcurrentHashMap<String, LatencyStats>();
+
+    /**
+     * @param maxSize
+     *            maximum number of parsers
+     */
+    public SaxParserPool(int maxSize) {
+        saxParserFactory = SAXParserFactory.newInstance();
+        saxParserFactory.setValidating(false);
+        saxParserFactory.setNamespaceAware(true);
+        idle = new ArrayBlockingQueue<SAXParser>(maxSize);
+        permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Takes a parser from the pool, creating one if none is idle. Must be
+     * returned by {@link #release(SAXParser)}.
+     *
+     * @param path
+     *            name of the calling code path, used for the statistics
+     */
+    public SAXParser acquire(String path) throws RepositoryException {
+        long start = System.nanoTime();
+        try {
+            permits.acquire();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted waiting for a parser", e);
+        }
+        SAXParser parser = idle.poll();
+        if (parser == null) {
+            try {
+                parser = saxParserFactory.newSAXParser();
+            }
+            catch (ParserConfigurationException e) {
+                permits.release();
+                logger.error(e);
+                throw new RepositoryException(e.getMessage(), e);
+            }
+            catch (SAXException e) {
+                permits.release();
+                logger.error(e);
+                throw new RepositoryException(e.getMessage(), e);
+            }
+        }
+        getStats(path).add(System.nanoTime() - start);
+        return parser;
+    }
+
+    /**
+     * Resets a parser and returns it to the pool.
+     */
+    public void release(SAXParser parser) {
+        try {
+            parser.reset();
+            idle.offer(parser);
+        }
+        catch (UnsupportedOperationException e) {
+            // the parser cannot be reused, a new one is created on demand
+        }
+        finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Parses a stream with a pooled parser.
+     *
+     * @param path
+     *            name of the calling code path, used for the statistics
+     */
+    public void parse(
+        String path, InputStream in, org.xml.sax.helpers.DefaultHandler handler)
+        throws RepositoryException {
+        SAXParser parser = acquire(path);
+        try {
+            parser.parse(in, handler);
+        }
+        catch (SAXException e) {
+            logger.error(e);
+            throw new RepositoryException(e.getMessage(), e);
+        }
+        catch (IOException e) {
+            logger.error(e);
+            throw new RepositoryException(e.getMessage(), e);
+        }
+        finally {
+            release(parser);
+        }
+    }
+
+    /**
+     * @return parser acquisition times by code path
+     */
+    public Map<String, LatencyStats> getAcquisitionStats() {
+        return acquisitionStats;
+    }
+
+    @Override
+    public String toString() {
+        StringBuffer sb = new StringBuffer("SaxParserPool: idle=");
+        sb.append(idle.size());
+        Iterator<LatencyStats> it = acquisitionStats.values().iterator();
+        while (it.hasNext()) {
+            sb.append("\n  ").append(it.next());
+        }
+        return sb.toString();
+    }
+
+    private LatencyStats getStats(String path) {
+        LatencyStats stats = acquisitionStats.get(path);
+        if (stats == null) {
+            stats = new LatencyStats(path);
+            LatencyStats existing = acquisitionStats.putIfAbsent(path, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
+}
@@ -3,117 +3,78 @@ package org.escidoc.services.oaiprovider.saxhandler;
 import java.util.HashMap;
 
 import org.escidoc.services.oaiprovider.EscidocSetInfo;
+import org.escidoc.services.oaiprovider.SetFragmentCache;
 import org.xml.sax.Attributes;
 
 
 public class SetDefinitionsHandler extends DefaultHandler {
    
-    private boolean behindElement = false;
-
     private boolean inElement = false;
-    private boolean inDescription = false;
-    private boolean inName = false;
-    private boolean inSpecification = false;
-    private boolean inQuery = false;
-    
-    private String description;
-    private String name;
-    private String query;
-    private String specification;
-    private HashMap<String,EscidocSetInfo> sets;
 
-    private EscidocSetInfo set;
+    /**
+     * The accumulator of the element whose content is currently read, or null
+     * if the content is not needed.
+     */
+    private CharacterBuffer current;
+
+    private final CharacterBuffer description = new CharacterBuffer(256);
+    private final CharacterBuffer name = new CharacterBuffer();
+    private final CharacterBuffer query = new CharacterBuffer(256);
+    private final CharacterBuffer specification = new CharacterBuffer();
+    private HashMap<String,EscidocSetInfo> sets;
 
     private int recordsNumber;
+
+    private final SetFragmentCache fragments;
     
-    public SetDefinitionsHandler() {
+    public SetDefinitionsHandler(final SetFragmentCache fragments) {
         this.sets = new HashMap<String,EscidocSetInfo>();
         this.recordsNumber = 0;
+        this.fragments = fragments;
     }
 
    
     public void startElement(
         String uri, String localName, String qName, Attributes attributes) {
-    	this.behindElement = false;
-        if (localName.equals("set-definition")) {
-            inElement = true; 
-            recordsNumber++;
+        current = null;
+        if (!inElement) {
+            if (localName.equals("set-definition")) {
+                inElement = true;
+                recordsNumber++;
+                description.reset();
+                name.reset();
+                query.reset();
+                specification.reset();
+            }
         }
-        if (inElement) {
-            if (localName.equals("description")) {
-                inDescription = true;   
-               } else if (localName.equals("name")) {
-                   inName = true;
-               } else if (localName.equals("specification")) {
-                   inSpecification = true;
-               } else if (localName.equals("query")) {
-                   inQuery = true;
-               }
+        else if (localName.equals("description")) {
+            current = description;
+        }
+        else if (localName.equals("name")) {
+            current = name;
+        }
+        else if (localName.equals("specification")) {
+            current = specification;
+        }
+        else if (localName.equals("query")) {
+            current = query;
         }
     }
 
     public void endElement(String uri, String localName, String qName) {
-    	this.behindElement = true;
-        if (inElement) {
-            if (localName.equals("description")) {
-                inDescription = false;   
-               } else if (localName.equals("name")) {
-                   inName = false;
-               } else if (localName.equals("specification")) {
-                   inSpecification = false;
-               } else if (localName.equals("query")) {
-                   inQuery = false;
-               }
-        }
-        if (localName.equals("set-definition")) {
+        current = null;
+        if (inElement && localName.equals("set-definition")) {
             inElement = false;
-            
-            set = new EscidocSetInfo(this.specification, this.name,
-                this.description, this.query);
-            if (sets == null) {
-             sets = new HashMap<String,EscidocSetInfo>(); 
-            }
-            sets.put(this.specification, set);
-            this.specification = null;
-            this.name = null;
-            this.description = null;
-            this.query = null;
-            this.set = null;
+            String spec = specification.toStringOrNull();
+            sets.put(spec, new EscidocSetInfo(spec, name.toStringOrNull(),
+                description.toStringOrNull(), query.toStringOrNull(),
+                fragments));
         } 
     }
 
     public void characters(char[] ch, int start, int length) {
-        
-    	if (behindElement) {
-    		return;
-    	}
-        if (inElement) {
-            if (inDescription) {
-                if (this.description == null) {
-                    this.description = new String(ch, start, length);
-                }  else {
-                    this.description = this.description + new String(ch, start, length);
-                }
-            } else if (inSpecification) {
-                if (this.specification == null) {
-                    this.specification = new String(ch, start, length);
-                }  else {
-                    this.specification = this.specification + new String(ch, start, length);
-                }
-            } else if (inQuery) {
-                if (this.query == null) {
-                    this.query = new String(ch, start, length);
-                }  else {
-                    this.query = this.query + new String(ch, start, length);
-                }
-            } else if (inName) {
-                if (this.name == null) {
-                    this.name = new String(ch, start, length);
-                }  else {
-                    this.name = this.name + new String(ch, start, length);
-                }
-            }
-            
+        if (current != null) {
+            current.append(ch, start, length);
         }
     }
 
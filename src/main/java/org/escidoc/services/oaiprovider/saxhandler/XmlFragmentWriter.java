@@ -0,0 +1,138 @@
+package org.escidoc.services.oaiprovider.saxhandler;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+import org.escidoc.services.oaiprovider.StreamUtility;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * Serializes the SAX events of an element subtree back into a standalone XML
+ * fragment. The handler owning the writer passes all prefix mappings of the
+ * document, so that the root of a captured fragment can declare every name
+ * space in scope.
+ */
+public class XmlFragmentWriter {
+
+    private final NamespaceSupport namespaces = new NamespaceSupport();
+
+    private final List<String[]> newMappings = new ArrayList<String[]>();
+
+    private StringBuffer fragment;
+
+    private int depth;
+
+    private boolean contextPushed = false;
+
+    /**
+     * Must be called for every prefix mapping of the document.
+     */
+    public void startPrefixMapping(String prefix, String uri) {
+        if (!contextPushed) {
+            namespaces.pushContext();
+            contextPushed = true;
+        }
+        namespaces.declarePrefix(prefix, uri);
+        newMappings.add(new String[] { prefix, uri });
+    }
+
+    /**
+     * @return true while a fragment is being captured
+     */
+    public boolean isCapturing() {
+        return fragment != null;
+    }
+
+    /**
+     * Starts capturing with the next start element.
+     */
+    public void startCapture() {
+        fragment = new StringBuffer();
+        depth = 0;
+    }
+
+    /**
+     * Must be called for every start element of the document.
+     */
+    public void startElement(String qName, Attributes attributes) {
+        if (!contextPushed) {
+            namespaces.pushContext();
+        }
+        contextPushed = false;
+        if (fragment != null) {
+            fragment.append('<').append(qName);
+            if (depth == 0) {
+                writeNamespacesInScope();
+            }
+            else {
+                for (int i = 0; i < newMappings.size(); i++) {
+                    String[] mapping = newMappings.get(i);
+                    writeNamespace(mapping[0], mapping[1]);
+                }
+            }
+            for (int i = 0; i < attributes.getLength(); i++) {
+                fragment.append(' ').append(attributes.getQName(i));
+                fragment.append("=\"");
+                StreamUtility.enc(attributes.getValue(i), fragment);
+                fragment.append('"');
+            }
+            fragment.append('>');
+            depth++;
+        }
+        newMappings.clear();
+    }
+
+    /**
+     * Must be called for every end element of the document.
+     *
+     * @return the captured fragment if this closes its root element,
+     *         otherwise null
+     */
+    public String endElement(String qName) {
+        namespaces.popContext();
+        if (fragment == null) {
+            return null;
+        }
+        fragment.append("</").append(qName).append('>');
+        depth--;
+        if (depth == 0) {
+            String result = fragment.toString();
+            fragment = null;
+            return result;
+        }
+        return null;
+    }
+
+    /**
+     * Must be called for the character data of the document.
+     */
+    public void characters(char[] ch, int start, int length) {
+        if (fragment != null && depth > 0) {
+            StreamUtility.enc(ch, start, length, fragment);
+        }
+    }
+
+    private void writeNamespacesInScope() {
+        Enumeration<?> prefixes = namespaces.getPrefixes();
+        while (prefixes.hasMoreElements()) {
+            String prefix = (String) prefixes.nextElement();
+            writeNamespace(prefix, namespaces.getURI(prefix));
+        }
+        String defaultUri = namespaces.getURI("");
+        if (defaultUri != null && defaultUri.length() > 0) {
+            writeNamespace("", defaultUri);
+        }
+    }
+
+    private void writeNamespace(String prefix, String uri) {
+        if ("xml".equals(prefix)) {
+            return;
+        }
+        fragment.append(prefix.length() == 0 ? " xmlns" : " xmlns:" + prefix);
+        fragment.append("=\"");
+        StreamUtility.enc(uri, fragment);
+        fragment.append('"');
+    }
+}
@@ -0,0 +1,263 @@
+package org.escidoc.services.oaiprovider.stax;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A record of an escidocoaipmh_all search response. The
+ * {@link SearchResultReader} reuses a single instance as cursor, so values
+ * must be copied if they are needed after the next call of nextRecord().
+ */
+public class SearchRecord {
+
+    private int position;
+
+    private String id;
+
+    private String lastModificationDate;
+
+    private String latestReleaseDate;
+
+    private boolean deleted;
+
+    private String resourceType;
+
+    private final List<String> contextIds = new ArrayList<String>();
+
+    private final List<String> organizationalUnitIds = new ArrayList<String>();
+
+    private final List<String> mdRecordIdentifiers = new ArrayList<String>();
+
+    private final List<String> payloadNames = new ArrayList<String>();
+
+    private final List<String> payloads = new ArrayList<String>();
+
+    /**
+     * @return an independent copy of this record
+     */
+    public SearchRecord copy() {
+        SearchRecord copy = new SearchRecord();
+        copy.position = position;
+        copy.id = id;
+        copy.lastModificationDate = lastModificationDate;
+        copy.latestReleaseDate = latestReleaseDate;
+        copy.deleted = deleted;
+        copy.resourceType = resourceType;
+        copy.contextIds.addAll(contextIds);
+        copy.organizationalUnitIds.addAll(organizationalUnitIds);
+        copy.mdRecordIdentifiers.addAll(mdRecordIdentifiers);
+        copy.payloadNames.addAll(payloadNames);
+        copy.payloads.addAll(payloads);
+        return copy;
+    }
+
+    /**
+     * Writes the record in a form read by {@link #readFrom(DataInput)}.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(position);
+        writeString(id, out);
+        writeString(lastModificationDate, out);
+        writeString(latestReleaseDate, out);
+        out.writeBoolean(deleted);
+        writeString(resourceType, out);
+        out.writeInt(contextIds.size());
+        for (int i = 0; i < contextIds.size(); i++) {
+            writeString(contextIds.get(i), out);
+        }
+        out.writeInt(organizationalUnitIds.size());
+        for (int i = 0; i < organizationalUnitIds.size(); i++) {
+            writeString(organizationalUnitIds.get(i), out);
+        }
+        out.writeInt(mdRecordIdentifiers.size());
+        for (int i = 0; i < mdRecordIdentifiers.size(); i++) {
+            writeString(mdRecordIdentifiers.get(i), out);
+        }
+        out.writeInt(payloads.size());
+        for (int i = 0; i < payloads.size(); i++) {
+            writeString(payloadNames.get(i), out);
+            writeString(payloads.get(i), out);
+        }
+    }
+
+    /**
+     * Replaces the values of this record by a record written by
+     * {@link #writeTo(DataOutput)}.
+     */
+    public void readFrom(DataInput in) throws IOException {
+        reset();
+        position = in.readInt();
+        id = readString(in);
+        lastModificationDate = readString(in);
+        latestReleaseDate = readString(in);
+        deleted = in.readBoolean();
+        resourceType = readString(in);
+        for (int i = in.readInt(); i > 0; i--) {
+            contextIds.add(readString(in));
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            organizationalUnitIds.add(readString(in));
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            mdRecordIdentifiers.add(readString(in));
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            payloadNames.add(readString(in));
+            payloads.add(readString(in));
+        }
+    }
+
+    private static void writeString(String s, DataOutput out)
+        throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    void reset() {
+        position = 0;
+        id = null;
+        lastModificationDate = null;
+        latestReleaseDate = null;
+        deleted = false;
+        resourceType = null;
+        contextIds.clear();
+        organizationalUnitIds.clear();
+        mdRecordIdentifiers.clear();
+        payloadNames.clear();
+        payloads.clear();
+    }
+
+    /**
+     * @return the position of the record in the whole search result, 0 if the
+     *         response did not contain it
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    void setPosition(int position) {
+        this.position = position;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    void setId(String id) {
+        this.id = id;
+    }
+
+    public String getLastModificationDate() {
+        return lastModificationDate;
+    }
+
+    void setLastModificationDate(String lastModificationDate) {
+        this.lastModificationDate = lastModificationDate;
+    }
+
+    public String getLatestReleaseDate() {
+        return latestReleaseDate;
+    }
+
+    void setLatestReleaseDate(String latestReleaseDate) {
+        this.latestReleaseDate = latestReleaseDate;
+    }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    void setDeleted(boolean deleted) {
+        this.deleted = deleted;
+    }
+
+    public String getResourceType() {
+        return resourceType;
+    }
+
+    void setResourceType(String resourceType) {
+        this.resourceType = resourceType;
+    }
+
+    /**
+     * @return ids of the contexts of the resource
+     */
+    public List<String> getContextIds() {
+        return contextIds;
+    }
+
+    void addContextId(String contextId) {
+        contextIds.add(contextId);
+    }
+
+    /**
+     * @return ids of the organizational units of the resource, without
+     *         duplicates
+     */
+    public List<String> getOrganizationalUnitIds() {
+        return organizationalUnitIds;
+    }
+
+    void addOrganizationalUnitId(String ouId) {
+        if (!organizationalUnitIds.contains(ouId)) {
+            organizationalUnitIds.add(ouId);
+        }
+    }
+
+    /**
+     * @return the identifiers of the md-records of the resource, each built
+     *         from the md-record name and the name space of its content as
+     *         name@namespace, like the escidoc.md-record-identifier index
+     */
+    public List<String> getMdRecordIdentifiers() {
+        return mdRecordIdentifiers;
+    }
+
+    void addMdRecordIdentifier(String identifier) {
+        mdRecordIdentifiers.add(identifier);
+    }
+
+    /**
+     * @return the content of the first requested md-record embedded in the
+     *         search record, or null
+     */
+    public String getPayload() {
+        return payloads.isEmpty() ? null : payloads.get(0);
+    }
+
+    /**
+     * @return the content of the md-record with the provided name embedded in
+     *         the search record, or null
+     */
+    public String getPayload(String mdRecordName) {
+        int i = payloadNames.indexOf(mdRecordName);
+        return i == -1 ? null : payloads.get(i);
+    }
+
+    boolean hasPayload(String mdRecordName) {
+        return payloadNames.contains(mdRecordName);
+    }
+
+    void addPayload(String mdRecordName, String payload) {
+        payloadNames.add(mdRecordName);
+        payloads.add(payload);
+    }
+}
@@ -0,0 +1,443 @@
+package org.escidoc.services.oaiprovider.stax;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.log4j.Logger;
+import org.escidoc.services.oaiprovider.StreamUtility;
+import org.escidoc.services.oaiprovider.saxhandler.CharacterBuffer;
+import org.xml.sax.helpers.NamespaceSupport;
+
+import proai.error.RepositoryException;
+
+/**
+ * Pull parser for a page of an escidocoaipmh_all search response. The
+ * records of the page are read one by one through {@link #nextRecord()} into
+ * a reused {@link SearchRecord}. Subtrees without interesting content, like
+ * the echoed request or md-records which are not requested as payload, are
+ * skipped without looking at their content.
+ */
+public class SearchResultReader {
+    private static final Logger logger =
+        Logger.getLogger(SearchResultReader.class.getName());
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        FACTORY.setProperty(XMLInputFactory.IS_VALIDATING, Boolean.FALSE);
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        FACTORY.setProperty(
+            XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    }
+
+    private final XMLStreamReader reader;
+
+    private final Set<String> payloadNames;
+
+    private final SearchRecord record = new SearchRecord();
+
+    private final CharacterBuffer text = new CharacterBuffer();
+
+    /**
+     * Name spaces in scope of the current element, needed to make a payload
+     * a standalone fragment.
+     */
+    private final NamespaceSupport namespaces = new NamespaceSupport();
+
+    private boolean started = false;
+
+    private int numberOfRecords = -1;
+
+    private int lastPosition = 0;
+
+    /**
+     * @param in
+     *            the response body
+     * @param payloadName
+     *            if not null, the content of the md-record with this name is
+     *            read as payload of the records
+     */
+    public SearchResultReader(InputStream in, String payloadName)
+        throws RepositoryException {
+        this(in, payloadName == null ? null : Collections
+            .singleton(payloadName));
+    }
+
+    /**
+     * @param in
+     *            the response body
+     * @param payloadNames
+     *            the contents of the md-records with these names are read as
+     *            payloads of the records; may be null
+     */
+    public SearchResultReader(InputStream in, Collection<String> payloadNames)
+        throws RepositoryException {
+        this.payloadNames =
+            payloadNames == null ? Collections.<String> emptySet()
+                : new HashSet<String>(payloadNames);
+        try {
+            reader = FACTORY.createXMLStreamReader(in);
+        }
+        catch (XMLStreamException e) {
+            throw new RepositoryException("Error reading search response", e);
+        }
+    }
+
+    /**
+     * Reads the next record of the page.
+     *
+     * @return false if the page contains no more records
+     */
+    public boolean nextRecord() throws RepositoryException {
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    namespaces.popContext();
+                }
+                else if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (SrwToken.forName(reader.getLocalName())) {
+                    case NUMBER_OF_RECORDS:
+                        readText();
+                        numberOfRecords = text.isEmpty() ? 0 : text.parseInt();
+                        break;
+                    case RECORDS:
+                        enterElement();
+                        break;
+                    case RECORD:
+                        readRecord();
+                        return true;
+                    default:
+                        if (started) {
+                            skipElement();
+                        }
+                        else {
+                            // the document element
+                            enterElement();
+                        }
+                    }
+                    started = true;
+                }
+            }
+            return false;
+        }
+        catch (XMLStreamException e) {
+            throw new RepositoryException("Error reading search response", e);
+        }
+        catch (NumberFormatException e) {
+            throw new RepositoryException("Error reading search response", e);
+        }
+    }
+
+    /**
+     * @return the record read by the last call of nextRecord()
+     */
+    public SearchRecord getRecord() {
+        return record;
+    }
+
+    /**
+     * @return the number of records of the whole search result, -1 if the
+     *         response did not contain it up to now
+     */
+    public int getNumberOfRecords() {
+        return numberOfRecords;
+    }
+
+    /**
+     * Must be called after all records of the page were read.
+     *
+     * @return the position of the first record of the next page, or -1 if
+     *         this was the last page
+     * @throws RepositoryException
+     *             if the response contained no numberOfRecords
+     */
+    public int getNextRecordPosition() throws RepositoryException {
+        if (numberOfRecords == -1) {
+            throw new RepositoryException(
+                "Search response contains no numberOfRecords");
+        }
+        if (lastPosition == 0 || lastPosition >= numberOfRecords) {
+            return -1;
+        }
+        return lastPosition + 1;
+    }
+
+    public void close() {
+        try {
+            reader.close();
+        }
+        catch (XMLStreamException e) {
+            logger.warn("Unable to close search response reader", e);
+        }
+    }
+
+    private void readRecord() throws XMLStreamException {
+        record.reset();
+        enterElement();
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                namespaces.popContext();
+                break;
+            }
+            else if (event == XMLStreamConstants.START_ELEMENT) {
+                switch (SrwToken.forName(reader.getLocalName())) {
+                case RECORD_POSITION:
+                    readText();
+                    if (!text.isEmpty()) {
+                        record.setPosition(text.parseInt());
+                        lastPosition = record.getPosition();
+                    }
+                    break;
+                case RECORD_DATA:
+                    enterElement();
+                    readRecordData();
+                    break;
+                default:
+                    skipElement();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the fields of a record from the content of recordData, up to its
+     * end element.
+     */
+    private void readRecordData() throws XMLStreamException {
+        int depth = 0;
+        while (depth >= 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                namespaces.popContext();
+                depth--;
+            }
+            else if (event == XMLStreamConstants.START_ELEMENT) {
+                switch (SrwToken.forName(reader.getLocalName())) {
+                case ID:
+                    record.setId(readText());
+                    break;
+                case LAST_MODIFICATION_DATE:
+                    record.setLastModificationDate(readText());
+                    break;
+                case LATEST_RELEASE_DATE:
+                    record.setLatestReleaseDate(readText());
+                    break;
+                case DELETED:
+                    record.setDeleted("true".equals(readText()));
+                    break;
+                case RESOURCE_TYPE:
+                    record.setResourceType(readText());
+                    break;
+                case CONTEXT_ID:
+                    String contextId = readText();
+                    if (contextId != null) {
+                        record.addContextId(contextId);
+                    }
+                    break;
+                case ORGANIZATIONAL_UNIT_ID:
+                    String ouId = readText();
+                    if (ouId != null) {
+                        record.addOrganizationalUnitId(ouId);
+                    }
+                    break;
+                case MD_RECORD:
+                    enterElement();
+                    readMdRecord(reader.getAttributeValue(null, "name"));
+                    break;
+                default:
+                    enterElement();
+                    depth++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the identifier of the current md-record, built from its name and
+     * the name space of its first child element, and captures that element as
+     * payload if the md-record was requested. Consumes the md-record up to
+     * its end element.
+     */
+    private void readMdRecord(String name) throws XMLStreamException {
+        boolean first = true;
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                namespaces.popContext();
+                return;
+            }
+            else if (event == XMLStreamConstants.START_ELEMENT) {
+                if (first && name != null) {
+                    String uri = reader.getNamespaceURI();
+                    record.addMdRecordIdentifier(name + "@"
+                        + (uri == null ? "" : uri));
+                }
+                if (first && payloadNames.contains(name)
+                    && !record.hasPayload(name)) {
+                    record.addPayload(name, serializeElement());
+                }
+                else {
+                    skipElement();
+                }
+                first = false;
+            }
+        }
+    }
+
+    /**
+     * Serializes the current element with all name spaces in scope declared
+     * on its root and consumes it up to its end element.
+     */
+    private String serializeElement() throws XMLStreamException {
+        StringBuffer fragment = new StringBuffer();
+        int depth = 0;
+        int event = XMLStreamConstants.START_ELEMENT;
+        while (true) {
+            switch (event) {
+            case XMLStreamConstants.START_ELEMENT:
+                writeStartElement(fragment, depth == 0);
+                depth++;
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                fragment.append("</");
+                appendQName(reader.getPrefix(), reader.getLocalName(),
+                    fragment);
+                fragment.append('>');
+                namespaces.popContext();
+                depth--;
+                if (depth == 0) {
+                    return fragment.toString();
+                }
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                StreamUtility.enc(reader.getTextCharacters(),
+                    reader.getTextStart(), reader.getTextLength(), fragment);
+                break;
+            default:
+                // comments and processing instructions are dropped
+            }
+            event = reader.next();
+        }
+    }
+
+    private void writeStartElement(StringBuffer fragment, boolean root) {
+        enterElement();
+        fragment.append('<');
+        appendQName(reader.getPrefix(), reader.getLocalName(), fragment);
+        if (root) {
+            Enumeration<?> prefixes = namespaces.getPrefixes();
+            while (prefixes.hasMoreElements()) {
+                String prefix = (String) prefixes.nextElement();
+                appendNamespace(prefix, namespaces.getURI(prefix), fragment);
+            }
+            String defaultUri = namespaces.getURI("");
+            if (defaultUri != null && defaultUri.length() > 0) {
+                appendNamespace("", defaultUri, fragment);
+            }
+        }
+        else {
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                appendNamespace(reader.getNamespacePrefix(i),
+                    reader.getNamespaceURI(i), fragment);
+            }
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            fragment.append(' ');
+            appendQName(reader.getAttributePrefix(i),
+                reader.getAttributeLocalName(i), fragment);
+            fragment.append("=\"");
+            StreamUtility.enc(reader.getAttributeValue(i), fragment);
+            fragment.append('"');
+        }
+        fragment.append('>');
+    }
+
+    private static void appendQName(
+        String prefix, String localName, StringBuffer out) {
+        if (prefix != null && prefix.length() > 0) {
+            out.append(prefix).append(':');
+        }
+        out.append(localName);
+    }
+
+    private static void appendNamespace(
+        String prefix, String uri, StringBuffer out) {
+        if ("xml".equals(prefix)) {
+            return;
+        }
+        out.append(prefix == null || prefix.length() == 0 ? " xmlns"
+            : " xmlns:" + prefix);
+        out.append("=\"");
+        StreamUtility.enc(uri, out);
+        out.append('"');
+    }
+
+    /**
+     * Opens the name space scope of the current start element.
+     */
+    private void enterElement() {
+        namespaces.pushContext();
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String prefix = reader.getNamespacePrefix(i);
+            namespaces.declarePrefix(prefix == null ? "" : prefix,
+                reader.getNamespaceURI(i));
+        }
+    }
+
+    /**
+     * Reads the text content of the current element, leaving out line breaks
+     * and nested elements, and consumes it up to its end element.
+     *
+     * @return the content or null, if the element is empty
+     */
+    private String readText() throws XMLStreamException {
+        text.reset();
+        while (true) {
+            int event = reader.next();
+            switch (event) {
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                text.appendSkipLineBreaks(reader.getTextCharacters(),
+                    reader.getTextStart(), reader.getTextLength());
+                break;
+            case XMLStreamConstants.START_ELEMENT:
+                skipElement();
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                return text.toStringOrNull();
+            default:
+            }
+        }
+    }
+
+    /**
+     * Consumes the current element up to its end element.
+     */
+    private void skipElement() throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            }
+            else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.escidoc.services.oaiprovider.stax;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The element names of an escidocoaipmh_all search response the
+ * {@link SearchResultReader} is interested in. Local names are resolved once
+ * per element through a symbol table, so the reader branches on tokens
+ * instead of comparing strings.
+ */
+enum SrwToken {
+    NUMBER_OF_RECORDS("numberOfRecords"),
+    RECORDS("records"),
+    RECORD("record"),
+    RECORD_POSITION("recordPosition"),
+    RECORD_DATA("recordData"),
+    ID("id"),
+    LAST_MODIFICATION_DATE("last-modification-date"),
+    LATEST_RELEASE_DATE("latest-release-date"),
+    DELETED("deleted"),
+    RESOURCE_TYPE("resource-type"),
+    CONTEXT_ID("context-id"),
+    ORGANIZATIONAL_UNIT_ID("organizational-unit-id"),
+    MD_RECORD("md-record"),
+    OTHER(null);
+
+    private static final Map<String, SrwToken> SYMBOLS =
+        new HashMap<String, SrwToken>();
+
+    static {
+        for (SrwToken token : values()) {
+            if (token.localName != null) {
+                SYMBOLS.put(token.localName, token);
+            }
+        }
+    }
+
+    private final String localName;
+
+    private SrwToken(String localName) {
+        this.localName = localName;
+    }
+
+    /**
+     * @return the token of a local name, OTHER for all names without token
+     */
+    static SrwToken forName(String localName) {
+        SrwToken token = SYMBOLS.get(localName);
+        return token == null ? OTHER : token;
+    }
+}
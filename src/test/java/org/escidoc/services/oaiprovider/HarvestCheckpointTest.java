@@ -0,0 +1,184 @@
+package org.escidoc.services.oaiprovider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.List;
+
+import org.escidoc.services.oaiprovider.HarvestCheckpoint.Scan;
+import org.escidoc.services.oaiprovider.stax.SearchRecords;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Interrupts harvests and resumes them from their {@link HarvestCheckpoint}.
+ */
+public class HarvestCheckpointTest {
+
+    private static final Date FROM = new Date(1000000L);
+
+    private static final Date UNTIL = new Date(2000000L);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void newHarvest() throws Exception {
+        HarvestCheckpoint checkpoint = open(UNTIL);
+        List<Scan> scans = checkpoint.getScans();
+        assertEquals(2, scans.size());
+        assertFalse(scans.get(0).isWithdrawn());
+        assertTrue(scans.get(1).isWithdrawn());
+        for (int i = 0; i < scans.size(); i++) {
+            assertEquals(FROM.getTime() - 1, scans.get(i).getAfter().getTime());
+            assertEquals(UNTIL.getTime() + 1, scans.get(i).getUntil()
+                .getTime());
+            assertEquals(1, scans.get(i).getNextRecord());
+            assertEquals(-1, scans.get(i).getNumberOfRecords());
+        }
+        assertEquals("", replay(checkpoint));
+        checkpoint.close();
+    }
+
+    @Test
+    public void pendingPageReread() throws Exception {
+        HarvestCheckpoint checkpoint = open(UNTIL);
+        Scan scan = checkpoint.getScans().get(0);
+        record(checkpoint, "escidoc:1", "escidoc:2");
+        checkpoint.pageCompleted(scan, 3, 5);
+        // interrupted while reading the second page
+        record(checkpoint, "escidoc:3");
+        checkpoint.close();
+
+        checkpoint = open(UNTIL);
+        scan = checkpoint.getScans().get(0);
+        assertEquals(3, scan.getNextRecord());
+        assertEquals(5, scan.getNumberOfRecords());
+        assertEquals("escidoc:1 escidoc:2 ", replay(checkpoint));
+
+        record(checkpoint, "escidoc:3", "escidoc:4", "escidoc:5");
+        checkpoint.pageCompleted(scan, -1, 5);
+        assertTrue(scan.isComplete());
+        assertEquals("escidoc:1 escidoc:2 escidoc:3 escidoc:4 escidoc:5 ",
+            replay(checkpoint));
+        checkpoint.close();
+    }
+
+    @Test
+    public void restartWhenNumberOfRecordsChanged() throws Exception {
+        HarvestCheckpoint checkpoint = open(UNTIL);
+        Scan released = checkpoint.getScans().get(0);
+        Scan withdrawn = checkpoint.getScans().get(1);
+        record(checkpoint, "escidoc:1");
+        checkpoint.pageCompleted(released, -1, 1);
+        record(checkpoint, "escidoc:2", "escidoc:3");
+        checkpoint.pageCompleted(withdrawn, 3, 4);
+        checkpoint.close();
+
+        checkpoint = open(UNTIL);
+        withdrawn = checkpoint.getScans().get(1);
+        assertTrue(checkpoint.getScans().get(0).isComplete());
+        assertEquals(4, withdrawn.getNumberOfRecords());
+        // the next page reports 5 records, the page offsets are stale
+        checkpoint.restart(withdrawn);
+        assertEquals(1, withdrawn.getNextRecord());
+        assertEquals(-1, withdrawn.getNumberOfRecords());
+        assertEquals("escidoc:1 ", replay(checkpoint));
+        checkpoint.close();
+
+        checkpoint = open(UNTIL);
+        assertEquals(1, checkpoint.getScans().get(1).getNextRecord());
+        assertEquals("escidoc:1 ", replay(checkpoint));
+        checkpoint.close();
+    }
+
+    @Test
+    public void windowExtended() throws Exception {
+        HarvestCheckpoint checkpoint = open(UNTIL);
+        Scan released = checkpoint.getScans().get(0);
+        record(checkpoint, "escidoc:1");
+        checkpoint.pageCompleted(released, 2, 3);
+        checkpoint.close();
+
+        Date until = new Date(UNTIL.getTime() + 500000L);
+        checkpoint = open(until);
+        List<Scan> scans = checkpoint.getScans();
+        assertEquals(4, scans.size());
+        assertEquals(2, scans.get(0).getNextRecord());
+        assertEquals(UNTIL.getTime() + 1, scans.get(0).getUntil().getTime());
+        for (int i = 2; i < 4; i++) {
+            assertEquals(UNTIL.getTime() + 1, scans.get(i).getAfter()
+                .getTime());
+            assertEquals(until.getTime() + 1, scans.get(i).getUntil()
+                .getTime());
+            assertEquals(1, scans.get(i).getNextRecord());
+        }
+        assertEquals("escidoc:1 ", replay(checkpoint));
+        checkpoint.close();
+    }
+
+    @Test
+    public void windowShortened() throws Exception {
+        HarvestCheckpoint checkpoint = open(UNTIL);
+        record(checkpoint, "escidoc:1");
+        checkpoint.pageCompleted(checkpoint.getScans().get(0), 2, 3);
+        checkpoint.close();
+
+        checkpoint = open(new Date(UNTIL.getTime() - 1000L));
+        assertEquals(1, checkpoint.getScans().get(0).getNextRecord());
+        assertEquals("", replay(checkpoint));
+        checkpoint.close();
+    }
+
+    @Test
+    public void otherWindowAndDelete() throws Exception {
+        HarvestCheckpoint checkpoint = open(UNTIL);
+        record(checkpoint, "escidoc:1");
+        checkpoint.pageCompleted(checkpoint.getScans().get(0), 2, 3);
+        checkpoint.close();
+        assertEquals(2, folder.getRoot().list().length);
+
+        // proai succeeded with the window and continues after it
+        checkpoint =
+            HarvestCheckpoint.open(folder.getRoot(), "escidoc", UNTIL,
+                new Date(UNTIL.getTime() + 1000L));
+        assertEquals("", replay(checkpoint));
+        record(checkpoint, "escidoc:2");
+        checkpoint.pageCompleted(checkpoint.getScans().get(0), -1, 1);
+        assertEquals(2, folder.getRoot().list().length);
+
+        checkpoint.delete();
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    private HarvestCheckpoint open(Date until) throws Exception {
+        return HarvestCheckpoint.open(folder.getRoot(), "escidoc", FROM, until);
+    }
+
+    private static void record(HarvestCheckpoint checkpoint, String... ids) {
+        for (int i = 0; i < ids.length; i++) {
+            checkpoint.record(SearchRecords.create(ids[i], "item",
+                "2012-03-04T05:06:07.890Z", null, false, null));
+        }
+    }
+
+    /**
+     * @return the ids of the replayed records, each followed by a space
+     */
+    private String replay(HarvestCheckpoint checkpoint) {
+        RecordListWriter writer =
+            new RecordListWriter("escidoc.org", null, null, folder.getRoot(),
+                Long.MAX_VALUE, true);
+        checkpoint.replay(writer);
+        RecordsReader reader = new RecordsReader(writer.close());
+        StringBuilder ids = new StringBuilder();
+        EscidocRecord record;
+        while ((record = reader.readRecord("escidoc", "diss")) != null) {
+            ids.append(record.getResourceId()).append(' ');
+        }
+        return ids.toString();
+    }
+}
@@ -0,0 +1,284 @@
+package org.escidoc.services.oaiprovider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.escidoc.services.oaiprovider.stax.SearchRecords;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import proai.error.RepositoryException;
+
+/**
+ * Writes record lists with the {@link RecordListWriter} and reads them back,
+ * held in memory and spilled to a file, each compressed and uncompressed.
+ */
+@RunWith(Parameterized.class)
+public class RecordListTest {
+
+    private static final String DATE = "2012-03-04T05:06:07.890Z";
+
+    private static final String RELEASE_DATE = "2012-03-01T00:00:00.000Z";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final boolean inMemory;
+
+    private final boolean compress;
+
+    public RecordListTest(boolean inMemory, boolean compress) {
+        this.inMemory = inMemory;
+        this.compress = compress;
+    }
+
+    @Parameters
+    public static Collection<Object[]> options() {
+        return Arrays.asList(new Object[][] { { true, true }, { true, false },
+            { false, true }, { false, false } });
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        RecordListWriter writer = newWriter();
+        writer.write(SearchRecords.create("escidoc:1", "item", DATE,
+            RELEASE_DATE, false, null, "context:escidoc:10", "ou:escidoc:20"));
+        writer.write(SearchRecords.create("escidoc:2", "container", DATE,
+            RELEASE_DATE, true, null, "context:escidoc:10"));
+        RecordList list = writer.close();
+        assertEquals(2, writer.getCount());
+        assertEquals(inMemory, list.isInMemory());
+
+        RecordsReader reader = new RecordsReader(list);
+        EscidocRecord record = reader.readRecord("escidoc", "diss");
+        assertEquals("oai:escidoc.org:escidoc:1", record.getItemID());
+        assertEquals("escidoc", record.getPrefix());
+        assertEquals("escidoc:1", record.getResourceId());
+        assertEquals("item", record.getResourceType());
+        assertFalse(record.isDeleted());
+        assertNull(record.getPayload());
+        assertEquals("escidoc:1 diss false " + DATE + " " + RELEASE_DATE
+            + " item context_escidoc_10 ou_escidoc_20", record.getSourceInfo());
+
+        record = reader.readRecord("escidoc", "diss");
+        assertTrue(record.isDeleted());
+        assertEquals("escidoc:2 diss true " + DATE + " " + RELEASE_DATE
+            + " container context_escidoc_10", record.getSourceInfo());
+
+        assertNull(reader.readRecord("escidoc", "diss"));
+        assertEquals("closed reader deletes the list", 0, folder.getRoot()
+            .list().length);
+    }
+
+    @Test
+    public void emptyList() throws Exception {
+        RecordList list = newWriter().close();
+        assertEquals(0, list.size());
+        assertNull(new RecordsReader(list).readRecord("escidoc", "diss"));
+    }
+
+    @Test
+    public void payload() throws Exception {
+        RecordListWriter writer = newWriter();
+        writer.write(SearchRecords.create("escidoc:1", "item", DATE,
+            RELEASE_DATE, false, "<md-record>ä</md-record>"));
+        writer.write(SearchRecords.create("escidoc:2", "item", DATE,
+            RELEASE_DATE, false, null));
+        RecordsReader reader = new RecordsReader(writer.close());
+        assertEquals("<md-record>ä</md-record>", reader.readRecord(
+            "escidoc", "diss").getPayload());
+        assertNull(reader.readRecord("escidoc", "diss").getPayload());
+        reader.close();
+    }
+
+    @Test
+    public void missingDate() throws Exception {
+        RecordListWriter writer = newWriter();
+        writer.write(SearchRecords.create("escidoc:1", "item", DATE, null,
+            false, null));
+        writer.write(SearchRecords.create("escidoc:2", "item", DATE,
+            "no date", false, null));
+        RecordsReader reader = new RecordsReader(writer.close());
+        assertEquals("escidoc:1 diss false " + DATE + " null item", reader
+            .readRecord("escidoc", "diss").getSourceInfo());
+        assertEquals("escidoc:2 diss false " + DATE + " null item", reader
+            .readRecord("escidoc", "diss").getSourceInfo());
+        reader.close();
+    }
+
+    @Test
+    public void recordLargerThanBlock() throws Exception {
+        StringBuilder payload = new StringBuilder();
+        while (payload.length() <= 3 * RecordListFormat.BLOCK_SIZE) {
+            payload.append("<md-record/>");
+        }
+        RecordListWriter writer = newWriter();
+        writer.write(SearchRecords.create("escidoc:1", "item", DATE,
+            RELEASE_DATE, false, null));
+        writer.write(SearchRecords.create("escidoc:2", "item", DATE,
+            RELEASE_DATE, false, payload.toString()));
+        writer.write(SearchRecords.create("escidoc:3", "item", DATE,
+            RELEASE_DATE, false, null));
+        RecordsReader reader = new RecordsReader(writer.close());
+        assertEquals("escidoc:1", reader.readRecord("escidoc", "diss")
+            .getResourceId());
+        assertEquals(payload.toString(), reader.readRecord("escidoc", "diss")
+            .getPayload());
+        assertEquals("escidoc:3", reader.readRecord("escidoc", "diss")
+            .getResourceId());
+        assertNull(reader.readRecord("escidoc", "diss"));
+    }
+
+    @Test
+    public void randomAccess() throws Exception {
+        RecordList list = writeList(10);
+        assertEquals(10, list.size());
+        assertEquals("escidoc:7", list.get(7, "escidoc", "diss")
+            .getResourceId());
+        assertEquals("escidoc:0", list.get(0, "escidoc", "diss")
+            .getResourceId());
+        try {
+            list.get(10, "escidoc", "diss");
+            fail("read behind the list");
+        }
+        catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        list.close();
+    }
+
+    @Test
+    public void split() throws Exception {
+        RecordList list = writeList(10);
+        List<RecordList.Cursor> cursors = list.split(3);
+        assertEquals(3, cursors.size());
+        long next = 0;
+        for (int i = 0; i < cursors.size(); i++) {
+            RecordList.Cursor cursor = cursors.get(i);
+            assertEquals(next, cursor.getFrom());
+            while (cursor.hasNext()) {
+                assertEquals("escidoc:" + next, cursor.next("escidoc", "diss")
+                    .getResourceId());
+                next++;
+            }
+            assertEquals(next, cursor.getTo());
+            assertNull(cursor.next("escidoc", "diss"));
+        }
+        assertEquals(10, next);
+        assertEquals(10, list.split(20).size());
+        list.close();
+    }
+
+    @Test
+    public void cursorSeek() throws Exception {
+        RecordList list = writeList(10);
+        RecordList.Cursor cursor = list.cursor(2, 6);
+        assertEquals("escidoc:2", cursor.next("escidoc", "diss")
+            .getResourceId());
+        cursor.seek(5);
+        assertEquals(5, cursor.getPosition());
+        assertEquals("escidoc:5", cursor.next("escidoc", "diss")
+            .getResourceId());
+        assertFalse(cursor.hasNext());
+        cursor.seek(3);
+        assertEquals("escidoc:3", cursor.next("escidoc", "diss")
+            .getResourceId());
+        try {
+            cursor.seek(7);
+            fail("seek behind the range");
+        }
+        catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+
+        RecordsReader reader = new RecordsReader(list.cursor(8, 10));
+        assertEquals("escidoc:8", reader.readRecord("escidoc", "diss")
+            .getResourceId());
+        assertEquals("escidoc:9", reader.readRecord("escidoc", "diss")
+            .getResourceId());
+        assertNull(reader.readRecord("escidoc", "diss"));
+        assertEquals("escidoc:4", list.get(4, "escidoc", "diss")
+            .getResourceId());
+        list.close();
+    }
+
+    @Test
+    public void manyBlocks() throws Exception {
+        RecordList list = writeList(20000);
+        for (int i = 0; i < 20000; i += 997) {
+            assertEquals("escidoc:" + i, list.get(i, "escidoc", "diss")
+                .getResourceId());
+        }
+        RecordList.Cursor cursor = list.split(7).get(3);
+        cursor.seek(cursor.getTo() - 1);
+        assertEquals("escidoc:" + (cursor.getTo() - 1), cursor.next(
+            "escidoc", "diss").getResourceId());
+        RecordsReader reader = new RecordsReader(list);
+        for (int i = 0; i < 20000; i++) {
+            assertEquals("escidoc:" + i, reader.readRecord("escidoc", "diss")
+                .getResourceId());
+        }
+        assertNull(reader.readRecord("escidoc", "diss"));
+    }
+
+    @Test
+    public void abort() throws Exception {
+        RecordListWriter writer = newWriter();
+        writer.write(SearchRecords.create("escidoc:1", "item", DATE,
+            RELEASE_DATE, false, null));
+        writer.abort();
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void incompleteList() throws IOException {
+        File file = folder.newFile("records");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[RecordListFormat.FOOTER_SIZE]);
+        out.close();
+        try {
+            new RecordList(file, false);
+            fail("incomplete list opened");
+        }
+        catch (RepositoryException e) {
+            // expected
+        }
+    }
+
+    /**
+     * @return a writer keeping the list in memory or spilling it to the
+     *         temporary folder right away
+     */
+    private RecordListWriter newWriter() {
+        return new RecordListWriter("escidoc.org", null, null,
+            folder.getRoot(), inMemory ? Long.MAX_VALUE : 0, compress);
+    }
+
+    /**
+     * @return a list of records escidoc:0 to escidoc:count-1, every third
+     *         with a payload
+     */
+    private RecordList writeList(int count) {
+        RecordListWriter writer = newWriter();
+        for (int i = 0; i < count; i++) {
+            writer.write(SearchRecords.create("escidoc:" + i, "item", DATE,
+                RELEASE_DATE, false, i % 3 == 0 ? "<md-record/>" : null,
+                "context:escidoc:" + i % 2));
+        }
+        return writer.close();
+    }
+}
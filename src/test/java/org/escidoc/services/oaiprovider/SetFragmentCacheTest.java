@@ -0,0 +1,88 @@
+package org.escidoc.services.oaiprovider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import proai.SetInfo;
+import proai.driver.RemoteIterator;
+import proai.driver.impl.RemoteIteratorImpl;
+
+/**
+ * Lists sets through a {@link SetFragmentCache}.
+ */
+public class SetFragmentCacheTest {
+
+    private final SetFragmentCache cache = new SetFragmentCache();
+
+    @Test
+    public void unchangedSetReused() {
+        SetFragmentCache.Fragment fragment =
+            fragment("ou_escidoc_1", "Institute", null);
+        assertSame(fragment, fragment("ou_escidoc_1", "Institute", null));
+        assertNotSame(fragment, fragment("ou_escidoc_1", "Institute", ""));
+        assertEquals("<set>\n  <setSpec>ou_escidoc_1</setSpec>\n"
+            + "  <setName>Institute &amp; Co</setName>\n</set>\n", write(
+            new EscidocSetInfo("ou_escidoc_1", "Institute & Co", null, null,
+                cache)).replace(System.getProperty("line.separator"), "\n"));
+    }
+
+    @Test
+    public void unlistedSetsDropped() throws Exception {
+        SetFragmentCache.Fragment kept =
+            fragment("ou_escidoc_1", "Institute", null);
+        SetFragmentCache.Fragment dropped =
+            fragment("ou_escidoc_2", "Department", null);
+
+        RemoteIterator<SetInfo> sets =
+            cache.retainListed(new RemoteIteratorImpl<SetInfo>(Arrays
+                .<SetInfo> asList(
+                    new EscidocSetInfo("ou_escidoc_1", "Institute", null,
+                        null, cache)).iterator()));
+        while (sets.hasNext()) {
+            write(sets.next());
+        }
+        sets.close();
+
+        assertSame(kept, fragment("ou_escidoc_1", "Institute", null));
+        assertNotSame(dropped, fragment("ou_escidoc_2", "Department", null));
+    }
+
+    @Test
+    public void incompleteListingKeepsSets() throws Exception {
+        SetFragmentCache.Fragment fragment =
+            fragment("ou_escidoc_2", "Department", null);
+        RemoteIterator<SetInfo> sets =
+            cache.retainListed(new RemoteIteratorImpl<SetInfo>(Arrays
+                .<SetInfo> asList(
+                    new EscidocSetInfo("ou_escidoc_1", "Institute", null,
+                        null, cache)).iterator()));
+        sets.next();
+        sets.close();
+        assertSame(fragment, fragment("ou_escidoc_2", "Department", null));
+    }
+
+    private SetFragmentCache.Fragment fragment(
+        final String spec, String name, String description) {
+        return cache.get(spec, name, description,
+            new SetFragmentCache.Serializer() {
+                public String serialize() {
+                    return spec;
+                }
+            });
+    }
+
+    private static String write(SetInfo set) {
+        StringWriter xml = new StringWriter();
+        PrintWriter out = new PrintWriter(xml);
+        set.write(out);
+        out.flush();
+        return xml.toString();
+    }
+}
@@ -0,0 +1,40 @@
+package org.escidoc.services.oaiprovider.stax;
+
+/**
+ * Creates the search records a {@link SearchResultReader} would return, for
+ * tests outside of this package.
+ */
+public final class SearchRecords {
+
+    private SearchRecords() {
+    }
+
+    /**
+     * @param sets
+     *            context and organizational unit ids, prefixed with
+     *            "context:" or "ou:"
+     */
+    public static SearchRecord create(String id, String resourceType,
+        String lastModificationDate, String latestReleaseDate,
+        boolean deleted, String payload, String... sets) {
+        SearchRecord record = new SearchRecord();
+        record.setId(id);
+        record.setResourceType(resourceType);
+        record.setLastModificationDate(lastModificationDate);
+        record.setLatestReleaseDate(latestReleaseDate);
+        record.setDeleted(deleted);
+        if (payload != null) {
+            record.addPayload("escidoc", payload);
+        }
+        for (int i = 0; i < sets.length; i++) {
+            if (sets[i].startsWith("context:")) {
+                record.addContextId(sets[i].substring("context:".length()));
+            }
+            else {
+                record.addOrganizationalUnitId(sets[i].substring("ou:"
+                    .length()));
+            }
+        }
+        return record;
+    }
+}